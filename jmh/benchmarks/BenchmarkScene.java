@@ -0,0 +1,75 @@
+package benchmarks;
+
+import entities.Camera;
+import entities.Entity;
+import entities.Player;
+import models.RawModel;
+import models.TexturedModel;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import renderEngine.MasterRenderer;
+import textures.ModelTexture;
+import textures.TerrainTexture;
+import textures.TerrainTexturePack;
+import toolbox.Frustum;
+import toolbox.Maths;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** The made up scene the benchmarks share: models with fake VAO and texture IDs (nothing is ever drawn), a
+ *  forest spread out in front of a camera like in MainGameLoop, and the projection of a 1280 x 720 window. */
+final class BenchmarkScene {
+
+    static final int WIDTH = 1280;
+    static final int HEIGHT = 720;
+
+    private BenchmarkScene() {
+    }
+
+    /** A tree, a fern from a 2 x 2 texture atlas and grass, as in the game. */
+    static TexturedModel[] createModels() {
+        TexturedModel tree = new TexturedModel(new RawModel(1, 3000, 10), new ModelTexture(1));
+        TexturedModel fern = new TexturedModel(new RawModel(2, 600, 2), new ModelTexture(2));
+        fern.getTexture().setNumberOfRows(2);
+        TexturedModel grass = new TexturedModel(new RawModel(3, 300, 1.5f), new ModelTexture(3));
+        return new TexturedModel[] {tree, fern, grass};
+    }
+
+    /** Spread over the 800 x 800 area in front of the camera. Always the same ones for the same count. */
+    static List<Entity> createEntities(int count, TexturedModel[] models) {
+        Random random = new Random(676452);
+        List<Entity> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Vector3f position = new Vector3f(random.nextFloat() * 800 - 400, random.nextFloat() * 5,
+                    random.nextFloat() * -800);
+            entities.add(new Entity(models[i % models.length], random.nextInt(4), position, 0,
+                    random.nextFloat() * 360, 0, random.nextFloat() + 0.5f));
+        }
+        return entities;
+    }
+
+    /** A camera behind and above the player, looking into the forest. */
+    static Camera createCamera() {
+        Player player = new Player(createModels()[0], new Vector3f(0, 0, 0), 0, 180, 0, 1);
+        Camera camera = new Camera(player);
+        camera.setPosition(new Vector3f(0, 20, 40));
+        return camera;
+    }
+
+    static Matrix4f createProjectionMatrix() {
+        return MasterRenderer.createProjectionMatrix(WIDTH, HEIGHT);
+    }
+
+    static Frustum createFrustum(Camera camera) {
+        Frustum frustum = new Frustum();
+        frustum.update(createProjectionMatrix(), Maths.createViewMatrix(camera));
+        return frustum;
+    }
+
+    static TerrainTexturePack createTexturePack() {
+        TerrainTexture texture = new TerrainTexture(0);
+        return new TerrainTexturePack(texture, texture, texture, texture);
+    }
+}
@@ -0,0 +1,128 @@
+package benchmarks;
+
+import entities.Camera;
+import entities.Entity;
+import entities.Scene;
+import models.TexturedModel;
+import org.lwjgl.util.vector.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import renderEngine.EntityBatcher;
+import renderEngine.MasterRenderer;
+import renderEngine.RenderQueue;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** What MasterRenderer does for the entities of a frame before anything is drawn, through the same EntityBatcher
+ *  it uses: culling, LOD selection, queueing, sorting and packing the instance data. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EntityBatcherBenchmark {
+
+    private static final int ENTITIES = 10000;
+    private static final int SCENE_ENTITIES = 30000;
+
+    private Camera camera;
+    private EntityBatcher batcher;
+    private List<Entity> entities;
+
+    private EntityBatcher sceneBatcher;
+    private Scene scene;
+    private Vector3f[] cameraPositions = {new Vector3f(0, 20, 40), new Vector3f(0, 20, 41)};
+    private int frame;
+
+    private RenderQueue queue;
+    private float[] distances;
+
+    @Setup
+    public void setUp() {
+        TexturedModel[] models = BenchmarkScene.createModels();
+        camera = BenchmarkScene.createCamera();
+        batcher = createBatcher();
+        entities = BenchmarkScene.createEntities(ENTITIES, models);
+
+        sceneBatcher = createBatcher();
+        scene = new Scene(0, 0, 0, 1024, 8);
+        for (Entity entity : BenchmarkScene.createEntities(SCENE_ENTITIES, models)) {
+            scene.add(entity);
+        }
+
+        queue = new RenderQueue(MasterRenderer.FAR_PLANE);
+        distances = new float[ENTITIES];
+        Random random = new Random(3);
+        for (int i = 0; i < ENTITIES; i++) {
+            distances[i] = random.nextFloat() * MasterRenderer.FAR_PLANE;
+        }
+    }
+
+    private static EntityBatcher createBatcher() {
+        return new EntityBatcher(BenchmarkScene.createProjectionMatrix(), MasterRenderer.FAR_PLANE, 1, ENTITIES);
+    }
+
+    /** A frame of MasterRenderer.processEntity() for every entity, with the batches prepared for drawing. */
+    @Benchmark
+    @OperationsPerInvocation(ENTITIES)
+    public float[] processEntities() {
+        batcher.updateFrustum(camera);
+        for (int i = 0; i < ENTITIES; i++) {
+            batcher.processEntity(entities.get(i));
+        }
+        batcher.prepareBatches();
+        batcher.endFrame();
+        return batcher.getInstanceData();
+    }
+
+    /** The camera moves every frame, so the whole scene is culled through the octree and queued again. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public float[] processSceneCameraMoving() {
+        camera.setPosition(cameraPositions[frame++ & 1]);
+        sceneBatcher.updateFrustum(camera);
+        sceneBatcher.processScene(scene);
+        sceneBatcher.prepareBatches();
+        sceneBatcher.endFrame();
+        return sceneBatcher.getInstanceData();
+    }
+
+    /** Nothing moves: the queue and its instance data are kept from the last frame. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public float[] processSceneStill() {
+        camera.setPosition(cameraPositions[0]);
+        sceneBatcher.updateFrustum(camera);
+        sceneBatcher.processScene(scene);
+        sceneBatcher.prepareBatches();
+        sceneBatcher.endFrame();
+        return sceneBatcher.getInstanceData();
+    }
+
+    /** Just the radix sort of the queue, with every entity submitted. */
+    @Benchmark
+    @OperationsPerInvocation(ENTITIES)
+    public RenderQueue submitAndSort() {
+        queue.clear();
+        for (int i = 0; i < ENTITIES; i++) {
+            Entity entity = entities.get(i);
+            TexturedModel model = entity.getModel();
+            queue.submit(entity, model.getRawModel(), RenderQueue.PASS_OPAQUE, 0, model.getTexture().getTextureID(),
+                    distances[i]);
+        }
+        queue.sort();
+        return queue;
+    }
+}
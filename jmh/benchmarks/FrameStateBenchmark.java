@@ -0,0 +1,125 @@
+package benchmarks;
+
+import entities.Camera;
+import entities.Light;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import profiling.FrameProfiler;
+import renderEngine.GLBackend;
+import renderEngine.RenderState;
+import shaders.FrameUniforms;
+import shaders.UniformBlockWriter;
+import toolbox.Maths;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/** The per frame bookkeeping around the draw calls: tracking GL state, writing the FrameData uniform block and
+ *  profiling the frame's phases. OpenGL itself is left out (the RenderState talks to a backend that does
+ *  nothing, the uniform block isn't uploaded). */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FrameStateBenchmark {
+
+    private RenderState state;
+    private UniformBlockWriter writer;
+    private Matrix4f view, projection, projectionView;
+    private Vector3f cameraPosition, skyColour;
+    private Light sun;
+    private FrameProfiler profiler;
+
+    @Setup
+    public void setUp() {
+        state = new RenderState(new NoGLBackend());
+        writer = new UniformBlockWriter(ByteBuffer.allocateDirect(512));
+        Camera camera = BenchmarkScene.createCamera();
+        view = Maths.createViewMatrix(camera);
+        projection = BenchmarkScene.createProjectionMatrix();
+        projectionView = Matrix4f.mul(projection, view, null);
+        cameraPosition = camera.getPosition();
+        skyColour = new Vector3f(0.5f, 0.5f, 0.5f);
+        sun = new Light(new Vector3f(20000, 40000, 20000), new Vector3f(1, 1, 1));
+        profiler = new FrameProfiler();
+    }
+
+    /** The state requests of drawing 100 batches of 10 models. */
+    @Benchmark
+    public int renderState() {
+        state.beginFrame();
+        state.setDepthTest(true);
+        state.setBlending(false);
+        state.setCulling(true);
+        state.setCullFace(GL11.GL_BACK);
+        state.useProgram(1);
+        for (int batch = 0; batch < 100; batch++) {
+            state.bindVertexArray(1 + batch % 10);
+            state.setEnabledAttributes(0xff);
+            state.bindTexture(0, 1 + batch % 10);
+            state.setCulling(batch % 3 != 0);
+        }
+        return state.getStateChanges();
+    }
+
+    @Benchmark
+    public int frameUniformBlock() {
+        return FrameUniforms.writeBlock(writer, view, projection, projectionView, cameraPosition, sun, skyColour,
+                0.0035f, 5);
+    }
+
+    @Benchmark
+    public void frameProfiler() {
+        profiler.beginFrame();
+        for (int phase = 0; phase < FrameProfiler.PHASES; phase++) {
+            profiler.begin(phase);
+            profiler.end(phase);
+        }
+        profiler.endFrame(100, 100000, 50, 20);
+    }
+
+    /** Takes the RenderState's calls and does nothing with them, so only the tracking is measured. */
+    private static class NoGLBackend implements GLBackend {
+
+        @Override
+        public void useProgram(int program) {
+        }
+
+        @Override
+        public void bindVertexArray(int vao) {
+        }
+
+        @Override
+        public void activeTexture(int unit) {
+        }
+
+        @Override
+        public void bindTexture(int texture) {
+        }
+
+        @Override
+        public void setCapability(int capability, boolean enabled) {
+        }
+
+        @Override
+        public void cullFace(int face) {
+        }
+
+        @Override
+        public void setVertexAttribArray(int attribute, boolean enabled) {
+        }
+    }
+}
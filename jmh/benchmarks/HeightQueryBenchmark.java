@@ -0,0 +1,136 @@
+package benchmarks;
+
+import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import terrains.Terrain;
+import textures.TerrainTexturePack;
+import toolbox.Maths;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Ground heights under a batch of positions, three ways:
+ *      - allocating: the original getHeightOfTerrain, four Vector3f and a Vector2f per query.
+ *      - single: today's getHeightOfTerrain, one query at a time.
+ *      - batch: getHeightsOfTerrain, which runs in parallel from PARALLEL_BATCH_THRESHOLD queries on.
+ *  The scores are per batch. Run with -prof gc to see the allocation rates. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HeightQueryBenchmark {
+
+    /** Player.move() asks a few per frame, populating a map a few thousand, the batch path splits from 16384. */
+    @Param({"1024", "65536"})
+    public int queries;
+
+    private Terrain terrain;
+    private AllocatingHeights allocating;
+    private float[] x, z, heights;
+
+    @Setup
+    public void setUp() throws IOException {
+        TerrainTexturePack texturePack = BenchmarkScene.createTexturePack();
+        terrain = new Terrain(0, -1, texturePack, texturePack.getBackgroundTexture(), "heightmap");
+        allocating = new AllocatingHeights(terrain.getX(), terrain.getZ(), "heightmap");
+        x = new float[queries];
+        z = new float[queries];
+        heights = new float[queries];
+        Random random = new Random(5);
+        for (int i = 0; i < queries; i++) {
+            x[i] = terrain.getX() + random.nextFloat() * Terrain.SIZE;
+            z[i] = terrain.getZ() + random.nextFloat() * Terrain.SIZE;
+            float expected = allocating.getHeightOfTerrain(x[i], z[i]);
+            if (Math.abs(terrain.getHeightOfTerrain(x[i], z[i]) - expected) > 1e-3f) {
+                throw new IllegalStateException("The old and new height queries disagree at " + x[i] + ", " + z[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public void allocating(Blackhole blackhole) {
+        for (int i = 0; i < queries; i++) {
+            blackhole.consume(allocating.getHeightOfTerrain(x[i], z[i]));
+        }
+    }
+
+    @Benchmark
+    public void single(Blackhole blackhole) {
+        for (int i = 0; i < queries; i++) {
+            blackhole.consume(terrain.getHeightOfTerrain(x[i], z[i]));
+        }
+    }
+
+    @Benchmark
+    public float[] batch() {
+        terrain.getHeightsOfTerrain(x, z, heights, queries);
+        return heights;
+    }
+
+    /** Terrain's height query as it was before it went allocation free, on heights read from the same height
+     *  map the same way, to compare against. */
+    private static class AllocatingHeights {
+
+        private static final float MAX_HEIGHT = 40;
+        private static final float MAX_PIXEL_COLOUR = 256 * 256 * 256;
+
+        private final float terrainX, terrainZ;
+        private final float[][] heights;
+
+        AllocatingHeights(float terrainX, float terrainZ, String heightMap) throws IOException {
+            this.terrainX = terrainX;
+            this.terrainZ = terrainZ;
+            BufferedImage image = ImageIO.read(new File("res/" + heightMap + ".png"));
+            int vertexCount = image.getHeight();
+            heights = new float[vertexCount][vertexCount];
+            for (int i = 0; i < vertexCount; i++) {
+                for (int j = 0; j < vertexCount; j++) {
+                    float height = image.getRGB(j, i);
+                    height += MAX_PIXEL_COLOUR / 2f;
+                    height /= MAX_PIXEL_COLOUR / 2f;
+                    height *= MAX_HEIGHT;
+                    heights[j][i] = height;
+                }
+            }
+        }
+
+        float getHeightOfTerrain(float worldX, float worldZ) {
+            float terrainX = worldX - this.terrainX;
+            float terrainZ = worldZ - this.terrainZ;
+            float gridSquareSize = Terrain.SIZE / ((float) (heights.length - 1));
+            int gridX = (int) Math.floor(terrainX / gridSquareSize);
+            int gridZ = (int) Math.floor(terrainZ / gridSquareSize);
+            if (gridX >= heights.length - 1 || gridZ >= heights.length - 1 || gridX < 0 || gridZ < 0) {
+                return 0;
+            }
+            float xCoord = (terrainX % gridSquareSize) / gridSquareSize;
+            float zCoord = (terrainZ % gridSquareSize) / gridSquareSize;
+            if (xCoord <= (1 - zCoord)) {
+                return Maths.barryCentric(new Vector3f(0, heights[gridX][gridZ], 0), new Vector3f(1,
+                        heights[gridX + 1][gridZ], 0), new Vector3f(0,
+                        heights[gridX][gridZ + 1], 1), new Vector2f(xCoord, zCoord));
+            }
+            return Maths.barryCentric(new Vector3f(1, heights[gridX + 1][gridZ], 0), new Vector3f(1,
+                    heights[gridX + 1][gridZ + 1], 1), new Vector3f(0,
+                    heights[gridX][gridZ + 1], 1), new Vector2f(xCoord, zCoord));
+        }
+    }
+}
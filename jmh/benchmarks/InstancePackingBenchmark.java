@@ -0,0 +1,112 @@
+package benchmarks;
+
+import entities.Entity;
+import entities.Scene;
+import models.TexturedModel;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import renderEngine.InstanceDataPacker;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** The instance data of a frame of 10000 entities, and the garbage it makes: the point of caching the world
+ *  matrices is that a standing forest produces none at all, and a moving one none either, since the matrices are
+ *  rebuilt in place. The old path built a new matrix per entity per frame, which is kept here to compare.
+ *
+ *  What matters is gc.alloc.rate.norm (bytes per operation), so run with the GC profiler:
+ *
+ *      gradle jmh -Pjmh='InstancePacking -prof gc'
+ *
+ *  or run this class's main(), which adds it. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InstancePackingBenchmark {
+
+    private static final int ENTITIES = 10000;
+
+    private List<Entity> entities;
+    private InstanceDataPacker packer;
+    private Scene scene;
+    private List<Entity> sceneEntities;
+
+    @Setup
+    public void setUp() {
+        TexturedModel[] models = BenchmarkScene.createModels();
+        entities = BenchmarkScene.createEntities(ENTITIES, models);
+        packer = new InstanceDataPacker(ENTITIES);
+        scene = new Scene(0, 0, 0, 1024, 8);
+        sceneEntities = BenchmarkScene.createEntities(ENTITIES, models);
+        for (Entity entity : sceneEntities) {
+            scene.add(entity);
+        }
+    }
+
+    /** Nothing moved: every matrix comes from the cache. */
+    @Benchmark
+    public int packStill() {
+        return packer.pack(entities, 0, ENTITIES);
+    }
+
+    /** Everything turned a bit: every matrix is rebuilt, into the entity's own Matrix4f. */
+    @Benchmark
+    public int packAllMoving() {
+        for (int i = 0; i < ENTITIES; i++) {
+            entities.get(i).increaseRotation(0, 1, 0);
+        }
+        return packer.pack(entities, 0, ENTITIES);
+    }
+
+    /** The same for entities of a Scene, whose instance data the EntityStore keeps (and rebuilds in parallel). */
+    @Benchmark
+    public int packSceneAllMoving() {
+        for (int i = 0; i < ENTITIES; i++) {
+            sceneEntities.get(i).increaseRotation(0, 1, 0);
+        }
+        scene.update();
+        return packer.pack(sceneEntities, 0, ENTITIES);
+    }
+
+    /** What prepareInstance() used to do for every entity every frame: a new Matrix4f and four Vector3f, and
+     *  three generic axis-angle rotations. */
+    @Benchmark
+    public void oldMatrixPerEntity(Blackhole blackhole) {
+        for (int i = 0; i < ENTITIES; i++) {
+            Entity entity = entities.get(i);
+            Matrix4f matrix = new Matrix4f();
+            matrix.setIdentity();
+            Matrix4f.translate(entity.getPosition(), matrix, matrix);
+            Matrix4f.rotate((float) Math.toRadians(entity.getRx()), new Vector3f(1, 0, 0), matrix, matrix);
+            Matrix4f.rotate((float) Math.toRadians(entity.getRy()), new Vector3f(0, 1, 0), matrix, matrix);
+            Matrix4f.rotate((float) Math.toRadians(entity.getRz()), new Vector3f(0, 0, 1), matrix, matrix);
+            Matrix4f.scale(new Vector3f(entity.getScale(), entity.getScale(), entity.getScale()), matrix, matrix);
+            blackhole.consume(matrix);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(InstancePackingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
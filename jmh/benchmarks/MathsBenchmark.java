@@ -0,0 +1,68 @@
+package benchmarks;
+
+import entities.Camera;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import toolbox.Maths;
+
+import java.util.concurrent.TimeUnit;
+
+/** The matrices built for every entity and every frame. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MathsBenchmark {
+
+    private Vector3f translation;
+    private float rx, ry, rz, scale;
+    private Matrix4f dest;
+    private Camera camera;
+
+    @Setup
+    public void setUp() {
+        translation = new Vector3f(120, 4, -300);
+        rx = 10;
+        ry = 35;
+        rz = 0;
+        scale = 1.5f;
+        dest = new Matrix4f();
+        camera = BenchmarkScene.createCamera();
+    }
+
+    /** Returns a new matrix, like the old per-entity path did. */
+    @Benchmark
+    public Matrix4f transformationMatrix() {
+        return Maths.createTransformationMatrix(translation, rx, ry, rz, scale);
+    }
+
+    /** Closed form into an existing matrix, what the Entity cache uses. */
+    @Benchmark
+    public Matrix4f transformationMatrixInto() {
+        return Maths.createTransformationMatrix(translation.x, translation.y, translation.z, rx, ry, rz, scale,
+                dest);
+    }
+
+    @Benchmark
+    public Matrix4f viewMatrix() {
+        return Maths.createViewMatrix(camera);
+    }
+
+    /** Into an existing matrix, what the EntityBatcher does once per frame. */
+    @Benchmark
+    public Matrix4f viewMatrixInto() {
+        return Maths.createViewMatrix(camera, dest);
+    }
+}
@@ -0,0 +1,46 @@
+package benchmarks;
+
+import objConverter.ModelData;
+import objConverter.StreamingOBJLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import toolbox.MeshSimplifier;
+import toolbox.VertexCacheOptimizer;
+
+import java.util.concurrent.TimeUnit;
+
+/** The work done on a model after parsing when it isn't in the MeshCache yet: building its LODs and ordering its
+ *  triangles for the vertex cache. Both leave their input alone. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MeshBenchmark {
+
+    private ModelData tree;
+
+    @Setup
+    public void setUp() {
+        tree = StreamingOBJLoader.loadOBJ("tree");
+    }
+
+    @Benchmark
+    public ModelData simplifyTree() {
+        return MeshSimplifier.simplify(tree, 0.5f);
+    }
+
+    @Benchmark
+    public ModelData optimizeVertexCacheTree() {
+        return VertexCacheOptimizer.optimize(tree);
+    }
+}
@@ -0,0 +1,41 @@
+package benchmarks;
+
+import objConverter.ModelData;
+import objConverter.OBJFileLoader;
+import objConverter.StreamingOBJLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Parsing each model in res/ with both OBJ loaders (straight from the file, not through the MeshCache). Must run
+ *  from the project directory. grass.obj is left out: neither loader can read it. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ObjLoaderBenchmark {
+
+    @Param({"exampleOBJ", "fern", "grassModel", "lowPolyTree", "person", "stall", "tree"})
+    public String model;
+
+    @Benchmark
+    public ModelData objFileLoader() {
+        return OBJFileLoader.loadOBJ(model);
+    }
+
+    @Benchmark
+    public ModelData streamingObjLoader() {
+        return StreamingOBJLoader.loadOBJ(model);
+    }
+}
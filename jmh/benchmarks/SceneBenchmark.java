@@ -0,0 +1,76 @@
+package benchmarks;
+
+import entities.Entity;
+import entities.EntityOctree;
+import entities.EntityStore;
+import entities.Scene;
+import models.TexturedModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import toolbox.Frustum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Culling a large scene through the octree and the EntityStore, and updating it when everything moves. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SceneBenchmark {
+
+    private static final int ENTITIES = 30000;
+
+    private Frustum frustum;
+    private EntityOctree octree;
+    private List<Entity> visible = new ArrayList<>();
+    private Scene scene;
+    private List<Entity> sceneEntities;
+
+    @Setup
+    public void setUp() {
+        TexturedModel[] models = BenchmarkScene.createModels();
+        frustum = BenchmarkScene.createFrustum(BenchmarkScene.createCamera());
+        octree = new EntityOctree(0, 0, 0, 1024, 8);
+        for (Entity entity : BenchmarkScene.createEntities(ENTITIES, models)) {
+            octree.add(entity);
+        }
+        scene = new Scene(0, 0, 0, 1024, 8);
+        sceneEntities = BenchmarkScene.createEntities(ENTITIES, models);
+        for (Entity entity : sceneEntities) {
+            scene.add(entity);
+        }
+    }
+
+    @Benchmark
+    public List<Entity> octreeQueryFrustum() {
+        visible.clear();
+        octree.queryFrustum(frustum, visible);
+        return visible;
+    }
+
+    @Benchmark
+    public int entityStoreGatherVisible() {
+        EntityStore store = scene.getStore();
+        return store.gatherVisible(frustum);
+    }
+
+    @Benchmark
+    public List<Entity> sceneUpdateAllMoving() {
+        for (int i = 0; i < ENTITIES; i++) {
+            sceneEntities.get(i).increaseRotation(0, 1, 0);
+        }
+        return scene.update();
+    }
+}
@@ -0,0 +1,112 @@
+package benchmarks;
+
+import engineTester.MainGameLoop;
+import objConverter.MeshCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import renderEngine.OBJLoader;
+import terrains.Terrain;
+import textures.TerrainTexture;
+import textures.TerrainTexturePack;
+import textures.TextureData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/** The CPU half of MainGameLoop's startup (PNG decoding, meshes through the MeshCache and the first terrain tiles)
+ *  for the assets the game loads, once one after the other like the game used to and once spread over a worker
+ *  pool like the AssetPipeline does. The OpenGL uploads aren't included, they need a context. The MeshCache is
+ *  filled by the first run, so this is a start of the game after its first. Must run from the project directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(2)
+public class StartupBenchmark {
+
+    private static final int TERRAIN_TILES = 9;     // The streamer's radius of 1 around the start position.
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private List<Supplier<Object>> stages;
+    private ExecutorService workers;
+
+    @Setup
+    public void setUp() {
+        stages = createStages();
+        workers = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        workers.shutdown();
+    }
+
+    @Benchmark
+    public Object[] sequential() {
+        Object[] results = new Object[stages.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = stages.get(i).get();
+        }
+        return results;
+    }
+
+    @Benchmark
+    public Object[] workerPool() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[stages.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = CompletableFuture.supplyAsync(stages.get(i), workers);
+        }
+        Object[] results = new Object[futures.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = futures[i].join();
+        }
+        return results;
+    }
+
+    private static List<Supplier<Object>> createStages() {
+        List<Supplier<Object>> stages = new ArrayList<>();
+        for (String texture : MainGameLoop.TERRAIN_TEXTURES) {
+            stages.add(() -> TextureData.decodePNG(texture));
+        }
+        for (String texture : MainGameLoop.MODEL_TEXTURES) {
+            stages.add(() -> TextureData.decodePNG(texture));
+        }
+        for (String model : MainGameLoop.VEGETATION_MODELS) {
+            stages.add(() -> MeshCache.loadOBJ(model));
+        }
+        for (String model : MainGameLoop.LOD_MODELS) {
+            for (float ratio : MainGameLoop.LOD_RATIOS) {
+                stages.add(() -> MeshCache.loadSimplifiedOBJ(model, ratio));
+            }
+        }
+        stages.add(() -> OBJLoader.loadOBJMesh(MainGameLoop.PLAYER_MODEL));
+        stages.add(() -> OBJLoader.loadSimplifiedOBJMesh(MainGameLoop.PLAYER_MODEL, MainGameLoop.PLAYER_LOD_RATIO));
+        TerrainTexture texture = new TerrainTexture(0);
+        TerrainTexturePack texturePack = new TerrainTexturePack(texture, texture, texture, texture);
+        for (int i = 0; i < TERRAIN_TILES; i++) {
+            int gridX = i % 3 - 1;
+            int gridZ = i / 3 - 2;
+            stages.add(() -> new Terrain(gridX, gridZ, texturePack, texture, MainGameLoop.HEIGHT_MAP));
+        }
+        return stages;
+    }
+}
@@ -0,0 +1,39 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import terrains.Terrain;
+import textures.TerrainTexturePack;
+
+import java.util.concurrent.TimeUnit;
+
+/** Building a terrain from res/heightmap.png, which is what a tile costs when it streams in. Height queries are
+ *  in HeightQueryBenchmark. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TerrainBenchmark {
+
+    private TerrainTexturePack texturePack;
+
+    @Setup
+    public void setUp() {
+        texturePack = BenchmarkScene.createTexturePack();
+    }
+
+    @Benchmark
+    public Terrain generateMesh() {
+        return new Terrain(0, -1, texturePack, texturePack.getBackgroundTexture(), "heightmap");
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import terrains.Terrain;
+import textures.TerrainTexturePack;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/** Generating a terrain (heights, positions, normals, texture coordinates and the LOD patterns) from a large
+ *  height map that is already decoded. Each load is timed on its own, since at 4096 x 4096 that is 16 million
+ *  vertices and the first ones (before the JIT is done) are part of what a player waits for. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = "-Xmx3g")
+public class TerrainLoadBenchmark {
+
+    @Param({"1024", "4096"})
+    public int size;
+
+    private TerrainTexturePack texturePack;
+    private BufferedImage heightMap;
+
+    @Setup
+    public void setUp() {
+        texturePack = BenchmarkScene.createTexturePack();
+        heightMap = createHeightMap(size);
+    }
+
+    @Benchmark
+    public Terrain load() {
+        return new Terrain(0, 0, texturePack, texturePack.getBackgroundTexture(), heightMap);
+    }
+
+    /** Rolling hills from a few sine waves, spread over the whole colour range like a real height map. */
+    private static BufferedImage createHeightMap(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[size];
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                double u = (double) x / size * Math.PI * 2;
+                double v = (double) z / size * Math.PI * 2;
+                double height = 0.5 + 0.25 * Math.sin(u * 3) * Math.cos(v * 2) + 0.15 * Math.sin(u * 11 + v * 7)
+                        + 0.1 * Math.cos(u * 29 - v * 23);
+                row[x] = (int) (Math.max(0, Math.min(1, height)) * 0xFFFFFF);
+            }
+            image.setRGB(0, z, size, 1, row, 0, size);
+        }
+        return image;
+    }
+}
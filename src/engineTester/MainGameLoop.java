@@ -2,17 +2,20 @@ package engineTester;
 
 import entities.Light;
 import entities.Player;
+import entities.Scene;
 import models.RawModel;
 import models.TexturedModel;
+import objConverter.MeshCache;
 
-import objConverter.ModelData;
-import objConverter.OBJFileLoader;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.util.vector.Vector3f;
 
+import profiling.FrameProfiler;
 import renderEngine.*;
-import terrains.Terrain;
+import terrains.TerrainStreamer;
+import terrains.TerrainWorld;
 import textures.ModelTexture;
+import toolbox.FixedTimestep;
 import entities.Camera;
 import entities.Entity;
 import textures.TerrainTexture;
@@ -21,9 +24,21 @@ import textures.TerrainTexturePack;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 public class MainGameLoop {
 
+    /** The files main() loads at startup, also used by the StartupBenchmark so it measures the same ones. */
+    public static final String[] TERRAIN_TEXTURES = {"grassy2", "dirt", "pinkFlowers", "path", "blendMap"};
+    public static final String[] MODEL_TEXTURES = {"tree", "grassTexture", "fernAtlas", "lowPolyTree", "flower",
+            "playerTexture"};
+    public static final String[] VEGETATION_MODELS = {"tree", "grassModel", "fern", "lowPolyTree"};
+    public static final String[] LOD_MODELS = {"tree", "lowPolyTree"};       // Of the vegetation, see addLod.
+    public static final float[] LOD_RATIOS = {0.5f, 0.2f};
+    public static final String PLAYER_MODEL = "person";
+    public static final float PLAYER_LOD_RATIO = 0.5f;
+    public static final String HEIGHT_MAP = "heightmap";
+
     public static void main(String[] args) {
 
         DisplayManager.createDisplay();
@@ -31,39 +46,75 @@ public class MainGameLoop {
 
         Light light = new Light(new Vector3f(20000, 40000, 20000), new Vector3f(1, 1, 1));
 
-        TerrainTexture backgroundTexture = new TerrainTexture(loader.loadTexture("grassy2"));
-        TerrainTexture rTexture = new TerrainTexture(loader.loadTexture("dirt"));
-        TerrainTexture gTexture = new TerrainTexture(loader.loadTexture("pinkflowers"));
-        TerrainTexture bTexture = new TerrainTexture(loader.loadTexture("path"));
+        /** Everything is requested up front, so files are read and decoded on the workers while earlier
+         *  results are already being uploaded here. */
+        AssetPipeline assets = new AssetPipeline(loader, Math.max(2, Runtime.getRuntime().availableProcessors()));
+        CompletableFuture<Integer> backgroundTextureId = assets.loadTexture(TERRAIN_TEXTURES[0]);
+        CompletableFuture<Integer> rTextureId = assets.loadTexture(TERRAIN_TEXTURES[1]);
+        CompletableFuture<Integer> gTextureId = assets.loadTexture(TERRAIN_TEXTURES[2]);
+        CompletableFuture<Integer> bTextureId = assets.loadTexture(TERRAIN_TEXTURES[3]);
+        CompletableFuture<Integer> blendMapId = assets.loadTexture(TERRAIN_TEXTURES[4]);
+
+        // Vegetation is drawn in big numbers, so it uses the half size vertex format.
+        CompletableFuture<RawModel> treeModel = assets.loadModel(VEGETATION_MODELS[0], VertexFormat.COMPACT);
+        CompletableFuture<RawModel> grassModel = assets.loadModel(VEGETATION_MODELS[1], VertexFormat.COMPACT);
+        CompletableFuture<RawModel> fernModel = assets.loadModel(VEGETATION_MODELS[2], VertexFormat.COMPACT);
+        CompletableFuture<RawModel> lowPolyTreeModel = assets.loadModel(VEGETATION_MODELS[3], VertexFormat.COMPACT);
+        CompletableFuture<RawModel> flowerModel = assets.loadModel(VEGETATION_MODELS[1], VertexFormat.COMPACT);  // Shares grass's.
+        CompletableFuture<RawModel> personModel = assets.loadModel(PLAYER_MODEL, OBJLoader.MESH_VARIANT,
+                VertexFormat.SEPARATE, () -> OBJLoader.loadOBJMesh(PLAYER_MODEL));
+        // Distant trees are most of the triangles of a forest, so they get simplified versions (see addLod).
+        CompletableFuture<RawModel> treeLod1 = assets.loadSimplifiedModel(LOD_MODELS[0], VertexFormat.COMPACT,
+                LOD_RATIOS[0]);
+        CompletableFuture<RawModel> treeLod2 = assets.loadSimplifiedModel(LOD_MODELS[0], VertexFormat.COMPACT,
+                LOD_RATIOS[1]);
+        CompletableFuture<RawModel> lowPolyTreeLod1 = assets.loadSimplifiedModel(LOD_MODELS[1],
+                VertexFormat.COMPACT, LOD_RATIOS[0]);
+        CompletableFuture<RawModel> lowPolyTreeLod2 = assets.loadSimplifiedModel(LOD_MODELS[1],
+                VertexFormat.COMPACT, LOD_RATIOS[1]);
+        CompletableFuture<RawModel> personLod1 = assets.loadModel(PLAYER_MODEL,
+                MeshCache.lodVariant(OBJLoader.MESH_VARIANT, PLAYER_LOD_RATIO), VertexFormat.SEPARATE,
+                () -> OBJLoader.loadSimplifiedOBJMesh(PLAYER_MODEL, PLAYER_LOD_RATIO));
+        CompletableFuture<Integer> treeTexture = assets.loadTexture(MODEL_TEXTURES[0]);
+        CompletableFuture<Integer> grassTexture = assets.loadTexture(MODEL_TEXTURES[1]);
+        CompletableFuture<Integer> fernTexture = assets.loadTexture(MODEL_TEXTURES[2]);
+        CompletableFuture<Integer> lowPolyTreeTexture = assets.loadTexture(MODEL_TEXTURES[3]);
+        CompletableFuture<Integer> flowerTexture = assets.loadTexture(MODEL_TEXTURES[4]);
+        CompletableFuture<Integer> playerTexture = assets.loadTexture(MODEL_TEXTURES[5]);
+
+        TerrainTexture backgroundTexture = new TerrainTexture(assets.await(backgroundTextureId));
+        TerrainTexture rTexture = new TerrainTexture(assets.await(rTextureId));
+        TerrainTexture gTexture = new TerrainTexture(assets.await(gTextureId));
+        TerrainTexture bTexture = new TerrainTexture(assets.await(bTextureId));
 
         TerrainTexturePack texturePack = new TerrainTexturePack(backgroundTexture, rTexture, gTexture,
                 bTexture);
 
-        TerrainTexture blendMap = new TerrainTexture(loader.loadTexture("blendMap"));
-
-        Terrain terrain  = new Terrain(0, -1, loader, texturePack, blendMap, "heightmap");
-
-        ArrayList<RawModel> rawModels = new ArrayList<>();
-        for (int i = 0; i < 5; i++) {
-            String name = null;
-            if (i == 0) name = "tree";
-            if (i == 1) name = "grassModel";
-            if (i == 2) name = "fern";
-            if (i == 3) name = "lowPolyTree";
-            if (i == 4) name = "grassModel";
-            ModelData data = OBJFileLoader.loadOBJ(name);
-            RawModel model = loader.loadToVAO(data.getVertices(), data.getTextureCoords(),
-                    data.getNormals(), data.getIndices());
-            rawModels.add(model);
-        }
-
-        TexturedModel tree = new TexturedModel(rawModels.get(0), new ModelTexture(loader.loadTexture("tree")));
-        TexturedModel grass = new TexturedModel(rawModels.get(1), new ModelTexture(loader.loadTexture("grassTexture")));
-        ModelTexture fernTextureAtlas = new ModelTexture(loader.loadTexture("fernAtlas"));
+        TerrainTexture blendMap = new TerrainTexture(assets.await(blendMapId));
+
+        /** The map is 4 x 4 tiles (grid -2..1 by -3..0); only the tiles around the player are kept loaded.
+         *  The first tiles are built on the streamer's threads while the models above are still loading. */
+        TerrainWorld world = new TerrainWorld();
+        TerrainStreamer streamer = new TerrainStreamer(world, loader, texturePack, blendMap,
+                (gridX, gridZ) -> gridX >= -2 && gridX <= 1 && gridZ >= -3 && gridZ <= 0 ? HEIGHT_MAP : null,
+                1, 64L * 1024 * 1024, 4, 2);
+        streamer.loadAround(0, -200);
+        assets.finishAll();
+        assets.cleanUp();
+
+        TexturedModel tree = new TexturedModel(treeModel.join(), new ModelTexture(treeTexture.join()));
+        TexturedModel grass = new TexturedModel(grassModel.join(), new ModelTexture(grassTexture.join()));
+        ModelTexture fernTextureAtlas = new ModelTexture(fernTexture.join());
         fernTextureAtlas.setNumberOfRows(2);
-        TexturedModel fern = new TexturedModel(rawModels.get(2), fernTextureAtlas);
-        TexturedModel lowPolyTree = new TexturedModel(rawModels.get(3), new ModelTexture(loader.loadTexture("lowPolyTree")));
-        TexturedModel flower = new TexturedModel(rawModels.get(4), new ModelTexture(loader.loadTexture("flower")));
+        TexturedModel fern = new TexturedModel(fernModel.join(), fernTextureAtlas);
+        TexturedModel lowPolyTree = new TexturedModel(lowPolyTreeModel.join(),
+                new ModelTexture(lowPolyTreeTexture.join()));
+        TexturedModel flower = new TexturedModel(flowerModel.join(), new ModelTexture(flowerTexture.join()));
+        // Screen sizes are fractions of the screen height covered by the model's bounding sphere.
+        tree.addLod(treeLod1.join(), 0.2f);
+        tree.addLod(treeLod2.join(), 0.08f);
+        lowPolyTree.addLod(lowPolyTreeLod1.join(), 0.2f);
+        lowPolyTree.addLod(lowPolyTreeLod2.join(), 0.08f);
 
         grass.getTexture().setHasTransparency(true);
         grass.getTexture().setUseFakeLighting(true);
@@ -77,51 +128,84 @@ public class MainGameLoop {
             if (i % 7 == 0) {
                 float x = random.nextFloat() * 400 - 200;
                 float z = random.nextFloat() * -400;
-                float y = terrain.getHeightOfTerrain(x, z);
+                float y = world.getHeightOfTerrain(x, z);
                 entities.add(new Entity(grass, new Vector3f(x, y, z), 0, 0, 0, 1.8f));
                 x = random.nextFloat() * 400 - 200;
                 z = random.nextFloat() * -400;
-                y = terrain.getHeightOfTerrain(x, z);
+                y = world.getHeightOfTerrain(x, z);
                 entities.add(new Entity(flower, new Vector3f(x,y,z), 0, 0, 0, 2.3f));
             }
             if (i % 3 == 0) {
                 float x = random.nextFloat() * 400 - 200;
                 float z = random.nextFloat() * -400;
-                float y = terrain.getHeightOfTerrain(x, z);
+                float y = world.getHeightOfTerrain(x, z);
                 entities.add(new Entity(fern, random.nextInt(4), new Vector3f(x,y,z), 0, random.nextFloat()* 360, 0, 0.9f));
                 x = random.nextFloat() * 400 - 200;
                 z = random.nextFloat() * -400;
-                y = terrain.getHeightOfTerrain(x, z);
+                y = world.getHeightOfTerrain(x, z);
                 entities.add(new Entity(lowPolyTree, new Vector3f(x,y,z), 0, random.nextFloat()* 360, 0, random.nextFloat() * 0.1f + 0.6f));
                 x = random.nextFloat() * 400 - 200;
                 z = random.nextFloat() * -400;
-                y = terrain.getHeightOfTerrain(x, z);
+                y = world.getHeightOfTerrain(x, z);
                 entities.add(new Entity(tree, new Vector3f(x,y,z), 0, 0, 0, random.nextFloat() * 1 + 4));
             }
         }
 
-        MasterRenderer renderer = new MasterRenderer();
+        MasterRenderer renderer = new MasterRenderer(loader);
 
-        RawModel bunnyModel = OBJLoader.loadOBJModel("person", loader);
-        TexturedModel playerModel = new TexturedModel(bunnyModel,
-                new ModelTexture(loader.loadTexture("playerTexture")));
+        TexturedModel playerModel = new TexturedModel(personModel.join(), new ModelTexture(playerTexture.join()));
+        playerModel.addLod(personLod1.join(), 0.1f);
 
         Player player = new Player(playerModel, new Vector3f(100, 0, -50), 0, 180, 0, 0.6f);
         Camera camera = new Camera(player);
 
+        // Registered once; moving entities tell the scene themselves (see Entity).
+        Scene scene = new Scene(0, 0, 0, 1024, 8);
+        for (Entity entity : entities) {
+            scene.add(entity);
+        }
+        scene.add(player);
+
+        // The game logic runs 60 times a second whatever the frame rate, and draws in between its steps.
+        FixedTimestep timestep = new FixedTimestep(1 / 60f, 5);
+
+        // Frame times per phase, watchable live over JMX (see FrameProfiler).
+        FrameProfiler profiler = renderer.getProfiler();
+        profiler.register();
+
         while(!Display.isCloseRequested()) {
-            camera.move();
-            player.move(terrain);
-            renderer.processEntity(player);
-            renderer.processTerrain(terrain);
-            for(Entity entity : entities) {
-                renderer.processEntity(entity);
+            profiler.beginFrame();
+            profiler.begin(FrameProfiler.SIMULATION);
+            streamer.update(player.getPosition().x, player.getPosition().z);
+            player.readInputs();
+            int steps = timestep.advance();
+            for (int i = 0; i < steps; i++) {
+                player.move(world, timestep.getStepSeconds());
             }
+            player.interpolate(timestep.getAlpha());
+            profiler.end(FrameProfiler.SIMULATION);
+
+            profiler.begin(FrameProfiler.INPUT_CAMERA);
+            camera.move();
+            renderer.updateFrustum(camera);
+            profiler.end(FrameProfiler.INPUT_CAMERA);
+
+            profiler.begin(FrameProfiler.BATCHING);
+            renderer.processTerrains(world);
+            renderer.processScene(scene);
+            profiler.end(FrameProfiler.BATCHING);
+
             renderer.render(light, camera);
+
+            profiler.begin(FrameProfiler.SWAP_SYNC);
             DisplayManager.updateDisplay();
+            profiler.end(FrameProfiler.SWAP_SYNC);
+            profiler.endFrame(renderer.getDrawCalls(), renderer.getTrianglesDrawn(), renderer.getUniformUploads(),
+                    renderer.getStateChanges());
         }
 
         entities.clear();
+        streamer.cleanUp();
         renderer.cleanUp();
         loader.cleanUp();
         DisplayManager.closeDisplay();
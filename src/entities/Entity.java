@@ -1,8 +1,16 @@
 package entities;
 
 import models.TexturedModel;
+import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
+import toolbox.Maths;
 
+/** Everything that changes how an entity is drawn (position, rotation, scale, model or atlas index) has to go
+ *  through the methods below, which flag it as changed for the Scene it is in, and for its own cached world
+ *  matrix and atlas offset. Changing the vector returned by getPosition() directly isn't noticed.
+ *
+ *  While the entity is in a Scene its data lives in the scene's EntityStore, and the entity is only a view of
+ *  it: the methods below read and write the store, and the fields here are filled in again when it leaves. */
 public class Entity {
 
     private TexturedModel model;
@@ -11,6 +19,18 @@ public class Entity {
     private float scale;
 
     private int textureIndex = 0;
+    private int lod = 0;            // Level of detail of the model it was last drawn with.
+    private int renderSlot = -1;    // Where the EntityRenderer last packed its instance data, -1 if it didn't.
+
+    private Scene scene;
+    private boolean dirty;
+    private EntityStore store;      // Where the data is while the entity is in a scene, otherwise null.
+    private int handle = -1;
+
+    /** Most entities never move, so the matrix is only worked out again after something changed. */
+    private final Matrix4f transformationMatrix = new Matrix4f();
+    private float textureXOffset, textureYOffset;
+    private boolean transformStale = true;
 
     public Entity(TexturedModel model, Vector3f position, float rx, float ry,
                   float rz, float scale) {
@@ -33,73 +53,241 @@ public class Entity {
         this.scale = scale;
     }
 
+    /** Transforms Model Space into World Space. The matrix is shared, so it mustn't be changed. */
+    public Matrix4f getTransformationMatrix() {
+        if (store != null) {
+            return store.getTransformationMatrix(handle, transformationMatrix);
+        }
+        refreshTransform();
+        return transformationMatrix;
+    }
+
     public float getTextureXOffset() {
-        int column = textureIndex % model.getTexture().getNumberOfRows();
-        return (float) column / (float) model.getTexture().getNumberOfRows();
+        if (store != null) {
+            return store.getTextureXOffset(handle);
+        }
+        refreshTransform();
+        return textureXOffset;
     }
 
     public float getTextureYOffset() {
-        int row = textureIndex / model.getTexture().getNumberOfRows();  /** No need to use floor here as they're both ints */
-        return (float) row / (float) model.getTexture().getNumberOfRows();
+        if (store != null) {
+            return store.getTextureYOffset(handle);
+        }
+        refreshTransform();
+        return textureYOffset;
+    }
+
+    private void refreshTransform() {
+        if (!transformStale) {
+            return;
+        }
+        Maths.createTransformationMatrix(position.x, position.y, position.z, rx, ry, rz, scale,
+                transformationMatrix);
+        int rows = model.getTexture().getNumberOfRows();
+        int column = textureIndex % rows;
+        int row = textureIndex / rows;  /** No need to use floor here as they're both ints */
+        textureXOffset = (float) column / (float) rows;
+        textureYOffset = (float) row / (float) rows;
+        transformStale = false;
     }
 
     public void increasePosition (float dx, float dy, float dz) {
-        this.position.x += dx;
-        this.position.y += dy;
-        this.position.z += dz;
+        if (dx == 0 && dy == 0 && dz == 0) {
+            return;     // Standing still doesn't count as a change.
+        }
+        if (store != null) {
+            store.setPosition(handle, store.getX(handle) + dx, store.getY(handle) + dy, store.getZ(handle) + dz);
+        } else {
+            this.position.x += dx;
+            this.position.y += dy;
+            this.position.z += dz;
+        }
+        changed();
     }
 
     public void increaseRotation (float dx, float dy, float dz) {
-        this.rx += dx;
-        this.ry += dy;
-        this.rz += dz;
+        if (dx == 0 && dy == 0 && dz == 0) {
+            return;
+        }
+        if (store != null) {
+            store.setRotation(handle, store.getRx(handle) + dx, store.getRy(handle) + dy, store.getRz(handle) + dz);
+        } else {
+            this.rx += dx;
+            this.ry += dy;
+            this.rz += dz;
+        }
+        changed();
     }
 
     public TexturedModel getModel() {
-        return model;
+        return store != null ? store.getModel(handle) : model;
     }
 
     public void setModel(TexturedModel model) {
         this.model = model;
+        if (store != null) {
+            store.setModel(handle, model);
+        }
+        changed();
     }
 
+    /** While in a scene, the vector is brought up to date with the store on every call. */
     public Vector3f getPosition() {
+        if (store != null) {
+            position.set(store.getX(handle), store.getY(handle), store.getZ(handle));
+        }
         return position;
     }
 
     public void setPosition(Vector3f position) {
         this.position = position;
+        if (store != null) {
+            store.setPosition(handle, position.x, position.y, position.z);
+        }
+        changed();
     }
 
     public float getRx() {
-        return rx;
+        return store != null ? store.getRx(handle) : rx;
     }
 
     public void setRx(float rx) {
-        this.rx = rx;
+        if (store != null) {
+            store.setRotation(handle, rx, store.getRy(handle), store.getRz(handle));
+        } else {
+            this.rx = rx;
+        }
+        changed();
     }
 
     public float getRy() {
-        return ry;
+        return store != null ? store.getRy(handle) : ry;
     }
 
     public void setRy(float ry) {
-        this.ry = ry;
+        if (store != null) {
+            store.setRotation(handle, store.getRx(handle), ry, store.getRz(handle));
+        } else {
+            this.ry = ry;
+        }
+        changed();
     }
 
     public float getRz() {
-        return rz;
+        return store != null ? store.getRz(handle) : rz;
     }
 
     public void setRz(float rz) {
-        this.rz = rz;
+        if (store != null) {
+            store.setRotation(handle, store.getRx(handle), store.getRy(handle), rz);
+        } else {
+            this.rz = rz;
+        }
+        changed();
     }
 
     public float getScale() {
-        return scale;
+        return store != null ? store.getScale(handle) : scale;
     }
 
     public void setScale(float scale) {
-        this.scale = scale;
+        if (store != null) {
+            store.setScale(handle, scale);
+        } else {
+            this.scale = scale;
+        }
+        changed();
+    }
+
+    public int getTextureIndex() {
+        return store != null ? store.getAtlasIndex(handle) : textureIndex;
+    }
+
+    /** Which image of the texture atlas the entity uses (see ModelTexture.getNumberOfRows()). */
+    public void setTextureIndex(int textureIndex) {
+        if (store != null) {
+            store.setAtlasIndex(handle, textureIndex);
+        } else {
+            this.textureIndex = textureIndex;
+        }
+        changed();
+    }
+
+    public int getLod() {
+        return lod;
+    }
+
+    public void setLod(int lod) {
+        this.lod = lod;
+    }
+
+    public int getRenderSlot() {
+        return renderSlot;
+    }
+
+    public void setRenderSlot(int renderSlot) {
+        this.renderSlot = renderSlot;
+    }
+
+    /** The scene the entity was added to, or null. */
+    public Scene getScene() {
+        return scene;
+    }
+
+    void setScene(Scene scene) {
+        this.scene = scene;
+        this.dirty = false;
+    }
+
+    /** Whether it changed since its scene last took note (see Scene.update()). */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    void clearDirty() {
+        dirty = false;
+    }
+
+    /** The store holding the entity's data while it is in a scene, or null. */
+    public EntityStore getStore() {
+        return store;
+    }
+
+    /** Its handle in getStore(), -1 when it isn't in one. */
+    public int getHandle() {
+        return handle;
+    }
+
+    /** Moves the data into the store; from now on the entity is a view of it. */
+    void attach(EntityStore store) {
+        this.handle = store.add(model, position.x, position.y, position.z, rx, ry, rz, scale, textureIndex);
+        this.store = store;
+    }
+
+    /** Takes the data back out of the store. */
+    void detach() {
+        position.set(store.getX(handle), store.getY(handle), store.getZ(handle));
+        rx = store.getRx(handle);
+        ry = store.getRy(handle);
+        rz = store.getRz(handle);
+        scale = store.getScale(handle);
+        textureIndex = store.getAtlasIndex(handle);
+        model = store.getModel(handle);
+        store.remove(handle);
+        store = null;
+        handle = -1;
+        transformStale = true;
+    }
+
+    /** Flags the entity, telling its scene only the first time until the scene has caught up. */
+    private void changed() {
+        transformStale = true;
+        if (!dirty) {
+            dirty = true;
+            if (scene != null) {
+                scene.entityChanged(this);
+            }
+        }
     }
 }
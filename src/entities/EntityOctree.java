@@ -0,0 +1,259 @@
+package entities;
+
+import org.lwjgl.util.vector.Vector3f;
+import toolbox.Frustum;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A loose octree over the bounding spheres of entities (position + model radius * scale).
+ *
+ *  Every node covers a cube of World Space and has 8 children covering its octants. In a "loose" octree the
+ *  bounds used for culling are twice as large as the cube itself, so an entity only has to have its CENTRE
+ *  inside a node's cube to fit, as long as its radius is not bigger than the node's half size. That means the
+ *  node of an entity can be found directly from its position and radius (no searching), and an entity that
+ *  moves a little usually stays in the same node, which makes update() cheap.
+ *
+ *  Entities whose centre lies outside of the root cube are kept in the root itself and are always tested.
+ */
+public class EntityOctree {
+
+    private static final float LOOSENESS = 2;
+
+    private final Node root;
+    private final int maxDepth;
+    private final Map<Entity, Node> nodeOfEntity = new IdentityHashMap<>();
+
+    private int nodesVisited;
+    private int entitiesTested;
+
+    /** The tree covers the cube centred on (centreX, centreY, centreZ) with edges of 2 * halfSize, which can be
+     *  split at most maxDepth times. */
+    public EntityOctree(float centreX, float centreY, float centreZ, float halfSize, int maxDepth) {
+        this.root = new Node(null, centreX, centreY, centreZ, halfSize, 0);
+        this.maxDepth = maxDepth;
+    }
+
+    public void add(Entity entity) {
+        if (nodeOfEntity.containsKey(entity)) {
+            update(entity);
+            return;
+        }
+        Node node = findNode(entity);
+        node.add(entity);
+        nodeOfEntity.put(entity, node);
+    }
+
+    public void remove(Entity entity) {
+        Node node = nodeOfEntity.remove(entity);
+        if (node != null) {
+            node.remove(entity);
+        }
+    }
+
+    /** Re-files an entity after its position, scale or model has changed. Cheap when it stays in its node. */
+    public void update(Entity entity) {
+        Node current = nodeOfEntity.get(entity);
+        if (current == null) {
+            add(entity);
+            return;
+        }
+        Node target = findNode(entity);
+        if (target != current) {
+            current.remove(entity);
+            target.add(entity);
+            nodeOfEntity.put(entity, target);
+        }
+    }
+
+    public int size() {
+        return nodeOfEntity.size();
+    }
+
+    /** Adds every entity whose bounding sphere touches the frustum to result. Subtrees that are completely
+     *  inside the frustum are added without testing their entities one by one. */
+    public void queryFrustum(Frustum frustum, List<Entity> result) {
+        nodesVisited = 0;
+        entitiesTested = 0;
+        queryFrustum(root, frustum, result);
+    }
+
+    /** Adds every entity whose bounding sphere touches the sphere (x, y, z, radius) to result. */
+    public void queryRadius(float x, float y, float z, float radius, List<Entity> result) {
+        nodesVisited = 0;
+        entitiesTested = 0;
+        queryRadius(root, x, y, z, radius, result);
+    }
+
+    /** Number of nodes visited by the last query. */
+    public int getNodesVisited() {
+        return nodesVisited;
+    }
+
+    /** Number of entities individually tested by the last query (the rest were accepted or rejected by a node). */
+    public int getEntitiesTested() {
+        return entitiesTested;
+    }
+
+    private void queryFrustum(Node node, Frustum frustum, List<Entity> result) {
+        nodesVisited++;
+        float loose = node.halfSize * LOOSENESS;
+        boolean isRoot = node == root;      // The root also keeps entities that are outside of its bounds.
+        if (!isRoot && !frustum.boxInFrustum(node.x - loose, node.y - loose, node.z - loose,
+                node.x + loose, node.y + loose, node.z + loose)) {
+            return;
+        }
+        if (!isRoot && frustum.boxFullyInFrustum(node.x - loose, node.y - loose, node.z - loose,
+                node.x + loose, node.y + loose, node.z + loose)) {
+            addSubtree(node, result);
+            return;
+        }
+        for (int i = 0; i < node.entities.size(); i++) {
+            Entity entity = node.entities.get(i);
+            entitiesTested++;
+            Vector3f position = entity.getPosition();
+            if (frustum.sphereInFrustum(position.x, position.y, position.z, radiusOf(entity))) {
+                result.add(entity);
+            }
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                if (child != null && child.totalCount > 0) {
+                    queryFrustum(child, frustum, result);
+                }
+            }
+        }
+    }
+
+    private void queryRadius(Node node, float x, float y, float z, float radius, List<Entity> result) {
+        nodesVisited++;
+        float loose = node.halfSize * LOOSENESS;
+        if (node != root && distanceSquaredToBox(x, y, z, node, loose) > radius * radius) {
+            return;
+        }
+        for (int i = 0; i < node.entities.size(); i++) {
+            Entity entity = node.entities.get(i);
+            entitiesTested++;
+            Vector3f position = entity.getPosition();
+            float dx = position.x - x;
+            float dy = position.y - y;
+            float dz = position.z - z;
+            float reach = radius + radiusOf(entity);
+            if (dx * dx + dy * dy + dz * dz <= reach * reach) {
+                result.add(entity);
+            }
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                if (child != null && child.totalCount > 0) {
+                    queryRadius(child, x, y, z, radius, result);
+                }
+            }
+        }
+    }
+
+    private void addSubtree(Node node, List<Entity> result) {
+        nodesVisited++;
+        // By index: addAll() would copy the list through toArray() for every node of every query.
+        for (int i = 0; i < node.entities.size(); i++) {
+            result.add(node.entities.get(i));
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                if (child != null && child.totalCount > 0) {
+                    addSubtree(child, result);
+                }
+            }
+        }
+    }
+
+    private static float distanceSquaredToBox(float x, float y, float z, Node node, float halfExtent) {
+        float dx = Math.max(Math.abs(x - node.x) - halfExtent, 0);
+        float dy = Math.max(Math.abs(y - node.y) - halfExtent, 0);
+        float dz = Math.max(Math.abs(z - node.z) - halfExtent, 0);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static float radiusOf(Entity entity) {
+        return entity.getModel().getBoundingRadius() * entity.getScale();
+    }
+
+    /** Walks down from the root following the octant of the entity's centre, for as long as the child's half
+     *  size is still at least the entity's radius (so that the loose bounds are guaranteed to contain it). */
+    private Node findNode(Entity entity) {
+        Vector3f position = entity.getPosition();
+        float x = position.x;
+        float y = position.y;
+        float z = position.z;
+        float radius = radiusOf(entity);
+        Node node = root;
+        if (Math.abs(x - root.x) > root.halfSize || Math.abs(y - root.y) > root.halfSize
+                || Math.abs(z - root.z) > root.halfSize) {
+            return root;
+        }
+        while (node.depth < maxDepth && node.halfSize / 2 >= radius) {
+            int octant = (x >= node.x ? 1 : 0) | (y >= node.y ? 2 : 0) | (z >= node.z ? 4 : 0);
+            node = node.getOrCreateChild(octant);
+        }
+        return node;
+    }
+
+    private static class Node {
+
+        private final Node parent;
+        private final float x, y, z;        // Centre of the (tight) cube.
+        private final float halfSize;
+        private final int depth;
+
+        private final List<Entity> entities = new ArrayList<>();
+        private Node[] children;
+        private int totalCount;             // Entities in this node and all of its descendants.
+
+        private Node(Node parent, float x, float y, float z, float halfSize, int depth) {
+            this.parent = parent;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.halfSize = halfSize;
+            this.depth = depth;
+        }
+
+        private Node getOrCreateChild(int octant) {
+            if (children == null) {
+                children = new Node[8];
+            }
+            if (children[octant] == null) {
+                float quarter = halfSize / 2;
+                children[octant] = new Node(this,
+                        x + ((octant & 1) != 0 ? quarter : -quarter),
+                        y + ((octant & 2) != 0 ? quarter : -quarter),
+                        z + ((octant & 4) != 0 ? quarter : -quarter),
+                        quarter, depth + 1);
+            }
+            return children[octant];
+        }
+
+        private void add(Entity entity) {
+            entities.add(entity);
+            for (Node node = this; node != null; node = node.parent) {
+                node.totalCount++;
+            }
+        }
+
+        private void remove(Entity entity) {
+            for (int i = 0; i < entities.size(); i++) {
+                if (entities.get(i) == entity) {
+                    int last = entities.size() - 1;
+                    entities.set(i, entities.get(last));     // Order inside a node doesn't matter, swap-remove.
+                    entities.remove(last);
+                    for (Node node = this; node != null; node = node.parent) {
+                        node.totalCount--;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package entities;
+
+import models.TexturedModel;
+import org.lwjgl.util.vector.Matrix4f;
+import renderEngine.InstanceDataPacker;
+import toolbox.Frustum;
+import toolbox.Maths;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/** The data of many entities as a structure of arrays: one primitive array per property, with the entities
+ *  packed together at the start of each ("slots"), so that going through all of them for their matrices or
+ *  visibility reads memory front to back instead of chasing an object, a Vector3f and a model per entity.
+ *
+ *  Entities are referred to by handles, which stay the same while other entities are added and removed (slots
+ *  don't: removing one moves the last entity into its slot). A handle also carries a generation, so a handle
+ *  of a removed entity is recognised even after its number has been handed out again.
+ *
+ *  Next to the properties, every slot caches its instance data (world matrix and atlas offset, in the layout
+ *  of InstanceDataPacker), worked out again only after the entity changed. updateTransforms() and
+ *  gatherVisible() do that for all of them at once, spread over the common fork/join pool.
+ *
+ *  Entities added to a Scene keep their data here and work as a view of it (see Entity), so existing code
+ *  goes on using them as before. Only the thread that owns the store may change it.
+ */
+public class EntityStore {
+
+    private static final int INDEX_BITS = 22;                    // Up to 4 million handles at a time.
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (Integer.SIZE - 1 - INDEX_BITS)) - 1;
+    private static final int CHUNK_SIZE = 4096;                  // Slots per task of the parallel kernels.
+    private static final int LENGTH = InstanceDataPacker.INSTANCE_DATA_LENGTH;
+
+    private int size;
+
+    // By slot.
+    private float[] x = new float[64], y = new float[64], z = new float[64];
+    private float[] rx = new float[64], ry = new float[64], rz = new float[64];
+    private float[] scale = new float[64];
+    private int[] atlasIndex = new int[64];
+    private int[] modelId = new int[64];
+    private int[] handleOfSlot = new int[64];
+    private boolean[] stale = new boolean[64];
+    private boolean[] visible = new boolean[64];
+    private float[] instances = new float[64 * LENGTH];
+    private int staleCount;
+
+    // By handle index.
+    private int[] slotOfHandle = new int[64];
+    private int[] generation = new int[64];
+    private int handleCount;
+    private int[] freeHandles = new int[64];
+    private int freeHandleCount;
+
+    private final List<TexturedModel> models = new ArrayList<>();
+    private final Map<TexturedModel, Integer> modelIds = new IdentityHashMap<>();
+
+    // Output of gatherVisible().
+    private float[] gathered = new float[0];
+    private int[] modelStarts = new int[1];
+    private int[] chunkCounts = new int[0];          // Visible entities per chunk and model, then where they go.
+
+    /** Adds an entity and returns its handle. Rotations are in degrees. */
+    public int add(TexturedModel model, float x, float y, float z, float rx, float ry, float rz, float scale,
+                   int atlasIndex) {
+        if (size == this.x.length) {
+            growSlots();
+        }
+        int index;
+        if (freeHandleCount > 0) {
+            index = freeHandles[--freeHandleCount];
+        } else {
+            if (handleCount == slotOfHandle.length) {
+                slotOfHandle = Arrays.copyOf(slotOfHandle, handleCount * 2);
+                generation = Arrays.copyOf(generation, handleCount * 2);
+            }
+            if (handleCount > INDEX_MASK) {
+                throw new IllegalStateException("An EntityStore holds at most " + (INDEX_MASK + 1) + " entities");
+            }
+            index = handleCount++;
+        }
+        int handle = (generation[index] << INDEX_BITS) | index;
+        int slot = size++;
+        slotOfHandle[index] = slot;
+        handleOfSlot[slot] = handle;
+        setSlotPosition(slot, x, y, z);
+        this.rx[slot] = rx;
+        this.ry[slot] = ry;
+        this.rz[slot] = rz;
+        this.scale[slot] = scale;
+        this.atlasIndex[slot] = atlasIndex;
+        this.modelId[slot] = idOf(model);
+        stale[slot] = false;
+        markStale(slot);
+        return handle;
+    }
+
+    /** Removes the entity; its handle isn't valid any more. */
+    public void remove(int handle) {
+        int slot = slotOf(handle);
+        int index = handle & INDEX_MASK;
+        generation[index] = (generation[index] + 1) & GENERATION_MASK;
+        if (freeHandleCount == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, freeHandleCount * 2);
+        }
+        freeHandles[freeHandleCount++] = index;
+        if (stale[slot]) {
+            staleCount--;
+        }
+        int last = --size;
+        if (slot != last) {
+            moveSlot(last, slot);
+        }
+    }
+
+    public boolean contains(int handle) {
+        int index = handle & INDEX_MASK;
+        return handle >= 0 && index < handleCount && generation[index] == handle >>> INDEX_BITS
+                && slotOfHandle[index] < size && handleOfSlot[slotOfHandle[index]] == handle;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TexturedModel getModel(int handle) {
+        return models.get(modelId[slotOf(handle)]);
+    }
+
+    public void setModel(int handle, TexturedModel model) {
+        int slot = slotOf(handle);
+        modelId[slot] = idOf(model);
+        markStale(slot);        // The atlas offset depends on the model's texture.
+    }
+
+    public float getX(int handle) {
+        return x[slotOf(handle)];
+    }
+
+    public float getY(int handle) {
+        return y[slotOf(handle)];
+    }
+
+    public float getZ(int handle) {
+        return z[slotOf(handle)];
+    }
+
+    public void setPosition(int handle, float x, float y, float z) {
+        int slot = slotOf(handle);
+        setSlotPosition(slot, x, y, z);
+        markStale(slot);
+    }
+
+    public float getRx(int handle) {
+        return rx[slotOf(handle)];
+    }
+
+    public float getRy(int handle) {
+        return ry[slotOf(handle)];
+    }
+
+    public float getRz(int handle) {
+        return rz[slotOf(handle)];
+    }
+
+    public void setRotation(int handle, float rx, float ry, float rz) {
+        int slot = slotOf(handle);
+        this.rx[slot] = rx;
+        this.ry[slot] = ry;
+        this.rz[slot] = rz;
+        markStale(slot);
+    }
+
+    public float getScale(int handle) {
+        return scale[slotOf(handle)];
+    }
+
+    public void setScale(int handle, float scale) {
+        int slot = slotOf(handle);
+        this.scale[slot] = scale;
+        markStale(slot);
+    }
+
+    public int getAtlasIndex(int handle) {
+        return atlasIndex[slotOf(handle)];
+    }
+
+    public void setAtlasIndex(int handle, int atlasIndex) {
+        int slot = slotOf(handle);
+        this.atlasIndex[slot] = atlasIndex;
+        markStale(slot);
+    }
+
+    /** Copies the world matrix of the entity into dest. */
+    public Matrix4f getTransformationMatrix(int handle, Matrix4f dest) {
+        int pointer = refreshedInstance(handle);
+        dest.m00 = instances[pointer];
+        dest.m01 = instances[pointer + 1];
+        dest.m02 = instances[pointer + 2];
+        dest.m03 = instances[pointer + 3];
+        dest.m10 = instances[pointer + 4];
+        dest.m11 = instances[pointer + 5];
+        dest.m12 = instances[pointer + 6];
+        dest.m13 = instances[pointer + 7];
+        dest.m20 = instances[pointer + 8];
+        dest.m21 = instances[pointer + 9];
+        dest.m22 = instances[pointer + 10];
+        dest.m23 = instances[pointer + 11];
+        dest.m30 = instances[pointer + 12];
+        dest.m31 = instances[pointer + 13];
+        dest.m32 = instances[pointer + 14];
+        dest.m33 = instances[pointer + 15];
+        return dest;
+    }
+
+    public float getTextureXOffset(int handle) {
+        return instances[refreshedInstance(handle) + InstanceDataPacker.MATRIX_LENGTH];
+    }
+
+    public float getTextureYOffset(int handle) {
+        return instances[refreshedInstance(handle) + InstanceDataPacker.MATRIX_LENGTH + 1];
+    }
+
+    /** Copies the INSTANCE_DATA_LENGTH floats of the entity into data at pointer, and returns where it ended. */
+    public int copyInstance(int handle, float[] data, int pointer) {
+        System.arraycopy(instances, refreshedInstance(handle), data, pointer, LENGTH);
+        return pointer + LENGTH;
+    }
+
+    /** Works out the instance data of every entity that changed, in parallel. */
+    public void updateTransforms() {
+        if (staleCount == 0) {
+            return;
+        }
+        IntStream.range(0, chunkCount()).parallel().forEach(chunk -> {
+            for (int slot = chunk * CHUNK_SIZE; slot < Math.min(size, (chunk + 1) * CHUNK_SIZE); slot++) {
+                if (stale[slot]) {
+                    refresh(slot);
+                }
+            }
+        });
+        staleCount = 0;
+    }
+
+    /** Brings the instance data up to date and collects that of every entity whose bounding sphere touches the
+     *  frustum into one array (see getGatheredInstances()), grouped by model, ready to be uploaded and drawn
+     *  with one instanced call per model. Both halves run in parallel: first each chunk of slots is tested and
+     *  counted per model, then, with the counts added up into where each chunk's entities of each model go,
+     *  the chunks copy them there. Returns the number of entities gathered. */
+    public int gatherVisible(Frustum frustum) {
+        int chunks = chunkCount();
+        int modelCount = models.size();
+        if (chunkCounts.length < chunks * modelCount) {
+            chunkCounts = new int[chunks * modelCount];
+        }
+        if (modelStarts.length < modelCount + 1) {
+            modelStarts = new int[modelCount + 1];
+        }
+        Arrays.fill(chunkCounts, 0, chunks * modelCount, 0);
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            for (int slot = chunk * CHUNK_SIZE; slot < Math.min(size, (chunk + 1) * CHUNK_SIZE); slot++) {
+                if (stale[slot]) {
+                    refresh(slot);
+                }
+                float radius = models.get(modelId[slot]).getBoundingRadius() * scale[slot];
+                visible[slot] = frustum.sphereInFrustum(x[slot], y[slot], z[slot], radius);
+                if (visible[slot]) {
+                    chunkCounts[chunk * modelCount + modelId[slot]]++;
+                }
+            }
+        });
+        staleCount = 0;
+
+        // Model by model, chunk by chunk: the counts become the first instance each chunk writes per model.
+        int total = 0;
+        for (int model = 0; model < modelCount; model++) {
+            modelStarts[model] = total;
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int count = chunkCounts[chunk * modelCount + model];
+                chunkCounts[chunk * modelCount + model] = total;
+                total += count;
+            }
+        }
+        modelStarts[modelCount] = total;
+        if (gathered.length < total * LENGTH) {
+            gathered = new float[Math.max(total, gathered.length / LENGTH * 2) * LENGTH];
+        }
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            for (int slot = chunk * CHUNK_SIZE; slot < Math.min(size, (chunk + 1) * CHUNK_SIZE); slot++) {
+                if (visible[slot]) {
+                    int target = chunkCounts[chunk * modelCount + modelId[slot]]++;
+                    System.arraycopy(instances, slot * LENGTH, gathered, target * LENGTH, LENGTH);
+                }
+            }
+        });
+        return total;
+    }
+
+    /** The instance data collected by the last gatherVisible(); only the first (returned count * LENGTH) floats
+     *  are meaningful. */
+    public float[] getGatheredInstances() {
+        return gathered;
+    }
+
+    /** Number of models used so far; IDs go from 0 to this - 1 (removed entities don't free theirs). */
+    public int getModelCount() {
+        return models.size();
+    }
+
+    public TexturedModel getModelOfId(int id) {
+        return models.get(id);
+    }
+
+    /** First gathered instance of the model ID; the model's instances end where the next ID's start. */
+    public int getGatheredStart(int modelId) {
+        return modelStarts[modelId];
+    }
+
+    private int idOf(TexturedModel model) {
+        Integer id = modelIds.get(model);
+        if (id == null) {
+            id = models.size();
+            models.add(model);
+            modelIds.put(model, id);
+        }
+        return id;
+    }
+
+    private int slotOf(int handle) {
+        if (!contains(handle)) {
+            throw new IllegalArgumentException("Not a handle of an entity in this store: " + handle);
+        }
+        return slotOfHandle[handle & INDEX_MASK];
+    }
+
+    private void setSlotPosition(int slot, float x, float y, float z) {
+        this.x[slot] = x;
+        this.y[slot] = y;
+        this.z[slot] = z;
+    }
+
+    private void markStale(int slot) {
+        if (!stale[slot]) {
+            stale[slot] = true;
+            staleCount++;
+        }
+    }
+
+    private int refreshedInstance(int handle) {
+        int slot = slotOf(handle);
+        if (stale[slot]) {
+            refresh(slot);
+            staleCount--;
+        }
+        return slot * LENGTH;
+    }
+
+    /** Works out the instance data of a slot straight into its place in instances, without touching staleCount
+     *  so the parallel kernels can use it. */
+    private void refresh(int slot) {
+        int pointer = slot * LENGTH;
+        Maths.storeTransformationMatrix(x[slot], y[slot], z[slot], rx[slot], ry[slot], rz[slot], scale[slot],
+                instances, pointer);
+        pointer += InstanceDataPacker.MATRIX_LENGTH;
+        int rows = models.get(modelId[slot]).getTexture().getNumberOfRows();
+        instances[pointer++] = (float) (atlasIndex[slot] % rows) / rows;
+        instances[pointer] = (float) (atlasIndex[slot] / rows) / rows;
+        stale[slot] = false;
+    }
+
+    private void moveSlot(int from, int to) {
+        x[to] = x[from];
+        y[to] = y[from];
+        z[to] = z[from];
+        rx[to] = rx[from];
+        ry[to] = ry[from];
+        rz[to] = rz[from];
+        scale[to] = scale[from];
+        atlasIndex[to] = atlasIndex[from];
+        modelId[to] = modelId[from];
+        stale[to] = stale[from];
+        System.arraycopy(instances, from * LENGTH, instances, to * LENGTH, LENGTH);
+        int handle = handleOfSlot[from];
+        handleOfSlot[to] = handle;
+        slotOfHandle[handle & INDEX_MASK] = to;
+    }
+
+    private void growSlots() {
+        int length = x.length * 2;
+        x = Arrays.copyOf(x, length);
+        y = Arrays.copyOf(y, length);
+        z = Arrays.copyOf(z, length);
+        rx = Arrays.copyOf(rx, length);
+        ry = Arrays.copyOf(ry, length);
+        rz = Arrays.copyOf(rz, length);
+        scale = Arrays.copyOf(scale, length);
+        atlasIndex = Arrays.copyOf(atlasIndex, length);
+        modelId = Arrays.copyOf(modelId, length);
+        handleOfSlot = Arrays.copyOf(handleOfSlot, length);
+        stale = Arrays.copyOf(stale, length);
+        visible = Arrays.copyOf(visible, length);
+        instances = Arrays.copyOf(instances, length * LENGTH);
+    }
+
+    private int chunkCount() {
+        return (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+}
@@ -3,10 +3,14 @@ package entities;
 import models.TexturedModel;
 import org.lwjgl.input.Keyboard;
 import org.lwjgl.util.vector.Vector3f;
-import renderEngine.DisplayManager;
-import terrains.Terrain;
-
-
+import terrains.TerrainWorld;
+
+/** The player is simulated in fixed steps (see toolbox.FixedTimestep) on a position and heading of its own. The
+ *  entity itself, which is what gets drawn and what the camera follows, is then put in between the last two
+ *  simulated states by interpolate().
+ *
+ *  The keyboard is read once per frame by readInputs(), before the steps: a frame may run several steps or none,
+ *  and toggles like the camera switch must happen once per key press however many that are. */
 public class Player extends Entity{
 
     private static final float RUN_SPEED = 20;
@@ -22,26 +26,55 @@ public class Player extends Entity{
 
     private boolean isInAir = false;
     private boolean isFirstCamera = false;
+    private boolean wasCameraKeyDown = false;
+    private boolean jumpRequested = false;
+
+    private final Vector3f simulatedPosition;
+    private final Vector3f previousPosition;
+    private float simulatedRy;
+    private float previousRy;
 
     public Player(TexturedModel model, Vector3f position, float rx, float ry, float rz, float scale) {
         super(model, position, rx, ry, rz, scale);
+        this.simulatedPosition = new Vector3f(position);
+        this.previousPosition = new Vector3f(position);
+        this.simulatedRy = ry;
+        this.previousRy = ry;
     }
 
-    public void move(Terrain terrain) {
-        checkInputs();
-        super.increaseRotation(0, currentTurnSpeed * DisplayManager.getFrameTimeSeconds(), 0);
-        float distance = currentSpeed * DisplayManager.getFrameTimeSeconds();
-        float dx = (float) (distance * Math.sin(Math.toRadians(super.getRy())));
-        float dz = (float) (distance * Math.cos(Math.toRadians(super.getRy())));
-        super.increasePosition(dx, 0, dz);
-        upwardsSpeed += GRAVITY * DisplayManager.getFrameTimeSeconds();
-        super.increasePosition(0, upwardsSpeed * DisplayManager.getFrameTimeSeconds(), 0);
-        float terrainHeight = terrain.getHeightOfTerrain(super.getPosition().x, super.getPosition().z);
-        if (super.getPosition().y < terrainHeight) {
+    /** One simulation step of delta seconds, with the input of the last readInputs(). */
+    public void move(TerrainWorld world, float delta) {
+        if (jumpRequested) {
+            jump();
+            jumpRequested = false;
+        }
+        previousPosition.set(simulatedPosition);
+        previousRy = simulatedRy;
+        simulatedRy += currentTurnSpeed * delta;
+        float distance = currentSpeed * delta;
+        float dx = (float) (distance * Math.sin(Math.toRadians(simulatedRy)));
+        float dz = (float) (distance * Math.cos(Math.toRadians(simulatedRy)));
+        upwardsSpeed += GRAVITY * delta;
+        float dy = upwardsSpeed * delta;
+        float terrainHeight = world.getHeightOfTerrain(simulatedPosition.x + dx, simulatedPosition.z + dz);
+        if (simulatedPosition.y + dy < terrainHeight) {
             upwardsSpeed = 0;
             isInAir = false;
-            super.getPosition().y = terrainHeight;
+            dy = terrainHeight - simulatedPosition.y;
         }
+        simulatedPosition.translate(dx, dy, dz);
+    }
+
+    /** Puts the entity alpha of the way from the previous simulated state to the current one (see
+     *  FixedTimestep.getAlpha()). Standing still is no change at all (see Entity). */
+    public void interpolate(float alpha) {
+        Vector3f shown = super.getPosition();
+        float x = previousPosition.x + (simulatedPosition.x - previousPosition.x) * alpha;
+        float y = previousPosition.y + (simulatedPosition.y - previousPosition.y) * alpha;
+        float z = previousPosition.z + (simulatedPosition.z - previousPosition.z) * alpha;
+        super.increasePosition(x - shown.x, y - shown.y, z - shown.z);
+        float ry = previousRy + (simulatedRy - previousRy) * alpha;
+        super.increaseRotation(0, ry - super.getRy(), 0);
     }
 
     private void jump() {
@@ -51,7 +84,8 @@ public class Player extends Entity{
         }
     }
 
-    private void checkInputs() {
+    /** Reads the keyboard, once per frame. */
+    public void readInputs() {
         if(Keyboard.isKeyDown(Keyboard.KEY_W)) {
             this.currentSpeed = RUN_SPEED;
         } else if(Keyboard.isKeyDown(Keyboard.KEY_S)) {
@@ -69,12 +103,14 @@ public class Player extends Entity{
         }
 
         if (Keyboard.isKeyDown(Keyboard.KEY_SPACE)) {
-            jump();
+            jumpRequested = true;       // Taken by the next step.
         }
 
-        if (Keyboard.isKeyDown(Keyboard.KEY_H)) {
-            isFirstCamera = !isFirstCamera;
+        boolean cameraKeyDown = Keyboard.isKeyDown(Keyboard.KEY_H);
+        if (cameraKeyDown && !wasCameraKeyDown) {
+            isFirstCamera = !isFirstCamera;     // Only when the key goes down, not for as long as it is held.
         }
+        wasCameraKeyDown = cameraKeyDown;
     }
 
     public boolean isFirstCamera() {
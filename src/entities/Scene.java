@@ -0,0 +1,83 @@
+package entities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** The entities of the world, registered once instead of being handed to the renderer every frame.
+ *
+ *  Entities tell their scene when they change (see Entity), so update() only has to look at those, and the
+ *  MasterRenderer can keep the batches and instance data of the last frame for as long as neither the scene
+ *  nor the camera changes. A forest that just stands there then costs next to nothing per frame.
+ *
+ *  The data of the entities is kept in an EntityStore while they are in the scene (see Entity).
+ */
+public class Scene {
+
+    private final EntityOctree octree;
+    private final EntityStore store = new EntityStore();
+    private final List<Entity> changed = new ArrayList<>();     // Flagged since the last update().
+    private final List<Entity> updated = new ArrayList<>();     // What the last update() returned.
+    private int version;
+
+    /** The entities are kept in an octree over the given cube (see EntityOctree). */
+    public Scene(float centreX, float centreY, float centreZ, float halfSize, int maxDepth) {
+        this.octree = new EntityOctree(centreX, centreY, centreZ, halfSize, maxDepth);
+    }
+
+    public void add(Entity entity) {
+        if (entity.getScene() != null) {
+            throw new IllegalArgumentException("The entity is already in a scene");
+        }
+        entity.setScene(this);
+        entity.attach(store);
+        octree.add(entity);
+        version++;
+    }
+
+    public void remove(Entity entity) {
+        if (entity.getScene() != this) {
+            return;
+        }
+        octree.remove(entity);
+        entity.detach();
+        entity.setScene(null);
+        version++;
+    }
+
+    /** Re-files the entities that changed since the last call in the octree, works out their world matrices
+     *  (in parallel, see EntityStore.updateTransforms()) and returns them (the list is reused by the next call). */
+    public List<Entity> update() {
+        updated.clear();
+        for (Entity entity : changed) {
+            if (entity.getScene() == this && entity.isDirty()) {     // Removed ones are skipped.
+                entity.clearDirty();
+                octree.update(entity);
+                updated.add(entity);
+            }
+        }
+        changed.clear();
+        store.updateTransforms();
+        return updated;
+    }
+
+    void entityChanged(Entity entity) {
+        changed.add(entity);
+    }
+
+    /** Goes up whenever an entity is added or removed. */
+    public int getVersion() {
+        return version;
+    }
+
+    public EntityStore getStore() {
+        return store;
+    }
+
+    public EntityOctree getOctree() {
+        return octree;
+    }
+
+    public int size() {
+        return octree.size();
+    }
+}
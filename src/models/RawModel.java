@@ -1,13 +1,40 @@
 package models;
 
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.util.vector.Vector3f;
+
 public class RawModel {
 
     private int vaoID;
     private int vertexCount;
+    private float boundingRadius;       // Distance from the model's origin to its furthest vertex, in model space.
+    /** Turns the positions stored in the VBO back into model space: offset + stored * scale. Quantized vertex
+     *  formats store positions relative to the mesh bounds, everything else uses (0, 0, 0) and (1, 1, 1). */
+    private Vector3f positionOffset;
+    private Vector3f positionScale;
+    /** GL_UNSIGNED_SHORT or GL_UNSIGNED_INT, what the draw calls have to pass for the model's index buffer. */
+    private int indexType;
 
     public RawModel(int vaoID, int vertexCount) {
+        this(vaoID, vertexCount, 0);
+    }
+
+    public RawModel(int vaoID, int vertexCount, float boundingRadius) {
+        this(vaoID, vertexCount, boundingRadius, GL11.GL_UNSIGNED_INT);
+    }
+
+    public RawModel(int vaoID, int vertexCount, float boundingRadius, int indexType) {
+        this(vaoID, vertexCount, boundingRadius, new Vector3f(0, 0, 0), new Vector3f(1, 1, 1), indexType);
+    }
+
+    public RawModel(int vaoID, int vertexCount, float boundingRadius, Vector3f positionOffset,
+                    Vector3f positionScale, int indexType) {
         this.vaoID = vaoID;
         this.vertexCount = vertexCount;
+        this.boundingRadius = boundingRadius;
+        this.positionOffset = positionOffset;
+        this.positionScale = positionScale;
+        this.indexType = indexType;
     }
 
     public int getVaoID() {
@@ -17,4 +44,25 @@ public class RawModel {
     public int getVertexCount() {
         return vertexCount;
     }
+
+    public float getBoundingRadius() {
+        return boundingRadius;
+    }
+
+    public Vector3f getPositionOffset() {
+        return positionOffset;
+    }
+
+    public Vector3f getPositionScale() {
+        return positionScale;
+    }
+
+    public int getIndexType() {
+        return indexType;
+    }
+
+    /** Bytes per index, e.g. to turn an offset into the index buffer into the byte offset glDrawElements wants. */
+    public int getIndexSize() {
+        return indexType == GL11.GL_UNSIGNED_SHORT ? 2 : 4;
+    }
 }
@@ -2,14 +2,57 @@ package models;
 
 import textures.ModelTexture;
 
+import java.util.Arrays;
+
 public class TexturedModel {
 
+    /** A model only switches LOD once its screen size is this much past the switch point, so entities sitting
+     *  right at a switch distance don't flicker between two meshes while the camera moves a little. */
+    private static final float LOD_HYSTERESIS = 0.15f;
+
     private RawModel rawModel;
     private ModelTexture texture;
+    /** Level of detail (LOD) 0 is rawModel, the others are ever simpler versions of it (see MeshSimplifier).
+     *  LOD i is used below lodScreenSizes[i], in fractions of the screen height the model's bounding sphere
+     *  covers (lodScreenSizes[0] is unused). */
+    private RawModel[] lods;
+    private float[] lodScreenSizes = {Float.MAX_VALUE};
 
     public TexturedModel (RawModel model, ModelTexture texture) {
         this.rawModel = model;
         this.texture = texture;
+        this.lods = new RawModel[]{model};
+    }
+
+    /** Adds the next (simpler) LOD, used while the model covers less than screenSize of the screen height. */
+    public void addLod(RawModel model, float screenSize) {
+        if (screenSize >= lodScreenSizes[lods.length - 1]) {
+            throw new IllegalArgumentException("Each LOD must switch at a smaller screen size than the one before");
+        }
+        lods = Arrays.copyOf(lods, lods.length + 1);
+        lodScreenSizes = Arrays.copyOf(lodScreenSizes, lods.length);
+        lods[lods.length - 1] = model;
+        lodScreenSizes[lods.length - 1] = screenSize;
+    }
+
+    public int getLodCount() {
+        return lods.length;
+    }
+
+    public RawModel getRawModel(int lod) {
+        return lods[lod];
+    }
+
+    /** The LOD to draw at the given screen size, given the one that was drawn last time. */
+    public int selectLod(float screenSize, int currentLod) {
+        int lod = Math.min(currentLod, lods.length - 1);
+        while (lod + 1 < lods.length && screenSize < lodScreenSizes[lod + 1] * (1 - LOD_HYSTERESIS)) {
+            lod++;
+        }
+        while (lod > 0 && screenSize > lodScreenSizes[lod] * (1 + LOD_HYSTERESIS)) {
+            lod--;
+        }
+        return lod;
     }
 
     public RawModel getRawModel() {
@@ -19,4 +62,9 @@ public class TexturedModel {
     public ModelTexture getTexture() {
         return texture;
     }
+
+    /** Radius of the sphere around the model's origin that contains the whole mesh (before entity scaling). */
+    public float getBoundingRadius() {
+        return rawModel.getBoundingRadius();
+    }
 }
@@ -0,0 +1,103 @@
+package objConverter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** A mesh whose attributes are kept in (direct, native order) byte buffers instead of Java arrays, so they can
+ *  be handed to OpenGL as they are. When the mesh comes from the MeshCache the buffers are slices of a memory
+ *  mapped file, and the data never passes through the Java heap at all.
+ *
+ *  The layout is planar: all positions (3 floats per vertex), then all texture coordinates (2 floats), then all
+ *  normals (3 floats), then the indices (1 int each).
+ */
+public class BinaryMesh {
+
+	private final ByteBuffer positions;
+	private final ByteBuffer textureCoords;
+	private final ByteBuffer normals;
+	private final ByteBuffer indices;
+	private final int vertexCount;
+	private final int indexCount;
+	private final float furthestPoint;
+	private final float[] bounds;		// minX, minY, minZ, maxX, maxY, maxZ
+
+	public BinaryMesh(ByteBuffer positions, ByteBuffer textureCoords, ByteBuffer normals, ByteBuffer indices,
+			int vertexCount, int indexCount, float furthestPoint, float[] bounds) {
+		this.positions = positions;
+		this.textureCoords = textureCoords;
+		this.normals = normals;
+		this.indices = indices;
+		this.vertexCount = vertexCount;
+		this.indexCount = indexCount;
+		this.furthestPoint = furthestPoint;
+		this.bounds = bounds;
+	}
+
+	/** Copies a parsed mesh into direct buffers, used when the cache can't be written. */
+	public static BinaryMesh fromModelData(ModelData data) {
+		return new BinaryMesh(toBuffer(data.getVertices()), toBuffer(data.getTextureCoords()),
+				toBuffer(data.getNormals()), toBuffer(data.getIndices()), data.getVertices().length / 3,
+				data.getIndices().length, data.getFurthestPoint(), calculateBounds(data.getVertices()));
+	}
+
+	/** minX, minY, minZ, maxX, maxY, maxZ of xyz positions, all 0 for an empty mesh. */
+	public static float[] calculateBounds(float[] positions) {
+		float[] bounds = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+				-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+		for (int i = 0; i < positions.length; i += 3) {
+			for (int axis = 0; axis < 3; axis++) {
+				bounds[axis] = Math.min(bounds[axis], positions[i + axis]);
+				bounds[axis + 3] = Math.max(bounds[axis + 3], positions[i + axis]);
+			}
+		}
+		if (positions.length == 0) {
+			bounds = new float[6];
+		}
+		return bounds;
+	}
+
+	private static ByteBuffer toBuffer(float[] data) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length * 4).order(ByteOrder.nativeOrder());
+		buffer.asFloatBuffer().put(data);
+		return buffer;
+	}
+
+	private static ByteBuffer toBuffer(int[] data) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length * 4).order(ByteOrder.nativeOrder());
+		buffer.asIntBuffer().put(data);
+		return buffer;
+	}
+
+	public ByteBuffer getPositions() {
+		return positions;
+	}
+
+	public ByteBuffer getTextureCoords() {
+		return textureCoords;
+	}
+
+	public ByteBuffer getNormals() {
+		return normals;
+	}
+
+	public ByteBuffer getIndices() {
+		return indices;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	public float getFurthestPoint() {
+		return furthestPoint;
+	}
+
+	public float[] getBounds() {
+		return bounds;
+	}
+
+}
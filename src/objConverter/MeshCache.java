@@ -0,0 +1,207 @@
+package objConverter;
+
+import toolbox.MeshSimplifier;
+import toolbox.VertexCacheOptimizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+/** Binary cache of parsed .obj files, so that models are only parsed as text the first time they are loaded.
+ *
+ *  Every entry is one file in res/cache/ holding a fixed size header followed by the planar mesh data of a
+ *  BinaryMesh. The header records the size and modification time of the .obj it was made from, and an entry
+ *  that doesn't match its source any more is simply rebuilt. Valid entries are mapped with FileChannel.map and
+ *  the BinaryMesh buffers are slices of that mapping, which the Loader can upload without any copying on our side.
+ *
+ *  Entries are written in the byte order of the machine, which is what OpenGL wants; an entry written on a
+ *  machine with the other byte order is treated as stale.
+ *
+ *  Before an entry is written its triangles and vertices are reordered for the GPU's vertex cache (see
+ *  VertexCacheOptimizer), so a cached mesh has the same triangles as the .obj, but not in the same order.
+ */
+public class MeshCache {
+
+	private static final String RES_LOC = "res/";
+	private static final String CACHE_LOC = "res/cache/";
+
+	/** Variant of the entries made by loadOBJ(). */
+	public static final String MODEL_VARIANT = "model";
+
+	private static final int MAGIC = 0x4D534831;		// "MSH1"
+	private static final int VERSION = 2;		// 2: meshes are reordered by the VertexCacheOptimizer.
+	private static final int BYTE_ORDER_MARK = 0x01020304;
+	/** magic, version, byte order mark (3 ints), source size and modification time (2 longs),
+	 *  vertex and index count (2 ints), furthest point and bounds (7 floats), padded to 64 bytes. */
+	private static final int HEADER_SIZE = 64;
+
+	/** Simulated vertex cache misses and triangles of the entries built since startup, for getACMR(). Entries
+	 *  are built on the asset workers, so these are only touched while holding the class's lock. */
+	private static double missesBefore = 0;
+	private static double missesAfter = 0;
+	private static long trianglesBuilt = 0;
+
+	/** Loads an .obj from res/ through the cache, parsing it with StreamingOBJLoader on a miss (which gives the
+	 *  same ModelData as OBJFileLoader, so both share the "model" entries). */
+	public static BinaryMesh loadOBJ(String objFileName) {
+		return load(objFileName, MODEL_VARIANT, () -> StreamingOBJLoader.loadOBJ(objFileName));
+	}
+
+	/** A lower detail version of loadOBJ()'s mesh with about ratio of its triangles, see MeshSimplifier. */
+	public static BinaryMesh loadSimplifiedOBJ(String objFileName, float ratio) {
+		return loadSimplified(objFileName, MODEL_VARIANT, ratio, () -> StreamingOBJLoader.loadOBJ(objFileName));
+	}
+
+	/** A lower detail version of the mesh parser makes, cached as its own variant (simplifying takes a lot
+	 *  longer than parsing, so it's well worth keeping). */
+	public static BinaryMesh loadSimplified(String objFileName, String variant, float ratio,
+			Supplier<ModelData> parser) {
+		return load(objFileName, lodVariant(variant, ratio), () -> MeshSimplifier.simplify(parser.get(), ratio));
+	}
+
+	/** ACMR (see VertexCacheOptimizer) over all entries built since startup, before or after their optimization.
+	 *  0 if every mesh came from the cache. */
+	public static synchronized float getACMR(boolean optimized) {
+		return trianglesBuilt == 0 ? 0 : (float) ((optimized ? missesAfter : missesBefore) / trianglesBuilt);
+	}
+
+	/** The variant simplified meshes are cached (and shared by the Loader) as, e.g. "model-lod25". */
+	public static String lodVariant(String variant, float ratio) {
+		return variant + "-lod" + Math.round(ratio * 100);
+	}
+
+	/** Loads an .obj from res/ through the cache. variant tells apart entries made from the same file by
+	 *  different parsers, and parser is only called when there is no valid entry. */
+	public static BinaryMesh load(String objFileName, String variant, Supplier<ModelData> parser) {
+		File source = new File(RES_LOC + objFileName + ".obj");
+		File entry = new File(CACHE_LOC + objFileName + "." + variant + ".mesh");
+		long sourceSize = source.length();
+		long sourceModified = source.lastModified();
+		try {
+			BinaryMesh cached = map(entry, sourceSize, sourceModified);
+			if (cached != null) {
+				return cached;
+			}
+		} catch (IOException e) {
+			System.err.println("Could not read mesh cache entry " + entry + ", rebuilding it");
+		}
+		ModelData data = optimize(parser.get());
+		try {
+			write(entry, data, sourceSize, sourceModified);
+			BinaryMesh written = map(entry, sourceSize, sourceModified);
+			if (written != null) {
+				return written;
+			}
+		} catch (IOException e) {
+			System.err.println("Could not write mesh cache entry " + entry);
+			e.printStackTrace();
+		}
+		return BinaryMesh.fromModelData(data);
+	}
+
+	/** Entries are only built once, so this is where meshes get their (comparatively slow) vertex cache
+	 *  optimization. Its ACMR before and after goes into getACMR(). */
+	private static ModelData optimize(ModelData data) {
+		float before = VertexCacheOptimizer.calculateACMR(data.getIndices());
+		ModelData optimized = VertexCacheOptimizer.optimize(data);
+		float after = VertexCacheOptimizer.calculateACMR(optimized.getIndices());
+		countMisses(before, after, optimized.getIndices().length / 3);
+		return optimized;
+	}
+
+	private static synchronized void countMisses(float acmrBefore, float acmrAfter, int triangles) {
+		missesBefore += acmrBefore * triangles;
+		missesAfter += acmrAfter * triangles;
+		trianglesBuilt += triangles;
+	}
+
+	/** Maps an entry, or returns null if it doesn't exist or doesn't match the source file any more. */
+	private static BinaryMesh map(File entry, long sourceSize, long sourceModified) throws IOException {
+		if (!entry.isFile() || entry.length() < HEADER_SIZE) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(entry.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			mapped.order(ByteOrder.nativeOrder());
+			if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION || mapped.getInt(8) != BYTE_ORDER_MARK
+					|| mapped.getLong(12) != sourceSize || mapped.getLong(20) != sourceModified) {
+				return null;
+			}
+			int vertexCount = mapped.getInt(28);
+			int indexCount = mapped.getInt(32);
+			float furthestPoint = mapped.getFloat(36);
+			float[] bounds = new float[6];
+			for (int i = 0; i < 6; i++) {
+				bounds[i] = mapped.getFloat(40 + i * 4);
+			}
+			long expectedSize = HEADER_SIZE + (vertexCount * 8L + indexCount) * 4;
+			if (channel.size() != expectedSize) {
+				return null;
+			}
+			int positions = HEADER_SIZE;
+			int textureCoords = positions + vertexCount * 3 * 4;
+			int normals = textureCoords + vertexCount * 2 * 4;
+			int indices = normals + vertexCount * 3 * 4;
+			return new BinaryMesh(slice(mapped, positions, vertexCount * 3 * 4),
+					slice(mapped, textureCoords, vertexCount * 2 * 4),
+					slice(mapped, normals, vertexCount * 3 * 4),
+					slice(mapped, indices, indexCount * 4), vertexCount, indexCount, furthestPoint, bounds);
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + length);
+		return duplicate.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/** Writes to a temporary file first and moves it into place, so a crash never leaves half an entry behind. */
+	private static void write(File entry, ModelData data, long sourceSize, long sourceModified)
+			throws IOException {
+		float[] vertices = data.getVertices();
+		float[] textureCoords = data.getTextureCoords();
+		float[] normals = data.getNormals();
+		int[] indices = data.getIndices();
+		float[] bounds = BinaryMesh.calculateBounds(vertices);
+		int vertexCount = vertices.length / 3;
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + (vertexCount * 8 + indices.length) * 4)
+				.order(ByteOrder.nativeOrder());
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(BYTE_ORDER_MARK);
+		buffer.putLong(sourceSize).putLong(sourceModified);
+		buffer.putInt(vertexCount).putInt(indices.length);
+		buffer.putFloat(data.getFurthestPoint());
+		for (float bound : bounds) {
+			buffer.putFloat(bound);
+		}
+		buffer.position(HEADER_SIZE);
+		buffer.asFloatBuffer().put(vertices);
+		buffer.position(buffer.position() + vertices.length * 4);
+		buffer.asFloatBuffer().put(textureCoords, 0, vertexCount * 2);
+		buffer.position(buffer.position() + vertexCount * 2 * 4);
+		buffer.asFloatBuffer().put(normals, 0, vertexCount * 3);
+		buffer.position(buffer.position() + vertexCount * 3 * 4);
+		buffer.asIntBuffer().put(indices);
+		buffer.rewind();
+
+		Path target = entry.toPath();
+		Files.createDirectories(target.getParent());
+		Path temporary = Files.createTempFile(target.getParent(), entry.getName(), ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
@@ -0,0 +1,449 @@
+package objConverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** Drop-in replacement for OBJFileLoader.loadOBJ() that gives exactly the same ModelData, just a lot faster.
+ *
+ *  The file is read in blocks straight from a FileChannel and every line is parsed where it lies in the block:
+ *  no Strings, no split(), no Vector3f or Vertex objects and no boxed Integers. Attributes go into plain arrays
+ *  that double when full, and vertices that reuse a position with a different texture or normal are found with
+ *  an open addressing hash table on (position, texture, normal) instead of walking a chain of duplicates.
+ *
+ *  Numbers are parsed in place with a fast path that is exact for the usual OBJ numbers; anything unusual (very
+ *  long mantissas, huge exponents, hex, NaN, or a value right on the halfway point between two floats) is handed
+ *  to Float.parseFloat so the result is always the same as Float.valueOf would give.
+ *
+ *  It also keeps the quirks of OBJFileLoader: only the first block of consecutive "f " lines is read, faces use
+ *  their first three corners, and vertices no face uses get the first texture coordinate and normal.
+ */
+public class StreamingOBJLoader {
+
+	private static final String RES_LOC = "res/";
+	private static final int BLOCK_SIZE = 1 << 16;
+	private static final int NO_INDEX = -1;
+	private static final int SLOT_SIZE = 4;
+
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	private static final int MAX_FAST_EXPONENT = 22;		// Largest power of ten a double holds exactly.
+	private static final long MAX_FAST_MANTISSA = 1L << 53;	// Largest integer a double holds exactly.
+
+	private FileChannel channel;
+	private byte[] bytes = new byte[BLOCK_SIZE];
+	private int limit;				// Bytes of the block that have been read.
+	private int position;			// Start of the next line.
+	private boolean endOfFile;
+	private boolean skipLineFeed;	// The last line ended with '\r', so a '\n' right after it belongs to it.
+	private int lineStart, lineEnd;
+
+	private float[] positions = new float[3 * 1024];
+	private int positionCount;
+	private float[] textures = new float[2 * 1024];
+	private int textureCount;
+	private float[] normals = new float[3 * 1024];
+	private int normalCount;
+
+	private int[] vertexPositions, vertexTextures, vertexNormals;
+	private int vertexCount;
+	private int[] indices = new int[3 * 1024];
+	private int indexCount;
+	/** The duplicates (vertices that share a position with an earlier one), SLOT_SIZE ints per slot: position,
+	 *  texture, normal and vertex number, which is NO_INDEX for empty slots. The keys are stored in the slot so
+	 *  a probe touches a single cache line instead of three vertex arrays. */
+	private int[] table;
+	private int tableCount;
+
+	private StreamingOBJLoader() {
+	}
+
+	public static ModelData loadOBJ(String objFileName) {
+		StreamingOBJLoader parser = new StreamingOBJLoader();
+		File objFile = new File(RES_LOC + objFileName + ".obj");
+		try (FileChannel channel = FileChannel.open(objFile.toPath(), StandardOpenOption.READ)) {
+			parser.channel = channel;
+			parser.parse();
+		} catch (NoSuchFileException e) {
+			System.err.println("File not found in res; don't use any extention");
+		} catch (IOException e) {
+			System.err.println("Error reading the file");
+		}
+		return parser.toModelData();
+	}
+
+	private void parse() throws IOException {
+		boolean foundFaces = false;
+		while (!foundFaces && nextLine()) {
+			if (lineStartsWith('v', ' ')) {
+				positions = ensureCapacity(positions, positionCount * 3 + 3);
+				parseFloats(positions, positionCount * 3, 3);
+				positionCount++;
+			} else if (lineStartsWith('v', 't', ' ')) {
+				textures = ensureCapacity(textures, textureCount * 2 + 2);
+				parseFloats(textures, textureCount * 2, 2);
+				textureCount++;
+			} else if (lineStartsWith('v', 'n', ' ')) {
+				normals = ensureCapacity(normals, normalCount * 3 + 3);
+				parseFloats(normals, normalCount * 3, 3);
+				normalCount++;
+			} else if (lineStartsWith('f', ' ')) {
+				foundFaces = true;
+			}
+		}
+		if (!foundFaces) {
+			return;
+		}
+		prepareVertices();
+		do {
+			if (!lineStartsWith('f', ' ')) {
+				break;
+			}
+			processFace();
+		} while (nextLine());
+	}
+
+	/** Finds the next line in the block, reading more of the file when needed. Returns false at the end. */
+	private boolean nextLine() throws IOException {
+		while (true) {
+			if (skipLineFeed && position < limit) {
+				if (bytes[position] == '\n') {
+					position++;
+				}
+				skipLineFeed = false;
+			}
+			for (int i = position; i < limit; i++) {
+				byte b = bytes[i];
+				if (b == '\n' || b == '\r') {
+					lineStart = position;
+					lineEnd = i;
+					position = i + 1;
+					skipLineFeed = b == '\r';
+					return true;
+				}
+			}
+			if (endOfFile) {
+				if (position < limit) {			// Last line, without a line break.
+					lineStart = position;
+					lineEnd = limit;
+					position = limit;
+					return true;
+				}
+				lineStart = lineEnd = position;
+				return false;
+			}
+			readBlock();
+		}
+	}
+
+	/** Moves the unfinished line to the front of the block and fills the rest from the file. */
+	private void readBlock() throws IOException {
+		int remaining = limit - position;
+		if (remaining == bytes.length) {
+			bytes = Arrays.copyOf(bytes, bytes.length * 2);		// A single line longer than the block.
+		}
+		System.arraycopy(bytes, position, bytes, 0, remaining);
+		limit = remaining;
+		position = 0;
+		ByteBuffer target = ByteBuffer.wrap(bytes, limit, bytes.length - limit);
+		int read = channel.read(target);
+		if (read < 0) {
+			endOfFile = true;
+		} else {
+			limit += read;
+		}
+	}
+
+	private boolean lineStartsWith(char first, char second) {
+		return lineEnd - lineStart >= 2 && bytes[lineStart] == first && bytes[lineStart + 1] == second;
+	}
+
+	private boolean lineStartsWith(char first, char second, char third) {
+		return lineEnd - lineStart >= 3 && bytes[lineStart] == first && bytes[lineStart + 1] == second
+				&& bytes[lineStart + 2] == third;
+	}
+
+	/** Parses the words after the keyword of the line (separated by single spaces, like split(" ")). */
+	private void parseFloats(float[] target, int offset, int count) {
+		int wordStart = wordEnd(lineStart) + 1;
+		for (int i = 0; i < count; i++) {
+			int wordEnd = wordEnd(wordStart);
+			target[offset + i] = parseFloat(wordStart, wordEnd);
+			wordStart = wordEnd + 1;
+		}
+	}
+
+	private int wordEnd(int from) {
+		int i = from;
+		while (i < lineEnd && bytes[i] != ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	private float parseFloat(int from, int to) {
+		int i = from;
+		boolean negative = false;
+		if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+			negative = bytes[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int exponent = 0;
+		boolean anyDigits = false;
+		for (; i < to && isDigit(bytes[i]); i++) {
+			if (mantissa >= MAX_FAST_MANTISSA / 10) {
+				return parseFloatSlowly(from, to);
+			}
+			mantissa = mantissa * 10 + (bytes[i] - '0');
+			anyDigits = true;
+		}
+		if (i < to && bytes[i] == '.') {
+			for (i++; i < to && isDigit(bytes[i]); i++) {
+				if (mantissa >= MAX_FAST_MANTISSA / 10) {
+					return parseFloatSlowly(from, to);
+				}
+				mantissa = mantissa * 10 + (bytes[i] - '0');
+				exponent--;
+				anyDigits = true;
+			}
+		}
+		if (!anyDigits) {
+			return parseFloatSlowly(from, to);
+		}
+		if (i < to && (bytes[i] == 'e' || bytes[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+				negativeExponent = bytes[i] == '-';
+				i++;
+			}
+			int start = i;
+			int value = 0;
+			for (; i < to && isDigit(bytes[i]) && value < 1000; i++) {
+				value = value * 10 + (bytes[i] - '0');
+			}
+			if (i == start) {
+				return parseFloatSlowly(from, to);
+			}
+			exponent += negativeExponent ? -value : value;
+		}
+		if (i != to || exponent > MAX_FAST_EXPONENT || exponent < -MAX_FAST_EXPONENT) {
+			return parseFloatSlowly(from, to);
+		}
+		if (mantissa == 0) {
+			return negative ? -0f : 0f;
+		}
+		// Both operands are exact, so this is the correctly rounded double...
+		double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		// ...and rounding that to a float only goes wrong when it landed exactly halfway between two floats.
+		long bits = Double.doubleToRawLongBits(value);
+		if ((bits & 0x1FFFFFFFL) == 0x10000000L || value < Float.MIN_NORMAL || value > Float.MAX_VALUE) {
+			return parseFloatSlowly(from, to);
+		}
+		float result = (float) value;
+		return negative ? -result : result;
+	}
+
+	private float parseFloatSlowly(int from, int to) {
+		return Float.parseFloat(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+	}
+
+	private int parseInt(int from, int to) {
+		int i = from;
+		boolean negative = false;
+		if (i < to && bytes[i] == '-') {
+			negative = true;
+			i++;
+		}
+		if (i == to || to - i > 9) {
+			return Integer.parseInt(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+		}
+		int value = 0;
+		for (; i < to; i++) {
+			if (!isDigit(bytes[i])) {
+				return Integer.parseInt(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+			}
+			value = value * 10 + (bytes[i] - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	/** Every position starts out as a vertex of its own, with no texture or normal yet. */
+	private void prepareVertices() {
+		int capacity = Math.max(positionCount * 2, 16);
+		vertexPositions = new int[capacity];
+		vertexTextures = new int[capacity];
+		vertexNormals = new int[capacity];
+		for (int i = 0; i < positionCount; i++) {
+			vertexPositions[i] = i;
+			vertexTextures[i] = NO_INDEX;
+			vertexNormals[i] = NO_INDEX;
+		}
+		vertexCount = positionCount;
+		table = new int[64 * SLOT_SIZE];
+		Arrays.fill(table, NO_INDEX);
+	}
+
+	private void processFace() {
+		int wordStart = wordEnd(lineStart) + 1;
+		for (int corner = 0; corner < 3; corner++) {
+			int wordEnd = wordEnd(wordStart);
+			int firstSlash = slash(wordStart, wordEnd);
+			int secondSlash = slash(firstSlash + 1, wordEnd);
+			int thirdSlash = slash(secondSlash + 1, wordEnd);
+			if (secondSlash >= wordEnd) {
+				throw new ArrayIndexOutOfBoundsException("Face corner needs position, texture and normal");
+			}
+			processVertex(parseInt(wordStart, firstSlash) - 1, parseInt(firstSlash + 1, secondSlash) - 1,
+					parseInt(secondSlash + 1, thirdSlash) - 1);
+			wordStart = wordEnd + 1;
+		}
+	}
+
+	private int slash(int from, int to) {
+		int i = from;
+		while (i < to && bytes[i] != '/') {
+			i++;
+		}
+		return i;
+	}
+
+	private void processVertex(int position, int texture, int normal) {
+		if (position < 0 || position >= positionCount) {
+			throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + positionCount);
+		}
+		int index;
+		if (vertexTextures[position] == NO_INDEX || vertexNormals[position] == NO_INDEX) {
+			vertexTextures[position] = texture;
+			vertexNormals[position] = normal;
+			index = position;
+		} else if (vertexTextures[position] == texture && vertexNormals[position] == normal) {
+			index = position;			// The common case, the first vertex made for this position.
+		} else {
+			index = find(position, texture, normal);
+			if (index == NO_INDEX) {
+				index = addVertex(position, texture, normal);
+			}
+		}
+		indices = ensureCapacity(indices, indexCount + 1);
+		indices[indexCount++] = index;
+	}
+
+	private int addVertex(int position, int texture, int normal) {
+		if (vertexCount == vertexPositions.length) {
+			vertexPositions = Arrays.copyOf(vertexPositions, vertexCount * 2);
+			vertexTextures = Arrays.copyOf(vertexTextures, vertexCount * 2);
+			vertexNormals = Arrays.copyOf(vertexNormals, vertexCount * 2);
+		}
+		int vertex = vertexCount++;
+		vertexPositions[vertex] = position;
+		vertexTextures[vertex] = texture;
+		vertexNormals[vertex] = normal;
+		insert(position, texture, normal, vertex);
+		return vertex;
+	}
+
+	private int find(int position, int texture, int normal) {
+		int mask = table.length / SLOT_SIZE - 1;
+		for (int slot = hash(position, texture, normal) & mask; ; slot = (slot + 1) & mask) {
+			int i = slot * SLOT_SIZE;
+			if (table[i + 3] == NO_INDEX || (table[i] == position && table[i + 1] == texture
+					&& table[i + 2] == normal)) {
+				return table[i + 3];
+			}
+		}
+	}
+
+	/** Linear probing, kept at most half full. */
+	private void insert(int position, int texture, int normal, int vertex) {
+		if (++tableCount * 2 > table.length / SLOT_SIZE) {
+			int[] old = table;
+			table = new int[old.length * 2];
+			Arrays.fill(table, NO_INDEX);
+			for (int i = 0; i < old.length; i += SLOT_SIZE) {
+				if (old[i + 3] != NO_INDEX) {
+					place(old[i], old[i + 1], old[i + 2], old[i + 3]);
+				}
+			}
+		}
+		place(position, texture, normal, vertex);
+	}
+
+	private void place(int position, int texture, int normal, int vertex) {
+		int mask = table.length / SLOT_SIZE - 1;
+		int slot = hash(position, texture, normal) & mask;
+		while (table[slot * SLOT_SIZE + 3] != NO_INDEX) {
+			slot = (slot + 1) & mask;
+		}
+		int i = slot * SLOT_SIZE;
+		table[i] = position;
+		table[i + 1] = texture;
+		table[i + 2] = normal;
+		table[i + 3] = vertex;
+	}
+
+	private static int hash(int position, int texture, int normal) {
+		int h = ((position * 0x9E3779B1) ^ texture) * 0x9E3779B1 ^ normal;
+		// MurmurHash3's finalizer, so that nearby keys don't end up in one long run of the table.
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		return h ^ (h >>> 16);
+	}
+
+	private ModelData toModelData() {
+		if (vertexPositions == null) {			// No faces, every position is an unused vertex.
+			prepareVertices();
+		}
+		float[] verticesArray = new float[vertexCount * 3];
+		float[] texturesArray = new float[vertexCount * 2];
+		float[] normalsArray = new float[vertexCount * 3];
+		float furthestPoint = 0;
+		for (int i = 0; i < vertexCount; i++) {
+			int position = vertexPositions[i] * 3;
+			int texture = vertexTextures[i];
+			int normal = vertexNormals[i];
+			if (texture == NO_INDEX || normal == NO_INDEX) {	// Not used by any face.
+				texture = 0;
+				normal = 0;
+			}
+			float x = positions[position];
+			float y = positions[position + 1];
+			float z = positions[position + 2];
+			float length = (float) Math.sqrt(x * x + y * y + z * z);
+			if (length > furthestPoint) {
+				furthestPoint = length;
+			}
+			verticesArray[i * 3] = x;
+			verticesArray[i * 3 + 1] = y;
+			verticesArray[i * 3 + 2] = z;
+			texturesArray[i * 2] = textures[texture * 2];
+			texturesArray[i * 2 + 1] = 1 - textures[texture * 2 + 1];
+			normalsArray[i * 3] = normals[normal * 3];
+			normalsArray[i * 3 + 1] = normals[normal * 3 + 1];
+			normalsArray[i * 3 + 2] = normals[normal * 3 + 2];
+		}
+		return new ModelData(verticesArray, texturesArray, normalsArray, Arrays.copyOf(indices, indexCount),
+				furthestPoint);
+	}
+
+	private static float[] ensureCapacity(float[] array, int size) {
+		return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+	}
+
+	private static int[] ensureCapacity(int[] array, int size) {
+		return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+	}
+
+}
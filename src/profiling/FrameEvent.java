@@ -0,0 +1,50 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/** One frame, as a Java Flight Recorder event: its duration is the whole frame, the fields split it into the
+ *  phases of FrameProfiler. Start a recording (e.g. java -XX:StartFlightRecording ...) and the frames show up in
+ *  Mission Control next to GC pauses and JIT activity, which is usually what explains a spike. */
+@Name("gameEngine.Frame")
+@Label("Frame")
+@Category("Game Engine")
+@Description("A rendered frame and the time spent in each of its phases")
+@StackTrace(false)
+class FrameEvent extends Event {
+
+    @Label("Input and Camera") @Timespan
+    long inputCamera;
+
+    @Label("Simulation") @Timespan
+    long simulation;
+
+    @Label("Batching") @Timespan
+    long batching;
+
+    @Label("Entity Render") @Timespan
+    long entityRender;
+
+    @Label("Terrain Render") @Timespan
+    long terrainRender;
+
+    @Label("Swap and Sync") @Timespan
+    long swapSync;
+
+    @Label("Draw Calls")
+    int drawCalls;
+
+    @Label("Triangles")
+    int triangles;
+
+    @Label("Uniform Uploads")
+    int uniformUploads;
+
+    @Label("State Changes")
+    int stateChanges;
+}
@@ -0,0 +1,203 @@
+package profiling;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Times the phases of every frame:
+ *
+ *      profiler.beginFrame();
+ *      profiler.begin(FrameProfiler.SIMULATION);
+ *      ...
+ *      profiler.end(FrameProfiler.SIMULATION);
+ *      ...
+ *      profiler.endFrame(drawCalls, triangles, uniformUploads, stateChanges);
+ *
+ *  A phase may be begun and ended several times in a frame, its times add up. At the end of the frame the
+ *  time of the frame and of each phase goes into a RollingHistogram, and a FrameEvent is sent to the flight
+ *  recorder if one is recording. Through register() the percentiles and counts can be watched over JMX.
+ *
+ *  Recording costs two System.nanoTime() calls per phase and allocates nothing (the JFR event only while a
+ *  recording wants it), so it can stay on in a release build.
+ */
+public class FrameProfiler implements FrameStatsMXBean {
+
+    public static final int INPUT_CAMERA = 0;
+    public static final int SIMULATION = 1;
+    public static final int BATCHING = 2;
+    public static final int ENTITY_RENDER = 3;
+    public static final int TERRAIN_RENDER = 4;
+    public static final int SWAP_SYNC = 5;
+    public static final int PHASES = 6;
+    private static final String[] PHASE_NAMES = {
+            "inputCamera", "simulation", "batching", "entityRender", "terrainRender", "swapSync"
+    };
+
+    private static final int WINDOWS = 5;
+    private static final long WINDOW_NANOS = 2000000000L;     // So the statistics cover the last 8 to 10 seconds.
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final RollingHistogram frameTimes = new RollingHistogram(WINDOWS, WINDOW_NANOS);
+    private final RollingHistogram[] phaseTimes = new RollingHistogram[PHASES];
+    private final long[] phaseStart = new long[PHASES];
+    private final long[] phaseTotal = new long[PHASES];
+    private long frameStart = -1;
+    private final FrameEvent probe = new FrameEvent();     // Only asked whether the event is being recorded.
+    private FrameEvent event;                               // Of the current frame, null if it isn't.
+
+    // Of the last frame, for other threads.
+    private volatile long frameCount;
+    private volatile int drawCalls;
+    private volatile int triangles;
+    private volatile int uniformUploads;
+    private volatile int stateChanges;
+
+    public FrameProfiler() {
+        for (int phase = 0; phase < PHASES; phase++) {
+            phaseTimes[phase] = new RollingHistogram(WINDOWS, WINDOW_NANOS);
+        }
+    }
+
+    /** Makes the statistics available over JMX. Only one profiler per JVM can be registered. */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("gameEngine:type=FrameProfiler"));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void beginFrame() {
+        for (int phase = 0; phase < PHASES; phase++) {
+            phaseTotal[phase] = 0;
+        }
+        event = probe.isEnabled() ? new FrameEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        frameStart = System.nanoTime();
+    }
+
+    public void begin(int phase) {
+        phaseStart[phase] = System.nanoTime();
+    }
+
+    public void end(int phase) {
+        phaseTotal[phase] += System.nanoTime() - phaseStart[phase];
+    }
+
+    /** Records the frame begun by beginFrame(), with the counters of what it drew. */
+    public void endFrame(int drawCalls, int triangles, int uniformUploads, int stateChanges) {
+        if (frameStart < 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        frameTimes.record(now - frameStart, now);
+        for (int phase = 0; phase < PHASES; phase++) {
+            phaseTimes[phase].record(phaseTotal[phase], now);
+        }
+        this.drawCalls = drawCalls;
+        this.triangles = triangles;
+        this.uniformUploads = uniformUploads;
+        this.stateChanges = stateChanges;
+        frameCount++;
+        frameStart = -1;
+
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.inputCamera = phaseTotal[INPUT_CAMERA];
+            event.simulation = phaseTotal[SIMULATION];
+            event.batching = phaseTotal[BATCHING];
+            event.entityRender = phaseTotal[ENTITY_RENDER];
+            event.terrainRender = phaseTotal[TERRAIN_RENDER];
+            event.swapSync = phaseTotal[SWAP_SYNC];
+            event.drawCalls = drawCalls;
+            event.triangles = triangles;
+            event.uniformUploads = uniformUploads;
+            event.stateChanges = stateChanges;
+            event.commit();
+        }
+        event = null;
+    }
+
+    /** Time of the last frame's phase, in nanoseconds. */
+    public long getPhaseNanos(int phase) {
+        return phaseTotal[phase];
+    }
+
+    public RollingHistogram getFrameTimes() {
+        return frameTimes;
+    }
+
+    public RollingHistogram getPhaseTimes(int phase) {
+        return phaseTimes[phase];
+    }
+
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    @Override
+    public double getFrameTimeP50() {
+        return frameTimes.getPercentile(0.5) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getFrameTimeP99() {
+        return frameTimes.getPercentile(0.99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getFrameTimeMax() {
+        return frameTimes.getMax() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseTimeP50() {
+        return phasePercentiles(0.5);
+    }
+
+    @Override
+    public Map<String, Double> getPhaseTimeP99() {
+        return phasePercentiles(0.99);
+    }
+
+    @Override
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    @Override
+    public int getTriangles() {
+        return triangles;
+    }
+
+    @Override
+    public int getUniformUploads() {
+        return uniformUploads;
+    }
+
+    @Override
+    public int getStateChanges() {
+        return stateChanges;
+    }
+
+    private Map<String, Double> phasePercentiles(double fraction) {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        for (int phase = 0; phase < PHASES; phase++) {
+            percentiles.put(PHASE_NAMES[phase], phaseTimes[phase].getPercentile(fraction) / NANOS_PER_MILLI);
+        }
+        return percentiles;
+    }
+}
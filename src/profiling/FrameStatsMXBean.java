@@ -0,0 +1,30 @@
+package profiling;
+
+import java.util.Map;
+
+/** What FrameProfiler shows over JMX (jconsole, VisualVM, Mission Control) under "gameEngine:type=FrameProfiler".
+ *  Times are in milliseconds over the last few seconds; counts are those of the last frame. */
+public interface FrameStatsMXBean {
+
+    double getFrameTimeP50();
+
+    double getFrameTimeP99();
+
+    double getFrameTimeMax();
+
+    /** p50 of each phase, by name. */
+    Map<String, Double> getPhaseTimeP50();
+
+    /** p99 of each phase, by name. */
+    Map<String, Double> getPhaseTimeP99();
+
+    long getFrameCount();
+
+    int getDrawCalls();
+
+    int getTriangles();
+
+    int getUniformUploads();
+
+    int getStateChanges();
+}
@@ -0,0 +1,129 @@
+package profiling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Counts durations (in nanoseconds) in buckets whose width grows with the value, the way HdrHistogram does:
+ *  below 2 * SUB_BUCKETS every value has its own bucket, above that each power of two is split into SUB_BUCKETS
+ *  buckets. Every value is then known to within 1 / SUB_BUCKETS (about 1.6%), from nanoseconds up to minutes,
+ *  with a couple of thousand counters and no allocation while recording.
+ *
+ *  Only the last few seconds matter when watching a running game, so the counts are kept in a ring of windows:
+ *  recording goes into the newest one, and once it is windowNanos old the oldest is cleared and takes its place.
+ *  Percentiles are read over all windows.
+ *
+ *  One thread records (the game loop), any other may read at the same time (e.g. JMX) without locking. A reader
+ *  can see a window half way through being cleared, which only makes that read slightly off.
+ */
+public class RollingHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final long MAX_VALUE = (1L << 40) - 1;       // About 18 minutes, longer is counted as that.
+    private static final int BUCKETS = bucketOf(MAX_VALUE) + 1;
+
+    private final int windowCount;
+    private final long windowNanos;
+    private final AtomicLongArray counts;               // BUCKETS per window.
+    private final AtomicLong[] maxima;
+    private int window;
+    private long windowStart = -1;
+
+    public RollingHistogram(int windowCount, long windowNanos) {
+        this.windowCount = windowCount;
+        this.windowNanos = windowNanos;
+        this.counts = new AtomicLongArray(windowCount * BUCKETS);
+        this.maxima = new AtomicLong[windowCount];
+        for (int i = 0; i < windowCount; i++) {
+            maxima[i] = new AtomicLong();
+        }
+    }
+
+    /** Counts a value; now (System.nanoTime()) decides which window it goes in. */
+    public void record(long value, long now) {
+        if (windowStart < 0) {
+            windowStart = now;
+        }
+        if (now - windowStart >= windowNanos * windowCount) {
+            for (int i = 0; i < windowCount; i++) {     // Nothing recorded for a whole ring, start over.
+                clear(i);
+            }
+            windowStart = now;
+        }
+        while (now - windowStart >= windowNanos) {
+            window = (window + 1) % windowCount;
+            windowStart += windowNanos;
+            clear(window);
+        }
+        value = Math.min(Math.max(value, 0), MAX_VALUE);
+        counts.incrementAndGet(window * BUCKETS + bucketOf(value));
+        AtomicLong max = maxima[window];
+        if (value > max.get()) {
+            max.set(value);
+        }
+    }
+
+    /** The value that fraction (0 to 1) of the recorded values are at or below, to the histogram's precision. */
+    public long getPercentile(double fraction) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += bucketCount(bucket);
+            if (seen >= wanted) {
+                return Math.min(highestValueOf(bucket), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public long getMax() {
+        long max = 0;
+        for (AtomicLong windowMax : maxima) {
+            max = Math.max(max, windowMax.get());
+        }
+        return max;
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            total += bucketCount(bucket);
+        }
+        return total;
+    }
+
+    private long bucketCount(int bucket) {
+        long count = 0;
+        for (int i = 0; i < windowCount; i++) {
+            count += counts.get(i * BUCKETS + bucket);
+        }
+        return count;
+    }
+
+    private void clear(int window) {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(window * BUCKETS + bucket, 0);
+        }
+        maxima[window].set(0);
+    }
+
+    /** Values below 2 * SUB_BUCKETS are their own bucket. Above, shifting right until the value has
+     *  SUB_BUCKET_BITS + 1 bits leaves a number from SUB_BUCKETS to 2 * SUB_BUCKETS - 1; every extra shift moves
+     *  on by SUB_BUCKETS buckets. */
+    static int bucketOf(long value) {
+        int bits = Long.SIZE - Long.numberOfLeadingZeros(value);
+        int shift = Math.max(0, bits - SUB_BUCKET_BITS - 1);
+        return (int) (value >>> shift) + shift * SUB_BUCKETS;
+    }
+
+    /** The largest value that goes into the bucket. */
+    static long highestValueOf(int bucket) {
+        int shift = Math.max(0, bucket / SUB_BUCKETS - 1);
+        long mantissa = bucket - (long) shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,170 @@
+package renderEngine;
+
+import models.RawModel;
+import objConverter.BinaryMesh;
+import objConverter.MeshCache;
+import terrains.Terrain;
+import textures.TerrainTexture;
+import textures.TerrainTexturePack;
+import textures.TextureData;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/** Loads assets in two stages so that startup takes about as long as the slowest asset instead of all of them
+ *  added up: the CPU work (reading files, decoding PNGs, parsing OBJs, building terrain meshes) runs on a pool
+ *  of worker threads, and the results are queued for the OpenGL thread, which only does the Loader uploads.
+ *
+ *  Textures and models go through the Loader's shared cache: asking for one that is already loaded, or already
+ *  on its way, doesn't read it again but gets another reference to the same one.
+ *
+ *  Every load returns a future right away. The uploads only happen while the OpenGL thread is inside one of
+ *  processUploads(), await() or finishAll(), so never join() a future there before it's done: use await().
+ */
+public class AssetPipeline {
+
+    private final Loader loader;
+    private final ExecutorService workers;
+    private final LinkedBlockingQueue<Runnable> uploads = new LinkedBlockingQueue<>();
+    private final AtomicInteger unfinished = new AtomicInteger();       // Loads not uploaded yet.
+    private final Map<String, CompletableFuture<?>> inFlight = new HashMap<>();    // Only used on the GL thread.
+
+    public AssetPipeline(Loader loader, int workerThreads) {
+        this.loader = loader;
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "asset-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** An .obj from res/, through the MeshCache, like Loader.loadModel(String, VertexFormat). */
+    public CompletableFuture<RawModel> loadModel(String objFileName, VertexFormat format) {
+        return loadModel(objFileName, MeshCache.MODEL_VARIANT, format, () -> MeshCache.loadOBJ(objFileName));
+    }
+
+    /** Like Loader.loadSimplifiedModel(), the simplifying (on a miss of the MeshCache) done on a worker. */
+    public CompletableFuture<RawModel> loadSimplifiedModel(String objFileName, VertexFormat format, float ratio) {
+        return loadModel(objFileName, MeshCache.lodVariant(MeshCache.MODEL_VARIANT, ratio), format,
+                () -> MeshCache.loadSimplifiedOBJ(objFileName, ratio));
+    }
+
+    /** Like Loader.loadModel(name, variant, format, source), with source called on a worker. */
+    public CompletableFuture<RawModel> loadModel(String name, String variant, VertexFormat format,
+                                                 Supplier<BinaryMesh> source) {
+        if (loader.isModelLoaded(name, variant, format)) {
+            return CompletableFuture.completedFuture(loader.loadModel(name, variant, format, source));
+        }
+        return loadShared("model:" + name + "." + variant + "/" + format.getName(),
+                () -> load(source, mesh -> loader.loadModel(name, variant, format, () -> mesh)),
+                () -> loader.loadModel(name, variant, format, source));
+    }
+
+    /** A .png from res/, like Loader.loadTexture(String). */
+    public CompletableFuture<Integer> loadTexture(String fileName) {
+        if (loader.isTextureLoaded(fileName)) {
+            return CompletableFuture.completedFuture(loader.loadTexture(fileName));
+        }
+        return loadShared("texture:" + fileName,
+                () -> load(() -> TextureData.decodePNG(fileName), data -> loader.loadTexture(fileName, () -> data)),
+                () -> loader.loadTexture(fileName));
+    }
+
+    public CompletableFuture<Terrain> loadTerrain(int gridX, int gridZ, TerrainTexturePack texturePack,
+                                                  TerrainTexture blendMap, String heightMap) {
+        return load(() -> new Terrain(gridX, gridZ, texturePack, blendMap, heightMap), terrain -> {
+            terrain.upload(loader);
+            return terrain;
+        });
+    }
+
+    /** Runs work on a worker thread, then upload with its result on the OpenGL thread. */
+    public <T, R> CompletableFuture<R> load(Supplier<T> work, Function<T, R> upload) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        unfinished.incrementAndGet();
+        CompletableFuture.supplyAsync(work, workers).whenComplete((data, error) -> uploads.add(() -> {
+            try {
+                if (error != null) {
+                    result.completeExceptionally(error.getCause() != null ? error.getCause() : error);
+                } else {
+                    result.complete(upload.apply(data));
+                }
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            } finally {
+                unfinished.decrementAndGet();
+            }
+        }));
+        return result;
+    }
+
+    /** Call on the OpenGL thread: runs queued uploads until the budget is used up (at least one, if any). */
+    public void processUploads(long budgetNanos) {
+        long start = System.nanoTime();
+        Runnable upload;
+        while ((upload = uploads.poll()) != null) {
+            upload.run();
+            if (System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+        }
+    }
+
+    /** Call on the OpenGL thread: runs uploads (of anything) until the given load is done, then returns it. */
+    public <T> T await(CompletableFuture<T> future) {
+        while (!future.isDone()) {
+            runNextUpload();
+        }
+        return future.join();
+    }
+
+    /** Call on the OpenGL thread: blocks until everything requested so far is uploaded. */
+    public void finishAll() {
+        while (unfinished.get() > 0) {
+            runNextUpload();
+        }
+    }
+
+    public int getUnfinishedLoads() {
+        return unfinished.get();
+    }
+
+    public void cleanUp() {
+        workers.shutdownNow();
+    }
+
+    private void runNextUpload() {
+        try {
+            Runnable upload = uploads.poll(10, TimeUnit.MILLISECONDS);
+            if (upload != null) {
+                upload.run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for assets", e);
+        }
+    }
+
+    /** Starts a load, unless the same asset is already on its way: then the new request waits for that one and
+     *  takes its own reference (a cache hit) once it's uploaded. */
+    @SuppressWarnings("unchecked")
+    private <R> CompletableFuture<R> loadShared(String key, Supplier<CompletableFuture<R>> start,
+                                                Supplier<R> reuse) {
+        CompletableFuture<R> first = (CompletableFuture<R>) inFlight.get(key);
+        if (first != null) {
+            return first.thenApply(loaded -> reuse.get());
+        }
+        CompletableFuture<R> future = start.get();
+        inFlight.put(key, future);
+        future.whenComplete((loaded, error) -> inFlight.remove(key));      // Completes on the GL thread.
+        return future;
+    }
+}
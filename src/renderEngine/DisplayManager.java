@@ -1,7 +1,6 @@
 package renderEngine;
 
 import org.lwjgl.LWJGLException;
-import org.lwjgl.Sys;
 import org.lwjgl.opengl.*;
 
 public class DisplayManager {
@@ -9,7 +8,7 @@ public class DisplayManager {
     private static final int HEIGHT = 720;
     private static final int FPS_CAP = 120;
 
-    private static long lastFrameTime;
+    private static long lastFrameTime;      // System.nanoTime()
     private static float delta;
 
     public static void createDisplay() {
@@ -27,14 +26,14 @@ public class DisplayManager {
         }
 
         GL11.glViewport(0,0, WIDTH, HEIGHT);
-        lastFrameTime = getCurrentTime();
+        lastFrameTime = System.nanoTime();
     }
 
     public static void updateDisplay() {
         Display.sync(FPS_CAP);
         Display.update();
-        long currentFrameTime = getCurrentTime();
-        delta = (currentFrameTime - lastFrameTime)/1000f;
+        long currentFrameTime = System.nanoTime();
+        delta = (currentFrameTime - lastFrameTime) / 1e9f;
         lastFrameTime = currentFrameTime;
     }
 
@@ -43,9 +42,11 @@ public class DisplayManager {
     }
 
     public static long getCurrentTime() {
-        return Sys.getTime() * 1000 / Sys.getTimerResolution(); // returns time in milliseconds.
+        return System.nanoTime() / 1000000; // returns time in milliseconds.
     }
 
+    /** Length of the last frame. Only for things that really depend on the frame rate; the game logic is
+     *  simulated in fixed steps (see toolbox.FixedTimestep). */
     public static float getFrameTimeSeconds() {
         return delta;
     }
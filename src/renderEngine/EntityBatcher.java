@@ -0,0 +1,262 @@
+package renderEngine;
+
+import entities.Camera;
+import entities.Entity;
+import entities.Scene;
+import models.RawModel;
+import models.TexturedModel;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import textures.ModelTexture;
+import toolbox.Frustum;
+import toolbox.Maths;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Everything the renderer does for the entities of a frame before OpenGL gets involved: frustum culling
+ *  (processEntity and processScene), picking each entity's LOD, queueing and sorting the draws, and packing the
+ *  instance data of the sorted queue. The EntityRenderer then only uploads and draws what ends up here.
+ *
+ *  None of this needs a Display or an OpenGL context, so it can be measured (and tested) on its own; the
+ *  MasterRenderer owns one and hands it to its EntityRenderer.
+ */
+public class EntityBatcher {
+
+    private final int program;          // Of the StaticShader, part of the sort key.
+    private final float verticalScale;  // Projection matrix m11: a height h at distance d covers h * m11 / d / 2.
+    private final Matrix4f projectionMatrix;
+    private Matrix4f viewMatrix = new Matrix4f();
+    private Matrix4f nextViewMatrix = new Matrix4f();   // Swapped with viewMatrix every frame, see updateFrustum.
+    private final Frustum frustum = new Frustum();
+    private final Vector3f cameraPosition = new Vector3f();
+    private boolean cameraMoved = true;
+
+    private final RenderQueue queue;
+    private boolean queueChanged;       // Needs sorting and packing again.
+    private boolean instancesChanged;   // instanceData needs uploading again.
+
+    /** The instance data of every queued entity, in the sorted order, so each batch is a range of it. */
+    private float[] instanceData;
+
+    private final List<Entity> visibleEntities = new ArrayList<>();
+    private final List<Entity> immediateEntities = new ArrayList<>();   // From processEntity(), for this frame only.
+    private Scene queuedScene;          // Whose entities the queue holds, as of queuedVersion.
+    private int queuedVersion;
+    private boolean sceneRequeued;
+    private int sceneTested, sceneCulled;
+    private int entitiesTested, entitiesCulled;
+
+    public EntityBatcher(Matrix4f projectionMatrix, float farPlane, int program, int initialInstances) {
+        this.projectionMatrix = projectionMatrix;
+        this.verticalScale = projectionMatrix.m11;
+        this.program = program;
+        this.queue = new RenderQueue(farPlane);
+        this.instanceData = new float[initialInstances * InstanceDataPacker.INSTANCE_DATA_LENGTH];
+    }
+
+    /** Must be called once per frame, after the camera has moved and before anything is processed, so that
+     *  processEntity and processScene can throw away whatever is outside of the view frustum. This also resets
+     *  the culling counters, and works out the view matrix for the frame. */
+    public void updateFrustum(Camera camera) {
+        Maths.createViewMatrix(camera, nextViewMatrix);
+        cameraMoved = !sameMatrix(viewMatrix, nextViewMatrix);
+        Matrix4f previousViewMatrix = viewMatrix;
+        viewMatrix = nextViewMatrix;
+        nextViewMatrix = previousViewMatrix;
+        frustum.update(projectionMatrix, viewMatrix);
+        cameraPosition.set(camera.getPosition());
+        entitiesTested = 0;
+        entitiesCulled = 0;
+    }
+
+    /** Draws the entity in this frame only. Entities that stay around belong in a Scene. */
+    public void processEntity(Entity entity) {
+        entitiesTested++;
+        if (!isVisible(entity)) {
+            entitiesCulled++;
+            return;
+        }
+        immediateEntities.add(entity);
+    }
+
+    /** Brings the queue up to date with the scene. The queue (and the instance data uploaded for it) is kept
+     *  from frame to frame, so:
+     *      - nothing changed and the camera didn't move: nothing to do at all.
+     *      - only some entities changed: their instance data is rewritten in place, as long as they stay in
+     *        (or out of) view and keep their model and LOD.
+     *      - anything else: the visible entities are found in the octree (whole nodes are accepted or rejected
+     *        at once) and queued again.
+     */
+    public void processScene(Scene scene) {
+        List<Entity> changed = scene.update();
+        sceneRequeued = cameraMoved || scene != queuedScene || scene.getVersion() != queuedVersion;
+        for (int i = 0; i < changed.size() && !sceneRequeued; i++) {
+            Entity entity = changed.get(i);
+            sceneRequeued = !updateSubmission(entity, isVisible(entity));
+        }
+        if (sceneRequeued) {
+            clearSubmissions();
+            visibleEntities.clear();
+            scene.getOctree().queryFrustum(frustum, visibleEntities);
+            for (Entity entity : visibleEntities) {
+                submit(entity);
+            }
+            queuedScene = scene;
+            queuedVersion = scene.getVersion();
+            sceneTested = scene.size();
+            sceneCulled = scene.size() - visibleEntities.size();
+        }
+        entitiesTested += sceneTested;
+        entitiesCulled += sceneCulled;
+    }
+
+    /** Whether the last processScene() had to queue the visible entities again. */
+    public boolean isSceneRequeued() {
+        return sceneRequeued;
+    }
+
+    /** Queues the entities of processEntity(), then sorts and packs the queue if it changed since last time.
+     *  Called by the EntityRenderer right before it draws. */
+    public void prepareBatches() {
+        for (int i = 0; i < immediateEntities.size(); i++) {
+            submit(immediateEntities.get(i));
+        }
+        if (queueChanged) {
+            queue.sort();
+            packInstances();
+            queueChanged = false;
+        }
+    }
+
+    /** Called once the frame is drawn. */
+    public void endFrame() {
+        if (!immediateEntities.isEmpty()) {
+            // They were only for this frame, so the scene has to be queued again without them.
+            immediateEntities.clear();
+            clearSubmissions();
+            queuedScene = null;
+        }
+    }
+
+    /** Queues an entity. It stays queued until clearSubmissions(). */
+    public void submit(Entity entity) {
+        TexturedModel model = entity.getModel();
+        float distance = distance(entity);
+        ModelTexture texture = model.getTexture();
+        int pass = texture.isHasTransparency() ? RenderQueue.PASS_TRANSPARENT : RenderQueue.PASS_OPAQUE;
+        queue.submit(entity, selectMesh(entity, distance), pass, program, texture.getTextureID(), distance);
+        queueChanged = true;
+    }
+
+    public void clearSubmissions() {
+        for (Entity entity : queue.getSortedEntities()) {
+            entity.setRenderSlot(-1);
+        }
+        queue.clear();
+        queueChanged = true;
+    }
+
+    /** Brings a queued entity that changed up to date by rewriting its instance data in place. Returns false if
+     *  that isn't enough, because it went in or out of view, or needs another model or LOD, in which case the
+     *  queue has to be built again. */
+    public boolean updateSubmission(Entity entity, boolean visible) {
+        int slot = entity.getRenderSlot();
+        if (slot < 0) {
+            return !visible;
+        }
+        if (!visible || entity.getModel() != queue.getModel(slot)
+                || selectMesh(entity, distance(entity)) != queue.getMesh(slot)) {
+            return false;
+        }
+        InstanceDataPacker.storeInstance(entity, instanceData, slot * InstanceDataPacker.INSTANCE_DATA_LENGTH);
+        instancesChanged = true;
+        return true;
+    }
+
+    public RenderQueue getQueue() {
+        return queue;
+    }
+
+    /** INSTANCE_DATA_LENGTH floats per queued entity, in the queue's sorted order (see prepareBatches()). */
+    public float[] getInstanceData() {
+        return instanceData;
+    }
+
+    /** Whether the instance data changed since setInstancesUploaded(). */
+    public boolean isInstancesChanged() {
+        return instancesChanged;
+    }
+
+    public void setInstancesUploaded() {
+        instancesChanged = false;
+    }
+
+    public Frustum getFrustum() {
+        return frustum;
+    }
+
+    public Matrix4f getViewMatrix() {
+        return viewMatrix;
+    }
+
+    public Vector3f getCameraPosition() {
+        return cameraPosition;
+    }
+
+    public int getEntitiesTested() {
+        return entitiesTested;
+    }
+
+    public int getEntitiesCulled() {
+        return entitiesCulled;
+    }
+
+    private boolean isVisible(Entity entity) {
+        float radius = entity.getModel().getBoundingRadius() * entity.getScale();
+        Vector3f position = entity.getPosition();
+        return frustum.sphereInFrustum(position.x, position.y, position.z, radius);
+    }
+
+    private float distance(Entity entity) {
+        Vector3f position = entity.getPosition();
+        float dx = position.x - cameraPosition.x;
+        float dy = position.y - cameraPosition.y;
+        float dz = position.z - cameraPosition.z;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /** Models with several levels of detail pick the LOD the entity needs from the fraction of the screen height
+     *  its bounding sphere covers, remembering the choice in the entity for the hysteresis next time. */
+    private RawModel selectMesh(Entity entity, float distance) {
+        TexturedModel model = entity.getModel();
+        if (model.getLodCount() == 1) {
+            return model.getRawModel();
+        }
+        float radius = model.getBoundingRadius() * entity.getScale();
+        float screenSize = distance > radius ? radius * verticalScale / distance : Float.MAX_VALUE;
+        int lod = model.selectLod(screenSize, entity.getLod());
+        entity.setLod(lod);
+        return model.getRawModel(lod);
+    }
+
+    private void packInstances() {
+        List<Entity> sorted = queue.getSortedEntities();
+        int length = InstanceDataPacker.INSTANCE_DATA_LENGTH;
+        if (sorted.size() * length > instanceData.length) {
+            instanceData = new float[Math.max(sorted.size(), instanceData.length / length * 2) * length];
+        }
+        for (int i = 0; i < sorted.size(); i++) {
+            InstanceDataPacker.storeInstance(sorted.get(i), instanceData, i * length);
+            sorted.get(i).setRenderSlot(i);
+        }
+        instancesChanged = true;
+    }
+
+    private static boolean sameMatrix(Matrix4f a, Matrix4f b) {
+        return a.m00 == b.m00 && a.m01 == b.m01 && a.m02 == b.m02 && a.m03 == b.m03
+                && a.m10 == b.m10 && a.m11 == b.m11 && a.m12 == b.m12 && a.m13 == b.m13
+                && a.m20 == b.m20 && a.m21 == b.m21 && a.m22 == b.m22 && a.m23 == b.m23
+                && a.m30 == b.m30 && a.m31 == b.m31 && a.m32 == b.m32 && a.m33 == b.m33;
+    }
+}
@@ -3,71 +3,201 @@ package renderEngine;
 import entities.Entity;
 import models.RawModel;
 import models.TexturedModel;
+import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.*;
-import org.lwjgl.util.vector.Matrix4f;
 import shaders.StaticShader;
 import textures.ModelTexture;
-import toolbox.Maths;
 
+import java.nio.FloatBuffer;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class EntityRenderer {
 
+    static final int INITIAL_INSTANCES = 10000;     // For the EntityBatcher; the instance VBO grows with it.
+
+    /** Attribute lists 3-6 hold the columns of the instance matrix and 7 the atlas offset (see vertexShader). */
+    private static final int FIRST_INSTANCE_ATTRIBUTE = 3;
+    private static final int OFFSET_ATTRIBUTE = 7;
+
+    /** Attribute masks for RenderState.setEnabledAttributes(): lists 0-2 (positions, textures and normals) for
+     *  every model, plus the instance attributes for instanced draws. */
+    static final int MODEL_ATTRIBUTES = 0b111;
+    private static final int INSTANCED_ATTRIBUTES = MODEL_ATTRIBUTES
+            | ((1 << (OFFSET_ATTRIBUTE + 1)) - (1 << FIRST_INSTANCE_ATTRIBUTE));
+
     private StaticShader shader;
+    private RenderState state;
+
+    private Loader loader;
+    private EntityBatcher batcher;
+    private boolean instancingEnabled = true;
+
+    /** The VBO holds the batcher's instance data, so each batch is a range of it. It stays there until the data
+     *  changes; instanceAttributes remembers which range each model's VAO points at. */
+    private int instanceCapacity;
+    private FloatBuffer instanceBuffer;
+    private int instanceVbo;
+    private Map<RawModel, int[]> instanceAttributes = new IdentityHashMap<>();    // {VBO, first instance}.
+
+    private int trianglesDrawn;
+    private int batchesDrawn;
+    private int drawCalls;
 
-    public EntityRenderer(StaticShader shader, Matrix4f projectionMatrix) {
+    /** Draws what the batcher culled, queued and packed. */
+    public EntityRenderer(StaticShader shader, RenderState state, EntityBatcher batcher, Loader loader) {
         this.shader = shader;
-        shader.start();
-        shader.loadProjectionMatrix(projectionMatrix);
-        shader.stop();
+        this.state = state;
+        this.loader = loader;
+        this.batcher = batcher;
+        int length = batcher.getInstanceData().length;
+        this.instanceCapacity = length / InstanceDataPacker.INSTANCE_DATA_LENGTH;
+        this.instanceBuffer = BufferUtils.createFloatBuffer(length);
+        this.instanceVbo = loader.createEmptyVbo(length);
     }
 
-    /** This render method becomes more efficient by loading textures for each type of entity once, by
-     * sorting entities in a HashMap by ModelTexture.
+    /** Draws the batcher's queue: opaque models first, then the transparent ones, grouped by texture and mesh
+     *  (so each texture is bound and each model prepared once per pass) and nearest first within each batch.
+     * With instancing enabled, each batch is drawn with one glDrawElementsInstanced call instead of one
+     * glDrawElements and two uniform uploads per entity. The queue is only sorted and packed again after it
+     * changed, and the instance data only uploaded again after that or an EntityBatcher.updateSubmission().
      */
-    public void render(Map<TexturedModel, List<Entity>> entities) {
-        for(TexturedModel model:entities.keySet()) {
+    public void render() {
+        trianglesDrawn = 0;
+        batchesDrawn = 0;
+        drawCalls = 0;
+        batcher.prepareBatches();
+        if (instancingEnabled && batcher.isInstancesChanged()) {
+            uploadInstances();
+        }
+        RenderQueue queue = batcher.getQueue();
+        List<Entity> sorted = queue.getSortedEntities();
+        int start = 0;
+        while (start < sorted.size()) {
+            TexturedModel model = queue.getModel(start);
+            RawModel rawModel = queue.getMesh(start);
+            int end = start + 1;
+            while (end < sorted.size() && queue.getModel(end) == model && queue.getMesh(end) == rawModel) {
+                end++;
+            }
             prepareTexturedModel(model);
-            List<Entity> batch = entities.get(model);
-            for(Entity entity:batch){
-                prepareInstance(entity);
-                GL11.glDrawElements(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(),
-                        GL11.GL_UNSIGNED_INT, 0);
+            renderBatch(rawModel, sorted, start, end - start);
+            start = end;
+        }
+    }
+
+    /** Triangles drawn by the last render(), which is what the LODs are there to bring down. */
+    public int getTrianglesDrawn() {
+        return trianglesDrawn;
+    }
+
+    /** Runs of the same model and mesh the last render() drew (each one instanced draw, if enabled). */
+    public int getBatchesDrawn() {
+        return batchesDrawn;
+    }
+
+    /** glDraw* calls made by the last render(): one per batch when instancing, otherwise one per entity. */
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    public boolean isInstancingEnabled() {
+        return instancingEnabled;
+    }
+
+    public void setInstancingEnabled(boolean instancingEnabled) {
+        this.instancingEnabled = instancingEnabled;
+    }
+
+    private void uploadInstances() {
+        float[] instanceData = batcher.getInstanceData();
+        int instanceCount = batcher.getQueue().size();
+        if (instanceCount > instanceCapacity) {
+            // A bigger VBO; every VAO gets pointed at it again when it's next drawn. What they pointed at is
+            // forgotten rather than compared, since the new VBO may well get the ID the deleted one had.
+            instanceCapacity = instanceData.length / InstanceDataPacker.INSTANCE_DATA_LENGTH;
+            loader.deleteVbo(instanceVbo);
+            instanceVbo = loader.createEmptyVbo(instanceData.length);
+            instanceAttributes.clear();
+            instanceBuffer = BufferUtils.createFloatBuffer(instanceData.length);
+        }
+        loader.updateVbo(instanceVbo, instanceData, instanceCount * InstanceDataPacker.INSTANCE_DATA_LENGTH,
+                instanceBuffer);
+        batcher.setInstancesUploaded();
+    }
+
+    /** Draws entities[start, start + count) with the mesh. */
+    private void renderBatch(RawModel rawModel, List<Entity> entities, int start, int count) {
+        bindRawModel(rawModel);
+        if (instancingEnabled) {
+            pointInstanceAttributes(rawModel, start);
+            state.setEnabledAttributes(INSTANCED_ATTRIBUTES);
+            shader.loadUseInstancing(true);
+            GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES, rawModel.getVertexCount(),
+                    rawModel.getIndexType(), 0, count);
+            shader.loadUseInstancing(false);
+            drawCalls++;
+        } else {
+            for (int i = start; i < start + count; i++) {
+                prepareInstance(entities.get(i));
+                GL11.glDrawElements(GL11.GL_TRIANGLES, rawModel.getVertexCount(), rawModel.getIndexType(), 0);
             }
-            unbindTexturedModel();
+            drawCalls += count;
+        }
+        trianglesDrawn += rawModel.getVertexCount() / 3 * count;
+        batchesDrawn++;
+    }
+
+    /** Points the instance attribute lists of the bound VAO at the batch's range of the instance VBO (GL 3.2
+     *  has no base instance for the draw call to do it). The pointers are part of the VAO, so this only happens
+     *  when the range moved. */
+    private void pointInstanceAttributes(RawModel rawModel, int firstInstance) {
+        int[] pointedAt = instanceAttributes.get(rawModel);
+        if (pointedAt == null) {
+            pointedAt = new int[] {0, -1};
+            instanceAttributes.put(rawModel, pointedAt);
+        }
+        if (pointedAt[0] == instanceVbo && pointedAt[1] == firstInstance) {
+            return;
+        }
+        pointedAt[0] = instanceVbo;
+        pointedAt[1] = firstInstance;
+        int stride = InstanceDataPacker.INSTANCE_DATA_LENGTH * 4;
+        long base = (long) firstInstance * stride;
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, instanceVbo);
+        for (int column = 0; column < 4; column++) {
+            GL20.glVertexAttribPointer(FIRST_INSTANCE_ATTRIBUTE + column, 4, GL11.GL_FLOAT, false, stride,
+                    base + column * 4 * 4);
+            GL33.glVertexAttribDivisor(FIRST_INSTANCE_ATTRIBUTE + column, 1);
         }
+        GL20.glVertexAttribPointer(OFFSET_ATTRIBUTE, InstanceDataPacker.OFFSET_LENGTH, GL11.GL_FLOAT, false,
+                stride, base + InstanceDataPacker.MATRIX_LENGTH * 4);
+        GL33.glVertexAttribDivisor(OFFSET_ATTRIBUTE, 1);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
     }
 
     private void prepareTexturedModel(TexturedModel model) {
-        RawModel rawModel = model.getRawModel();
-        GL30.glBindVertexArray(rawModel.getVaoID());      // We bind ("activate") the VAO of the model
-        GL20.glEnableVertexAttribArray(0);      // We activate the Attribute List 0 of the VAO
-        GL20.glEnableVertexAttribArray(1);      // Now we activate Attrib List 1 of the VAO for textures
-        GL20.glEnableVertexAttribArray(2);      // Activate Attrib List 2 of the VAO for normals.
         ModelTexture texture = model.getTexture();
         shader.loadNumberofRows(model.getTexture().getNumberOfRows());
-        if (texture.isHasTransparency()) {
-            MasterRenderer.disableCulling();
-        }
+        state.setCulling(!texture.isHasTransparency());     // Transparent models can be seen from behind.
         shader.loadFakeLightingVariable(texture.isUseFakeLighting());
         shader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
-        GL13.glActiveTexture(GL13.GL_TEXTURE0);       // Texture bank 0, default for textureSampler2D. (sampler2D has to do with textures, see fragmentShader).
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, model.getTexture().getTextureID());
+        state.bindTexture(0, texture.getTextureID());       // Texture bank 0, default for textureSampler2D. (sampler2D has to do with textures, see fragmentShader).
     }
 
-    private void unbindTexturedModel() {
-        MasterRenderer.enableCulling();
-        GL20.glDisableVertexAttribArray(0);
-        GL20.glDisableVertexAttribArray(1);
-        GL20.glDisableVertexAttribArray(2);
-        GL30.glBindVertexArray(0);                  //Deactivate VAO, after deactivating both attrib lists.
+    /** Every LOD of a model has its own VAO (which also keeps its own enabled attribute lists, so once they are
+     *  enabled the RenderState leaves them alone, and the VAO simply stays bound until another one is needed). */
+    private void bindRawModel(RawModel rawModel) {
+        state.bindVertexArray(rawModel.getVaoID());       // We bind ("activate") the VAO of the model
+        if (!instancingEnabled) {
+            state.setEnabledAttributes(MODEL_ATTRIBUTES);
+        }
+        shader.loadPositionDequantization(rawModel);
     }
 
     private void prepareInstance(Entity entity) { //Transforms Model Space into World Space.
-        Matrix4f transformationMatrix = Maths.createTransformationMatrix(entity.getPosition(),
-                entity.getRx(), entity.getRy(), entity.getRz(), entity.getScale());
-        shader.loadTransformationMatrix(transformationMatrix);
+        shader.loadTransformationMatrix(entity.getTransformationMatrix());
         shader.loadOffset(entity.getTextureXOffset(), entity.getTextureYOffset());
     }
     /**
@@ -86,7 +216,7 @@ public class EntityRenderer {
         shader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
         GL13.glActiveTexture(GL13.GL_TEXTURE0);       // Texture bank 0, default for textureSampler2D. (sampler2D has to do with textures, see fragmentShader).
         GL11.glBindTexture(GL11.GL_TEXTURE_2D, model.getTexture().getTextureID());
-        GL11.glDrawElements(GL11.GL_TRIANGLES, rawModel.getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
+        GL11.glDrawElements(GL11.GL_TRIANGLES, rawModel.getVertexCount(), rawModel.getIndexType(), 0);
         GL20.glDisableVertexAttribArray(0);
         GL20.glDisableVertexAttribArray(1);
         GL20.glDisableVertexAttribArray(2);
@@ -0,0 +1,23 @@
+package renderEngine;
+
+/** The OpenGL calls RenderState makes, behind an interface so that what it sends can be recorded and checked
+ *  without a context (see RecordingBackend in the tests). OpenGLBackend is the one the game uses. */
+public interface GLBackend {
+
+    void useProgram(int program);
+
+    void bindVertexArray(int vao);
+
+    /** unit is the index of the texture unit, without GL_TEXTURE0 added. */
+    void activeTexture(int unit);
+
+    void bindTexture(int texture);
+
+    /** glEnable / glDisable of a capability like GL_CULL_FACE. */
+    void setCapability(int capability, boolean enabled);
+
+    void cullFace(int face);
+
+    /** glEnableVertexAttribArray / glDisableVertexAttribArray on the bound VAO. */
+    void setVertexAttribArray(int attribute, boolean enabled);
+}
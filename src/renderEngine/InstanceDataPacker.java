@@ -0,0 +1,74 @@
+package renderEngine;
+
+import entities.Entity;
+import org.lwjgl.util.vector.Matrix4f;
+
+import java.util.List;
+
+/** Packs a batch of entities into the per-instance layout read by the instanced path of the vertex shader.
+ *  Every instance takes INSTANCE_DATA_LENGTH floats:
+ *      - 16 floats: the transformation matrix, column major (same order as Matrix4f.store), attributes 3-6.
+ *      -  2 floats: the texture atlas offset of the entity, attribute 7.
+ *  The packer does not touch OpenGL at all, it only fills a float array which the EntityRenderer then
+ *  streams into the instance VBO. That way the layout can be checked (and timed) without a display.
+ */
+public class InstanceDataPacker {
+
+    public static final int MATRIX_LENGTH = 16;
+    public static final int OFFSET_LENGTH = 2;
+    public static final int INSTANCE_DATA_LENGTH = MATRIX_LENGTH + OFFSET_LENGTH;
+
+    private final int maxInstances;
+    private final float[] data;
+
+    public InstanceDataPacker(int maxInstances) {
+        this.maxInstances = maxInstances;
+        this.data = new float[maxInstances * INSTANCE_DATA_LENGTH];
+    }
+
+    /** Packs batch[start, start + count) and returns the number of floats written into getData().
+     *  count is clamped to the capacity of the packer, callers render larger batches in several passes. */
+    public int pack(List<Entity> batch, int start, int count) {
+        count = Math.min(count, maxInstances);
+        int pointer = 0;
+        for (int i = start; i < start + count; i++) {
+            pointer = storeInstance(batch.get(i), data, pointer);
+        }
+        return pointer;
+    }
+
+    /** Writes the INSTANCE_DATA_LENGTH floats of one entity into data at pointer, and returns where it ended. */
+    public static int storeInstance(Entity entity, float[] data, int pointer) {
+        if (entity.getStore() != null) {
+            return entity.getStore().copyInstance(entity.getHandle(), data, pointer);     // Already laid out.
+        }
+        Matrix4f matrix = entity.getTransformationMatrix();
+        data[pointer++] = matrix.m00;
+        data[pointer++] = matrix.m01;
+        data[pointer++] = matrix.m02;
+        data[pointer++] = matrix.m03;
+        data[pointer++] = matrix.m10;
+        data[pointer++] = matrix.m11;
+        data[pointer++] = matrix.m12;
+        data[pointer++] = matrix.m13;
+        data[pointer++] = matrix.m20;
+        data[pointer++] = matrix.m21;
+        data[pointer++] = matrix.m22;
+        data[pointer++] = matrix.m23;
+        data[pointer++] = matrix.m30;
+        data[pointer++] = matrix.m31;
+        data[pointer++] = matrix.m32;
+        data[pointer++] = matrix.m33;
+        data[pointer++] = entity.getTextureXOffset();
+        data[pointer++] = entity.getTextureYOffset();
+        return pointer;
+    }
+
+    public float[] getData() {
+        return data;
+    }
+
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+}
@@ -1,28 +1,98 @@
 package renderEngine;
 
 import models.RawModel;
+import objConverter.BinaryMesh;
+import objConverter.MeshCache;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.*;
-import org.newdawn.slick.opengl.Texture;
-import org.newdawn.slick.opengl.TextureLoader;
+import org.lwjgl.util.vector.Vector3f;
+import textures.TextureData;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 public class Loader {
 
     private List<Integer> vaos = new ArrayList<>();
     private List<Integer> vbos = new ArrayList<>();
     private List<Integer> textures = new ArrayList<>();
+    private Map<Integer, List<Integer>> vaoBuffers = new HashMap<>();     // VBOs that belong to each VAO.
+    private List<Integer> currentVaoBuffers;                            // Buffers of the VAO being built.
+    private RenderState renderState;                                    // Told about new VAOs, if set.
+
+    /** Textures and models loaded by name are shared: asking for one that is already loaded returns the same
+     *  texture ID or RawModel and adds a reference to it, and release...() takes one away. The GL objects are
+     *  deleted when the last reference goes (or in cleanUp(), for the ones never released). */
+    private Map<String, CachedAsset> cache = new HashMap<>();
+    private Map<Integer, CachedAsset> cachedTextures = new HashMap<>();     // By texture ID.
+    private Map<Integer, CachedAsset> cachedModels = new HashMap<>();       // By VAO ID.
+    private int cacheHits = 0;
+    private int cacheMisses = 0;
+    private long residentBytes = 0;
+
+    /** Loads an .obj from res/ (through the MeshCache), or shares it if it's already loaded. */
+    public RawModel loadModel(String objFileName) {
+        return loadModel(objFileName, VertexFormat.SEPARATE);
+    }
+
+    public RawModel loadModel(String objFileName, VertexFormat format) {
+        return loadModel(objFileName, MeshCache.MODEL_VARIANT, format, () -> MeshCache.loadOBJ(objFileName));
+    }
+
+    /** A lower detail version of the .obj with about ratio of its triangles, for TexturedModel.addLod(). */
+    public RawModel loadSimplifiedModel(String objFileName, VertexFormat format, float ratio) {
+        return loadModel(objFileName, MeshCache.lodVariant(MeshCache.MODEL_VARIANT, ratio), format,
+                () -> MeshCache.loadSimplifiedOBJ(objFileName, ratio));
+    }
+
+    /** Shares the model if it's already loaded, otherwise uploads the mesh from source. variant tells apart
+     *  versions of the same file made with different load parameters, like MeshCache's variants; the same mesh
+     *  in two vertex formats is two different models. */
+    public RawModel loadModel(String name, String variant, VertexFormat format, Supplier<BinaryMesh> source) {
+        String key = modelKey(name, variant, format);
+        CachedAsset asset = acquire(key);
+        if (asset == null) {
+            BinaryMesh mesh = source.get();
+            RawModel model = loadToVAO(mesh, format);
+            asset = store(key, (long) mesh.getVertexCount() * format.getStride()
+                    + (long) mesh.getIndexCount() * model.getIndexSize());
+            asset.model = model;
+            cachedModels.put(asset.model.getVaoID(), asset);
+        }
+        return asset.model;
+    }
+
+    public boolean isModelLoaded(String name, String variant, VertexFormat format) {
+        return cache.containsKey(modelKey(name, variant, format));
+    }
+
+    /** Drops one reference to a model from loadModel(), and deletes it once nobody uses it. */
+    public void releaseModel(RawModel model) {
+        CachedAsset asset = cachedModels.get(model.getVaoID());
+        if (asset == null || --asset.references > 0) {
+            return;
+        }
+        cachedModels.remove(model.getVaoID());
+        evict(asset);
+        unloadModel(model);
+    }
 
     public RawModel loadToVAO(float[] positions, float[] textureCoords, float[] normals, int[] indices) {
+        return loadToVAO(positions, textureCoords, normals, indices, calculateBoundingRadius(positions));
+    }
+
+    /** Same as above, for meshes that already know their bounds (e.g. ModelData.getFurthestPoint()). */
+    public RawModel loadToVAO(float[] positions, float[] textureCoords, float[] normals, int[] indices,
+                              float boundingRadius) {
         int vaoID = createVAO();
-        bindIndicesBuffer(indices);
+        int indexType = bindIndicesBuffer(indices);
         vaos.add(vaoID);
         // We store vbo containing positions in attrib list 0 of vao.
         storeDataInAttributeList(0, 3,  positions);
@@ -31,27 +101,181 @@ public class Loader {
         // We store vbo containting vertex normals coordinates in attrib list 2 of vao.
         storeDataInAttributeList(2, 3,  normals);
         unbindVAO();
-        return new RawModel(vaoID, indices.length);     // We divide by 3 because each vertex contains 3 coordinates, xyz.
+        return new RawModel(vaoID, indices.length, boundingRadius, indexType);     // We divide by 3 because each vertex contains 3 coordinates, xyz.
+    }
+
+    /** Uploads a mesh straight from its byte buffers (e.g. a memory mapped MeshCache entry), without copying
+     *  it into Java arrays first. */
+    public RawModel loadToVAO(BinaryMesh mesh) {
+        int vaoID = createVAO();
+        int indexType = bindIndicesBuffer(mesh.getIndices());
+        vaos.add(vaoID);
+        storeDataInAttributeList(0, 3, mesh.getPositions());
+        storeDataInAttributeList(1, 2, mesh.getTextureCoords());
+        storeDataInAttributeList(2, 3, mesh.getNormals());
+        unbindVAO();
+        return new RawModel(vaoID, mesh.getIndexCount(), mesh.getFurthestPoint(), indexType);
     }
 
+    /** Uploads a mesh in the given vertex format. */
+    public RawModel loadToVAO(BinaryMesh mesh, VertexFormat format) {
+        if (!format.isInterleaved()) {
+            return loadToVAO(mesh);
+        }
+        int vaoID = createVAO();
+        int indexType = bindIndicesBuffer(mesh.getIndices());
+        vaos.add(vaoID);
+        RawModel model = storeInterleavedData(vaoID, indexType, format, mesh.getPositions().asFloatBuffer(),
+                mesh.getTextureCoords().asFloatBuffer(), mesh.getNormals().asFloatBuffer(), mesh.getVertexCount(),
+                mesh.getBounds(), mesh.getIndexCount(), mesh.getFurthestPoint());
+        unbindVAO();
+        return model;
+    }
+
+    public RawModel loadToVAO(float[] positions, float[] textureCoords, float[] normals, int[] indices,
+                              VertexFormat format) {
+        if (!format.isInterleaved()) {
+            return loadToVAO(positions, textureCoords, normals, indices);
+        }
+        int vaoID = createVAO();
+        int indexType = bindIndicesBuffer(indices);
+        vaos.add(vaoID);
+        RawModel model = storeInterleavedData(vaoID, indexType, format, FloatBuffer.wrap(positions),
+                FloatBuffer.wrap(textureCoords), FloatBuffer.wrap(normals), positions.length / 3,
+                BinaryMesh.calculateBounds(positions), indices.length, calculateBoundingRadius(positions));
+        unbindVAO();
+        return model;
+    }
+
+    /** Creates a VBO with room for floatCount floats that is refilled every frame (e.g. instance data). */
+    public int createEmptyVbo(int floatCount) {
+        int vboID = GL15.glGenBuffers();
+        vbos.add(vboID);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, floatCount * 4, GL15.GL_STREAM_DRAW);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        return vboID;
+    }
+
+    /** Deletes a VBO that doesn't belong to a VAO (like one from createEmptyVbo()) before cleanUp(). */
+    public void deleteVbo(int vbo) {
+        GL15.glDeleteBuffers(vbo);
+        vbos.remove(Integer.valueOf(vbo));
+    }
+
+    /** Points an attribute list of an existing VAO at a per-instance VBO. The divisor of 1 makes the attribute
+     *  advance once per instance instead of once per vertex. Sizes and offsets are in floats. */
+    public void addInstancedAttribute(int vao, int vbo, int attribute, int dataSize, int instancedDataLength,
+                                      int offset) {
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+        GL30.glBindVertexArray(vao);
+        GL20.glVertexAttribPointer(attribute, dataSize, GL11.GL_FLOAT, false, instancedDataLength * 4,
+                offset * 4);
+        GL33.glVertexAttribDivisor(attribute, 1);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        GL30.glBindVertexArray(0);
+    }
+
+    /** Streams the first count floats of data into the VBO. The old storage is orphaned first so the driver
+     *  doesn't have to wait for the previous draw that is still reading from it. */
+    public void updateVbo(int vbo, float[] data, int count, FloatBuffer buffer) {
+        buffer.clear();
+        buffer.put(data, 0, count);
+        buffer.flip();
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer.capacity() * 4, GL15.GL_STREAM_DRAW);
+        GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, buffer);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+    }
+
+    /** Loads a .png from res/, or shares it if it's already loaded. */
     public int loadTexture(String fileName) {
-        Texture texture = null;
-        try {
-            texture = TextureLoader.getTexture("PNG", new FileInputStream("res/" + fileName + ".png"));
-            GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
-            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
-            GL11.glTexParameterf(GL11.GL_TEXTURE_2D, GL14.GL_TEXTURE_LOD_BIAS, -0.5f);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        int textureID = texture.getTextureID();
-        textures.add(textureID);
+        return loadTexture(fileName, () -> TextureData.decodePNG(fileName));
+    }
+
+    /** Shares the texture if it's already loaded, otherwise uploads the pixels from source. */
+    public int loadTexture(String fileName, Supplier<TextureData> source) {
+        String key = textureKey(fileName);
+        CachedAsset asset = acquire(key);
+        if (asset == null) {
+            TextureData data = source.get();
+            // The mipmaps add a third on top of the RGBA base level.
+            asset = store(key, (long) data.getWidth() * data.getHeight() * 4 * 4 / 3);
+            asset.textureID = loadTexture(data);
+            cachedTextures.put(asset.textureID, asset);
+        }
+        return asset.textureID;
+    }
+
+    public boolean isTextureLoaded(String fileName) {
+        return cache.containsKey(textureKey(fileName));
+    }
+
+    /** Drops one reference to a texture from loadTexture(String), and deletes it once nobody uses it. */
+    public void releaseTexture(int textureID) {
+        CachedAsset asset = cachedTextures.get(textureID);
+        if (asset == null || --asset.references > 0) {
+            return;
+        }
+        cachedTextures.remove(textureID);
+        evict(asset);
+        GL11.glDeleteTextures(textureID);
+        textures.remove(Integer.valueOf(textureID));
+    }
+
+    public int getCacheHits() {
+        return cacheHits;
+    }
+
+    public int getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /** Estimated GPU memory of the shared textures and models that are loaded right now. */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public int getCachedAssetCount() {
+        return cache.size();
+    }
 
+    /** Uploads pixels that were already decoded (possibly on another thread) to a new mipmapped texture. */
+    public int loadTexture(TextureData data) {
+        int textureID = GL11.glGenTextures();
+        textures.add(textureID);
+        int format = data.hasAlpha() ? GL11.GL_RGBA : GL11.GL_RGB;
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, data.getWidth(), data.getHeight(), 0, format,
+                GL11.GL_UNSIGNED_BYTE, data.getPixels());
+        GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
+        GL11.glTexParameterf(GL11.GL_TEXTURE_2D, GL14.GL_TEXTURE_LOD_BIAS, -0.5f);
         return textureID;
     }
 
+    /** Deletes the VAO of a model and all of its VBOs right away, instead of waiting for cleanUp(). Used for
+     *  things that come and go while the game runs, like streamed terrain tiles. */
+    public void unloadModel(RawModel model) {
+        int vaoID = model.getVaoID();
+        List<Integer> buffers = vaoBuffers.remove(vaoID);
+        if (buffers != null) {
+            for (int vbo : buffers) {
+                GL15.glDeleteBuffers(vbo);
+                vbos.remove(Integer.valueOf(vbo));
+            }
+        }
+        GL30.glDeleteVertexArrays(vaoID);
+        vaos.remove(Integer.valueOf(vaoID));
+    }
+
+    /** The renderers' RenderState keeps the enabled attribute lists of each VAO, and needs to know when an ID
+     *  belongs to a new one. */
+    public void setRenderState(RenderState renderState) {
+        this.renderState = renderState;
+    }
+
     public void cleanUp() {
         for (int vao : vaos) {
             GL30.glDeleteVertexArrays(vao);
@@ -72,6 +296,11 @@ public class Loader {
          */
         int vaoID = GL30.glGenVertexArrays();   //Creates empty VAO in memory and returns id.
         GL30.glBindVertexArray(vaoID);          //"Activates" VAO by binding it. We specify which by inputting VAO's id.
+        currentVaoBuffers = new ArrayList<>();
+        vaoBuffers.put(vaoID, currentVaoBuffers);
+        if (renderState != null) {
+            renderState.vertexArrayCreated(vaoID);
+        }
         return vaoID;
     }
 
@@ -83,6 +312,7 @@ public class Loader {
          */
         int vboID = GL15.glGenBuffers(); //Creates empty VBO in memory and returns id.
         vbos.add(vboID);
+        currentVaoBuffers.add(vboID);
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
         FloatBuffer buffer = storeDataInFloatBuffer(data);
         GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
@@ -90,6 +320,50 @@ public class Loader {
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
     }
 
+    private void storeDataInAttributeList(int attributeNumber, int coordinateSize, ByteBuffer data) {
+        int vboID = GL15.glGenBuffers();
+        vbos.add(vboID);
+        currentVaoBuffers.add(vboID);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_STATIC_DRAW);
+        GL20.glVertexAttribPointer(attributeNumber, coordinateSize, GL11.GL_FLOAT, false, 0, 0);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+    }
+
+
+    /** Packs all the attributes into one VBO and points attribute lists 0, 1 and 2 into it. */
+    private RawModel storeInterleavedData(int vaoID, int indexType, VertexFormat format, FloatBuffer positions,
+                                          FloatBuffer textureCoords, FloatBuffer normals, int vertexCount,
+                                          float[] bounds, int indexCount, float boundingRadius) {
+        int vboID = GL15.glGenBuffers();
+        vbos.add(vboID);
+        currentVaoBuffers.add(vboID);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+        ByteBuffer buffer = VertexPacker.pack(format, positions, textureCoords, normals, vertexCount, bounds);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+        int stride = format.getStride();
+        if (format.hasQuantizedPositions()) {
+            GL20.glVertexAttribPointer(0, 3, GL11.GL_UNSIGNED_SHORT, true, stride, 0);
+        } else {
+            GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, stride, 0);
+        }
+        if (format.hasHalfFloatTextureCoords()) {
+            GL20.glVertexAttribPointer(1, 2, GL30.GL_HALF_FLOAT, false, stride, format.getTextureCoordsOffset());
+        } else {
+            GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, stride, format.getTextureCoordsOffset());
+        }
+        if (format.hasPackedNormals()) {
+            GL20.glVertexAttribPointer(2, 4, GL33.GL_INT_2_10_10_10_REV, true, stride, format.getNormalOffset());
+        } else {
+            GL20.glVertexAttribPointer(2, 3, GL11.GL_FLOAT, false, stride, format.getNormalOffset());
+        }
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        if (!format.hasQuantizedPositions()) {
+            return new RawModel(vaoID, indexCount, boundingRadius, indexType);
+        }
+        return new RawModel(vaoID, indexCount, boundingRadius, new Vector3f(bounds[0], bounds[1], bounds[2]),
+                new Vector3f(bounds[3] - bounds[0], bounds[4] - bounds[1], bounds[5] - bounds[2]), indexType);
+    }
 
     private FloatBuffer storeDataInFloatBuffer(float[] data) {
         FloatBuffer buffer = BufferUtils.createFloatBuffer(data.length);
@@ -98,12 +372,42 @@ public class Loader {
         return buffer;
     }
 
-    private void bindIndicesBuffer(int[] indices) {
+    /** Uploads the indices as unsigned shorts when they all fit (which halves the index buffer of every model
+     *  with up to 65536 vertices, and of terrain chunks, whose indices are local to the chunk), otherwise as
+     *  unsigned ints. Returns the type the draw calls have to use. */
+    private int bindIndicesBuffer(int[] indices) {
         int vboID = GL15.glGenBuffers();
         vbos.add(vboID);
+        currentVaoBuffers.add(vboID);
         GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboID);
         IntBuffer buffer = storeDataInIntBuffer(indices);
-        GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+        return storeIndices(buffer);
+    }
+
+    private int bindIndicesBuffer(ByteBuffer indices) {
+        int vboID = GL15.glGenBuffers();
+        vbos.add(vboID);
+        currentVaoBuffers.add(vboID);
+        GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboID);
+        return storeIndices(indices.asIntBuffer());
+    }
+
+    private int storeIndices(IntBuffer indices) {
+        int maxIndex = 0;
+        for (int i = indices.position(); i < indices.limit(); i++) {
+            maxIndex = Math.max(maxIndex, indices.get(i));
+        }
+        if (maxIndex > 0xFFFF) {
+            GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+            return GL11.GL_UNSIGNED_INT;
+        }
+        ShortBuffer narrowed = BufferUtils.createShortBuffer(indices.remaining());
+        for (int i = indices.position(); i < indices.limit(); i++) {
+            narrowed.put((short) indices.get(i));
+        }
+        narrowed.flip();
+        GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, narrowed, GL15.GL_STATIC_DRAW);
+        return GL11.GL_UNSIGNED_SHORT;
     }
 
     private IntBuffer storeDataInIntBuffer(int[] data) {
@@ -114,8 +418,64 @@ public class Loader {
     }
 
 
+    private static float calculateBoundingRadius(float[] positions) {
+        float furthest = 0;
+        for (int i = 0; i < positions.length; i += 3) {
+            float lengthSquared = positions[i] * positions[i] + positions[i + 1] * positions[i + 1]
+                    + positions[i + 2] * positions[i + 2];
+            furthest = Math.max(furthest, lengthSquared);
+        }
+        return (float) Math.sqrt(furthest);
+    }
+
     private void unbindVAO() {
         GL30.glBindVertexArray(0);
     }
 
+    /** Adds a reference to a loaded asset and counts a hit, or counts a miss and returns null. */
+    private CachedAsset acquire(String key) {
+        CachedAsset asset = cache.get(key);
+        if (asset == null) {
+            cacheMisses++;
+            return null;
+        }
+        cacheHits++;
+        asset.references++;
+        return asset;
+    }
+
+    private CachedAsset store(String key, long bytes) {
+        CachedAsset asset = new CachedAsset(key, bytes);
+        cache.put(key, asset);
+        residentBytes += bytes;
+        return asset;
+    }
+
+    private void evict(CachedAsset asset) {
+        cache.remove(asset.key);
+        residentBytes -= asset.bytes;
+    }
+
+    private static String textureKey(String fileName) {
+        return "texture:" + fileName;
+    }
+
+    private static String modelKey(String name, String variant, VertexFormat format) {
+        return "model:" + name + "." + variant + "/" + format.getName();
+    }
+
+    private static class CachedAsset {
+
+        private final String key;
+        private final long bytes;
+        private int references = 1;
+        private int textureID;
+        private RawModel model;
+
+        private CachedAsset(String key, long bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
 }
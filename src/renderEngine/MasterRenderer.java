@@ -3,46 +3,63 @@ package renderEngine;
 import entities.Camera;
 import entities.Entity;
 import entities.Light;
-import models.TexturedModel;
+import entities.Scene;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import profiling.FrameProfiler;
+import shaders.FrameUniforms;
 import shaders.StaticShader;
 import shaders.TerrainShader;
 import terrains.Terrain;
+import terrains.TerrainWorld;
+import toolbox.Frustum;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class MasterRenderer {
 
     /** "CONSTANT" Variables for the Projection Matrix. */
     private static final float FOV = 70;             // Theta, or angle made by the field of view of camera (View Matrix).
     private static final float NEAR_PLANE = 0.1f;
-    private static final float FAR_PLANE = 1000;
+    public static final float FAR_PLANE = 1000;
 
     private static final float RED = 0.5f;
     private static final float GREEN = 0.5f;
     private static final float BLUE = 0.5f;
+    private static final Vector3f SKY_COLOUR = new Vector3f(RED, GREEN, BLUE);
+
+    /** Visibility falls off as exp(-(distance * density)^gradient), fading everything into the sky colour. */
+    private static final float FOG_DENSITY = 0.0035f;
+    private static final float FOG_GRADIENT = 5.0f;
 
     private Matrix4f projectionMatrix;
+    private FrameUniforms frameUniforms;
+    private RenderState state = new RenderState(new OpenGLBackend());
+    private FrameProfiler profiler = new FrameProfiler();
 
     private StaticShader shader = new StaticShader();
+    private EntityBatcher batcher;
     private EntityRenderer renderer;
 
     private TerrainShader terrainShader = new TerrainShader();
     private TerrainRenderer terrainRenderer;
 
     private List<Terrain> terrains = new ArrayList<>();
-    private Map<TexturedModel, List<Entity>> entities = new HashMap<>();
 
-    public MasterRenderer() {
-        enableCulling();
-        createProjectionMatrix();
-        renderer = new EntityRenderer(shader, projectionMatrix);
-        terrainRenderer = new TerrainRenderer(terrainShader, projectionMatrix);
+    private List<Terrain> nearbyTerrains = new ArrayList<>();
+    private int terrainsTested, terrainsCulled;
+
+    public MasterRenderer(Loader loader) {
+        loader.setRenderState(state);
+        projectionMatrix = createProjectionMatrix(Display.getWidth(), Display.getHeight());
+        frameUniforms = new FrameUniforms();
+        batcher = new EntityBatcher(projectionMatrix, FAR_PLANE, shader.getProgramID(),
+                EntityRenderer.INITIAL_INSTANCES);
+        renderer = new EntityRenderer(shader, state, batcher, loader);
+        terrainRenderer = new TerrainRenderer(terrainShader, state);
     }
 
     /** This method renders both the entities and terrains, it uses "shader.render()" (for entities)
@@ -50,59 +67,162 @@ public class MasterRenderer {
      *  render call will render all of these.
      */
     public void render(Light sun, Camera camera) {
+        profiler.begin(FrameProfiler.ENTITY_RENDER);
+        shader.resetUniformCounters();
+        terrainShader.resetUniformCounters();
+        state.beginFrame();
         prepare();
-        shader.start();
-        shader.loadSkyColour(RED, GREEN, BLUE);
-        shader.loadLight(sun);
-        shader.loadViewMatrix(camera);
-        renderer.render(entities);
-        shader.stop();
-        terrainShader.start();
-        terrainShader.loadSkyColour(RED, GREEN, BLUE);
-        terrainShader.loadLight(sun);
-        terrainShader.loadViewMatrix(camera);
-        terrainRenderer.render(terrains);
-        terrainShader.stop();
+        // Camera, light and fog go to every program at once, through the FrameData uniform block.
+        frameUniforms.update(batcher.getViewMatrix(), projectionMatrix, camera.getPosition(), sun, SKY_COLOUR,
+                FOG_DENSITY, FOG_GRADIENT);
+        // Programs, VAOs and textures are left bound after drawing; the RenderState only changes what differs.
+        state.useProgram(shader.getProgramID());
+        renderer.render();
+        batcher.endFrame();
+        profiler.end(FrameProfiler.ENTITY_RENDER);
+
+        profiler.begin(FrameProfiler.TERRAIN_RENDER);
+        state.useProgram(terrainShader.getProgramID());
+        terrainRenderer.render(terrains, batcher.getFrustum());
+        profiler.end(FrameProfiler.TERRAIN_RENDER);
 
         terrains.clear();
-        entities.clear();
     }
 
-    public static void enableCulling() {
-        GL11.glEnable(GL11.GL_CULL_FACE);
-        GL11.glCullFace(GL11.GL_BACK);      //Disables rendering of triangles that are facing away from camera, i.e, inside model.
+    /** Times the phases of render() (entities and terrain); the game loop adds its own and ends the frame. */
+    public FrameProfiler getProfiler() {
+        return profiler;
     }
 
-    public static void disableCulling() {
-        GL11.glDisable(GL11.GL_CULL_FACE);
+    /** Switches entities between one instanced draw per batch and the old one-draw-per-entity path. */
+    public void setInstancedRendering(boolean enabled) {
+        renderer.setInstancingEnabled(enabled);
     }
 
-
     public void prepare() {
-        GL11.glEnable(GL11.GL_DEPTH_TEST);
+        state.setDepthTest(true);
+        state.setBlending(false);
+        state.setCulling(true);
+        state.setCullFace(GL11.GL_BACK);    //Disables rendering of triangles that are facing away from camera, i.e, inside model.
         GL11.glClear(GL11.GL_COLOR_BUFFER_BIT|GL11.GL_DEPTH_BUFFER_BIT);
         GL11.glClearColor(RED, GREEN , BLUE, 1);
     }
 
+    /** Must be called once per frame, after the camera has moved and before anything is processed, so that
+     *  processEntity and processTerrain can throw away whatever is outside of the view frustum. This also
+     *  resets the culling counters, and works out the view matrix for render(). */
+    public void updateFrustum(Camera camera) {
+        batcher.updateFrustum(camera);
+        terrainsTested = 0;
+        terrainsCulled = 0;
+    }
+
+    /** Draws the entity in this frame's render() only. Entities that stay around belong in a Scene. */
     public void processEntity(Entity entity) {
-        TexturedModel entityModel = entity.getModel();
-        List<Entity> batch = entities.get(entityModel);
-        if(batch != null) {
-            batch.add(entity);
-        } else {
-            List<Entity> newBatch = new ArrayList<>();
-            newBatch.add(entity);
-            entities.put(entityModel, newBatch);
-        }
+        batcher.processEntity(entity);
+    }
+
+    /** Brings the queue of entities to draw up to date with the scene, see EntityBatcher.processScene(). */
+    public void processScene(Scene scene) {
+        batcher.processScene(scene);
+    }
+
+    /** Whether the last processScene() had to queue the visible entities again. */
+    public boolean isSceneRequeued() {
+        return batcher.isSceneRequeued();
     }
 
+    /** Queues a tile for rendering if it is in the frustum. Its chunks are drawn at the LODs last chosen by
+     *  TerrainWorld.selectLods(), see processTerrains. */
     public void processTerrain(Terrain terrain) {
+        terrainsTested++;
+        if (!batcher.getFrustum().boxInFrustum(terrain.getX(), terrain.getMinHeight(), terrain.getZ(),
+                terrain.getX() + Terrain.SIZE, terrain.getMaxHeight(), terrain.getZ() + Terrain.SIZE)) {
+            terrainsCulled++;
+            return;
+        }
         terrains.add(terrain);
     }
 
+    public EntityRenderer getEntityRenderer() {
+        return renderer;
+    }
+
+    public EntityBatcher getEntityBatcher() {
+        return batcher;
+    }
+
+    public TerrainRenderer getTerrainRenderer() {
+        return terrainRenderer;
+    }
+
+    /** Processes the tiles of the world that are within FAR_PLANE of the camera (found by grid lookup, so the
+     *  size of the map doesn't matter), each of which is then frustum tested by processTerrain. The LODs of
+     *  their chunks are chosen for all of them together first, also the ones outside the frustum, so the seams
+     *  between tiles line up. */
+    public void processTerrains(TerrainWorld world) {
+        Vector3f cameraPosition = batcher.getCameraPosition();
+        nearbyTerrains.clear();
+        world.getTerrainsAround(cameraPosition.x, cameraPosition.z, FAR_PLANE, nearbyTerrains);
+        TerrainWorld.selectLods(nearbyTerrains, cameraPosition.x, cameraPosition.y, cameraPosition.z);
+        for (Terrain terrain : nearbyTerrains) {
+            processTerrain(terrain);
+        }
+    }
+
+    public Frustum getFrustum() {
+        return batcher.getFrustum();
+    }
+
+    public int getEntitiesTested() {
+        return batcher.getEntitiesTested();
+    }
+
+    public int getEntitiesCulled() {
+        return batcher.getEntitiesCulled();
+    }
+
+    public int getTerrainsTested() {
+        return terrainsTested;
+    }
+
+    public int getTerrainsCulled() {
+        return terrainsCulled;
+    }
+
+    /** glDraw* calls made by the last render(). */
+    public int getDrawCalls() {
+        return renderer.getDrawCalls() + terrainRenderer.getChunksDrawn();
+    }
+
+    public int getTrianglesDrawn() {
+        return renderer.getTrianglesDrawn() + terrainRenderer.getTrianglesDrawn();
+    }
+
+    /** GL state changes (binds, enables and disables) made by the last render(). */
+    public int getStateChanges() {
+        return state.getStateChanges();
+    }
+
+    /** State changes the last render() asked for that were skipped because nothing would have changed. */
+    public int getStateChangesAvoided() {
+        return state.getStateChangesAvoided();
+    }
+
+    /** glUniform calls made by the last render(). */
+    public int getUniformUploads() {
+        return shader.getUniformUploads() + terrainShader.getUniformUploads();
+    }
+
+    /** Uniform loads of the last render() that were skipped because the value hadn't changed. */
+    public int getUniformUploadsSkipped() {
+        return shader.getUniformUploadsSkipped() + terrainShader.getUniformUploadsSkipped();
+    }
+
     public void cleanUp() {
         shader.cleanUp();
         terrainShader.cleanUp();
+        frameUniforms.cleanUp();
     }
 
     /** The concept of the projection matrix is one of the most complex when it comes to 3d graphics
@@ -122,20 +242,21 @@ public class MasterRenderer {
      *
      *  The 4th column of the matrix consists of constants in the formulae.
      */
-    private void createProjectionMatrix() {
-        float aspectRatio = (float) Display.getWidth() / (float) Display.getHeight();
+    public static Matrix4f createProjectionMatrix(int width, int height) {
+        float aspectRatio = (float) width / (float) height;
         float y_scale = (float) ((1f / Math.tan(Math.toRadians(FOV/2f))) * aspectRatio);    //FOV would be theta here. 1/tan(theta/2)
         float x_scale = y_scale / aspectRatio;
         float frustum_length = FAR_PLANE - NEAR_PLANE;      //This implements a "perspective" (uses frustum) projection space,
         //as opposed to a "orthographic" (uses rectangle) projection space.
 
-        projectionMatrix = new Matrix4f();
+        Matrix4f projectionMatrix = new Matrix4f();
         projectionMatrix.m00 = x_scale;
         projectionMatrix.m11 = y_scale;
-        projectionMatrix.m22 = -((FAR_PLANE - NEAR_PLANE) / frustum_length);
+        projectionMatrix.m22 = -((FAR_PLANE + NEAR_PLANE) / frustum_length);
         projectionMatrix.m23 = -1;
-        projectionMatrix.m32 = -((2 * FAR_PLANE - NEAR_PLANE) / frustum_length);
+        projectionMatrix.m32 = -((2 * NEAR_PLANE * FAR_PLANE) / frustum_length);
         projectionMatrix.m33 = 0;
+        return projectionMatrix;
     }
 
 
@@ -1,6 +1,9 @@
 package renderEngine;
 
 import models.RawModel;
+import objConverter.BinaryMesh;
+import objConverter.MeshCache;
+import objConverter.ModelData;
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 
@@ -12,7 +15,27 @@ import java.util.List;
 
 public class OBJLoader {
 
+    /** This loader shares positions between faces (unlike OBJFileLoader), so its MeshCache entries and shared
+     *  models are kept apart from the other one's. */
+    public static final String MESH_VARIANT = "shared";
+
+    /** Loads the model through the MeshCache, so the text is only parsed when the .obj changed, and shares it
+     *  through the Loader if it's already loaded. */
     public static RawModel loadOBJModel(String fileName, Loader loader) {
+        return loader.loadModel(fileName, MESH_VARIANT, VertexFormat.SEPARATE, () -> loadOBJMesh(fileName));
+    }
+
+    /** The CPU half of loadOBJModel(), which doesn't need OpenGL (e.g. for the AssetPipeline's workers). */
+    public static BinaryMesh loadOBJMesh(String fileName) {
+        return MeshCache.load(fileName, MESH_VARIANT, () -> parseOBJ(fileName));
+    }
+
+    /** Like loadOBJMesh(), with about ratio of the triangles left (see MeshSimplifier). */
+    public static BinaryMesh loadSimplifiedOBJMesh(String fileName, float ratio) {
+        return MeshCache.loadSimplified(fileName, MESH_VARIANT, ratio, () -> parseOBJ(fileName));
+    }
+
+    public static ModelData parseOBJ(String fileName) {
         FileReader fr = null;
         try {
             fr = new FileReader(new File("res/" + fileName + ".obj"));
@@ -90,8 +113,13 @@ public class OBJLoader {
             indicesArray[i] = indices.get(i);
         }
 
+        float furthestPoint = 0;
+        for (Vector3f vertex : vertices) {
+            furthestPoint = Math.max(furthestPoint, vertex.length());
+        }
+
         // Notice that we work and load the normals, but don't use them yet.
-        return loader.loadToVAO(verticesArray, texturesArray, normalsArray, indicesArray);
+        return new ModelData(verticesArray, texturesArray, normalsArray, indicesArray, furthestPoint);
     }
 
     private static void processVertex(String[] vertexData, List<Integer> indices,
@@ -0,0 +1,52 @@
+package renderEngine;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+public class OpenGLBackend implements GLBackend {
+
+    @Override
+    public void useProgram(int program) {
+        GL20.glUseProgram(program);
+    }
+
+    @Override
+    public void bindVertexArray(int vao) {
+        GL30.glBindVertexArray(vao);
+    }
+
+    @Override
+    public void activeTexture(int unit) {
+        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+    }
+
+    @Override
+    public void bindTexture(int texture) {
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+    }
+
+    @Override
+    public void setCapability(int capability, boolean enabled) {
+        if (enabled) {
+            GL11.glEnable(capability);
+        } else {
+            GL11.glDisable(capability);
+        }
+    }
+
+    @Override
+    public void cullFace(int face) {
+        GL11.glCullFace(face);
+    }
+
+    @Override
+    public void setVertexAttribArray(int attribute, boolean enabled) {
+        if (enabled) {
+            GL20.glEnableVertexAttribArray(attribute);
+        } else {
+            GL20.glDisableVertexAttribArray(attribute);
+        }
+    }
+}
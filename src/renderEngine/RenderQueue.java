@@ -0,0 +1,190 @@
+package renderEngine;
+
+import entities.Entity;
+import models.RawModel;
+import models.TexturedModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** The draws of a frame, each with a 64 bit sort key, radix sorted so that they come out in the order that
+ *  needs the fewest state changes. From the highest bits down, a key is:
+ *
+ *      pass (2) | shader (6) | texture (16) | mesh (16) | depth (24)
+ *
+ *  so all opaque draws come before the transparent pass, draws with the same texture and mesh end up next to
+ *  each other (and make one instanced batch), and within a batch the nearest come first, so that the depth
+ *  test can reject what is hidden behind them before the fragment shader runs ("early z").
+ *
+ *  IDs are cut down to their field's bits. Different things ending up with the same bits only costs some
+ *  ordering, so whoever walks the queue must compare the actual models rather than keys.
+ *
+ *  Nothing is allocated once the arrays have grown to the largest frame seen so far.
+ */
+public class RenderQueue {
+
+    public static final int PASS_OPAQUE = 0;
+    /** Our transparency is alpha tested (the fragment shader discards), not blended, so it needs no back to
+     *  front order; it's only kept apart because it is drawn without back face culling. */
+    public static final int PASS_TRANSPARENT = 1;
+
+    private static final int DEPTH_BITS = 24;
+    private static final int MESH_BITS = 16;
+    private static final int TEXTURE_BITS = 16;
+    private static final int SHADER_BITS = 6;
+    private static final int MESH_SHIFT = DEPTH_BITS;
+    private static final int TEXTURE_SHIFT = MESH_SHIFT + MESH_BITS;
+    private static final int SHADER_SHIFT = TEXTURE_SHIFT + TEXTURE_BITS;
+    private static final int PASS_SHIFT = SHADER_SHIFT + SHADER_BITS;
+    private static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    private final float maxDistance;
+
+    private int size;
+    private long[] keys = new long[256];
+    private int[] order = new int[256];            // Submission index of each key.
+    private Entity[] entities = new Entity[256];   // By submission index.
+    private TexturedModel[] models = new TexturedModel[256];
+    private RawModel[] meshes = new RawModel[256];
+
+    private long[] sortKeys = new long[256];       // The other half of each radix pass.
+    private int[] sortOrder = new int[256];
+    private final int[] buckets = new int[RADIX];
+
+    private final List<Entity> sortedEntities = new ArrayList<>();
+    private TexturedModel[] sortedModels = new TexturedModel[256];
+    private RawModel[] sortedMeshes = new RawModel[256];
+
+    /** Distances are stored relative to maxDistance (the far plane); anything further sorts as furthest. */
+    public RenderQueue(float maxDistance) {
+        this.maxDistance = maxDistance;
+    }
+
+    public void submit(Entity entity, RawModel mesh, int pass, int shader, int texture, float distance) {
+        if (size == keys.length) {
+            grow();
+        }
+        keys[size] = createKey(pass, shader, texture, mesh.getVaoID(), distance / maxDistance);
+        order[size] = size;
+        entities[size] = entity;
+        models[size] = entity.getModel();
+        meshes[size] = mesh;
+        size++;
+    }
+
+    /** Sorts what was submitted; getSortedEntities() and getMesh() then return it in key order. */
+    public void sort() {
+        radixSort();
+        sortedEntities.clear();
+        for (int i = 0; i < size; i++) {
+            sortedEntities.add(entities[order[i]]);
+            sortedModels[i] = models[order[i]];
+            sortedMeshes[i] = meshes[order[i]];
+        }
+    }
+
+    /** Forgets the submissions, ready for the next frame. */
+    public void clear() {
+        Arrays.fill(entities, 0, size, null);
+        Arrays.fill(models, 0, size, null);
+        Arrays.fill(meshes, 0, size, null);
+        Arrays.fill(sortedModels, 0, size, null);
+        Arrays.fill(sortedMeshes, 0, size, null);
+        sortedEntities.clear();
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** The entities in key order, after sort(). */
+    public List<Entity> getSortedEntities() {
+        return sortedEntities;
+    }
+
+    /** Model the i-th sorted entity had when it was submitted. */
+    public TexturedModel getModel(int i) {
+        return sortedModels[i];
+    }
+
+    /** Mesh to draw the i-th sorted entity with (which LOD of its model). */
+    public RawModel getMesh(int i) {
+        return sortedMeshes[i];
+    }
+
+    /** Key of the i-th sorted entity. */
+    public long getKey(int i) {
+        return keys[i];
+    }
+
+    public static int getPass(long key) {
+        return (int) (key >>> PASS_SHIFT);
+    }
+
+    /** depth is the distance as a fraction of the furthest one, clamped to [0, 1]. */
+    public static long createKey(int pass, int shader, int texture, int mesh, float depth) {
+        long quantizedDepth = (long) (Math.min(Math.max(depth, 0), 1) * MAX_DEPTH);
+        return ((long) pass << PASS_SHIFT)
+                | ((long) (shader & ((1 << SHADER_BITS) - 1)) << SHADER_SHIFT)
+                | ((long) (texture & ((1 << TEXTURE_BITS) - 1)) << TEXTURE_SHIFT)
+                | ((long) (mesh & ((1 << MESH_BITS) - 1)) << MESH_SHIFT)
+                | quantizedDepth;
+    }
+
+    /** Least significant digit first, 8 bits at a time. Every pass is stable, so after the last one the keys are
+     *  in order. Bytes that are the same in every key (like the pass, most frames) are skipped. */
+    private void radixSort() {
+        long[] fromKeys = keys;
+        int[] fromOrder = order;
+        long[] toKeys = sortKeys;
+        int[] toOrder = sortOrder;
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(buckets, 0);
+            for (int i = 0; i < size; i++) {
+                buckets[(int) (fromKeys[i] >>> shift) & (RADIX - 1)]++;
+            }
+            if (size == 0 || buckets[(int) (fromKeys[0] >>> shift) & (RADIX - 1)] == size) {
+                continue;
+            }
+            int start = 0;
+            for (int digit = 0; digit < RADIX; digit++) {
+                int count = buckets[digit];
+                buckets[digit] = start;
+                start += count;
+            }
+            for (int i = 0; i < size; i++) {
+                int target = buckets[(int) (fromKeys[i] >>> shift) & (RADIX - 1)]++;
+                toKeys[target] = fromKeys[i];
+                toOrder[target] = fromOrder[i];
+            }
+            long[] swapKeys = fromKeys;
+            fromKeys = toKeys;
+            toKeys = swapKeys;
+            int[] swapOrder = fromOrder;
+            fromOrder = toOrder;
+            toOrder = swapOrder;
+        }
+        keys = fromKeys;
+        order = fromOrder;
+        sortKeys = toKeys;
+        sortOrder = toOrder;
+    }
+
+    private void grow() {
+        int length = keys.length * 2;
+        keys = Arrays.copyOf(keys, length);
+        order = Arrays.copyOf(order, length);
+        entities = Arrays.copyOf(entities, length);
+        models = Arrays.copyOf(models, length);
+        meshes = Arrays.copyOf(meshes, length);
+        sortKeys = new long[length];
+        sortOrder = new int[length];
+        sortedModels = Arrays.copyOf(sortedModels, length);
+        sortedMeshes = Arrays.copyOf(sortedMeshes, length);
+    }
+}
@@ -0,0 +1,177 @@
+package renderEngine;
+
+import org.lwjgl.opengl.GL11;
+
+import java.util.Arrays;
+
+/** Remembers the OpenGL state the renderers set (program, VAO, textures per unit, culling, depth test, blending
+ *  and the enabled attribute lists of each VAO) and only makes a call when a request actually changes it. The
+ *  renderers can then simply ask for what every batch needs, instead of binding and unbinding around each one.
+ *
+ *  The state is only known for certain while everything goes through here. Loading textures and models binds
+ *  things directly, so beginFrame() forgets the bindings and capabilities and the first request of each frame
+ *  always makes its call. The enabled attribute lists are kept, because they are part of their VAO and only
+ *  the renderers change them (the Loader never enables any). The Loader reports new VAOs through
+ *  vertexArrayCreated(), since a deleted VAO's ID can be handed out again.
+ */
+public class RenderState {
+
+    public static final int TEXTURE_UNITS = 16;
+    private static final int UNKNOWN = -1;
+
+    private final GLBackend backend;
+
+    private int program;
+    private int vertexArray;
+    private int activeTextureUnit;
+    private final int[] textures = new int[TEXTURE_UNITS];
+    private int culling;                // UNKNOWN, 0 or 1.
+    private int cullFace;
+    private int depthTest;
+    private int blending;
+
+    /** Bit i set if attribute list i is enabled, indexed by VAO ID. VAOs start with none enabled. */
+    private int[] enabledAttributes = new int[64];
+
+    private int stateChanges;
+    private int stateChangesAvoided;
+
+    public RenderState(GLBackend backend) {
+        this.backend = backend;
+        invalidate();
+    }
+
+    /** Starts a frame: resets the counters and forgets the bindings, which may have been changed directly since
+     *  the last frame. */
+    public void beginFrame() {
+        stateChanges = 0;
+        stateChangesAvoided = 0;
+        invalidate();
+    }
+
+    /** Forgets everything except the attribute lists of the VAOs, so the next request of each kind is sent. */
+    public void invalidate() {
+        program = UNKNOWN;
+        vertexArray = UNKNOWN;
+        activeTextureUnit = UNKNOWN;
+        Arrays.fill(textures, UNKNOWN);
+        culling = UNKNOWN;
+        cullFace = UNKNOWN;
+        depthTest = UNKNOWN;
+        blending = UNKNOWN;
+    }
+
+    public void useProgram(int program) {
+        if (count(this.program != program)) {
+            this.program = program;
+            backend.useProgram(program);
+        }
+    }
+
+    public void bindVertexArray(int vao) {
+        if (count(vertexArray != vao)) {
+            vertexArray = vao;
+            backend.bindVertexArray(vao);
+        }
+    }
+
+    /** For code that bound a VAO itself (e.g. Loader.addInstancedAttribute()), so the next bind is sent. */
+    public void forgetVertexArray() {
+        vertexArray = UNKNOWN;
+    }
+
+    /** A new VAO has no attribute lists enabled, whatever an older VAO with the same ID had. */
+    public void vertexArrayCreated(int vao) {
+        ensureVertexArrayCapacity(vao);
+        enabledAttributes[vao] = 0;
+    }
+
+    /** Binds a 2D texture to a texture unit, switching the active unit only if the binding has to change. */
+    public void bindTexture(int unit, int texture) {
+        if (!count(textures[unit] != texture)) {
+            return;
+        }
+        if (count(activeTextureUnit != unit)) {
+            activeTextureUnit = unit;
+            backend.activeTexture(unit);
+        }
+        textures[unit] = texture;
+        backend.bindTexture(texture);
+    }
+
+    /** Back face culling on or off (objects with transparent textures are seen from behind, too). */
+    public void setCulling(boolean enabled) {
+        culling = setCapability(GL11.GL_CULL_FACE, culling, enabled);
+    }
+
+    public void setCullFace(int face) {
+        if (count(cullFace != face)) {
+            cullFace = face;
+            backend.cullFace(face);
+        }
+    }
+
+    public void setDepthTest(boolean enabled) {
+        depthTest = setCapability(GL11.GL_DEPTH_TEST, depthTest, enabled);
+    }
+
+    public void setBlending(boolean enabled) {
+        blending = setCapability(GL11.GL_BLEND, blending, enabled);
+    }
+
+    /** Makes exactly the attribute lists in the mask (bit i for list i) enabled on the bound VAO. */
+    public void setEnabledAttributes(int mask) {
+        int vao = vertexArray;
+        if (vao == UNKNOWN) {
+            throw new IllegalStateException("Bind a VAO through the RenderState before enabling its attributes");
+        }
+        ensureVertexArrayCapacity(vao);
+        int current = enabledAttributes[vao];
+        for (int attribute = 0; attribute < Integer.SIZE; attribute++) {
+            int bit = 1 << attribute;
+            if (((mask | current) & bit) == 0) {
+                continue;       // Off and staying off isn't a request worth counting.
+            }
+            boolean enabled = (mask & bit) != 0;
+            if (count(((current & bit) != 0) != enabled)) {
+                backend.setVertexAttribArray(attribute, enabled);
+            }
+        }
+        enabledAttributes[vao] = mask;
+    }
+
+    /** GL calls made since beginFrame(). */
+    public int getStateChanges() {
+        return stateChanges;
+    }
+
+    /** Requests since beginFrame() that didn't need a call because the state was already like that. */
+    public int getStateChangesAvoided() {
+        return stateChangesAvoided;
+    }
+
+    private int setCapability(int capability, int current, boolean enabled) {
+        int wanted = enabled ? 1 : 0;
+        if (count(current != wanted)) {
+            backend.setCapability(capability, enabled);
+        }
+        return wanted;
+    }
+
+    private void ensureVertexArrayCapacity(int vao) {
+        if (vao >= enabledAttributes.length) {
+            int length = Math.max(vao + 1, enabledAttributes.length * 2);
+            enabledAttributes = Arrays.copyOf(enabledAttributes, length);
+        }
+    }
+
+    /** Counts a request as a change or an avoided one, and returns whether it is a change. */
+    private boolean count(boolean changed) {
+        if (changed) {
+            stateChanges++;
+        } else {
+            stateChangesAvoided++;
+        }
+        return changed;
+    }
+}
@@ -5,71 +5,90 @@ import models.RawModel;
 import models.TexturedModel;
 import org.lwjgl.opengl.*;
 import org.lwjgl.util.vector.Matrix4f;
-import org.lwjgl.util.vector.Vector3f;
 import shaders.TerrainShader;
 import terrains.Terrain;
+import terrains.TerrainChunk;
+import terrains.TerrainLodPatterns;
 import textures.ModelTexture;
 import textures.TerrainTexturePack;
+import toolbox.Frustum;
 import toolbox.Maths;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class TerrainRenderer {
 
     private TerrainShader shader;
+    private RenderState state;
 
-    public TerrainRenderer(TerrainShader shader, Matrix4f projectionMatrix) {
+    private List<TerrainChunk> visibleChunks = new ArrayList<>();
+    private Matrix4f transformationMatrix = new Matrix4f();
+    private int chunksDrawn;
+    private int trianglesDrawn;
+
+    /** The projection comes from the FrameUniforms, like everything else that is the same for every program. */
+    public TerrainRenderer(TerrainShader shader, RenderState state) {
         this.shader = shader;
+        this.state = state;
         shader.start();
-        shader.loadProjectionMatrix(projectionMatrix);
         shader.connectTextureUnits();
         shader.stop();
     }
 
-    public void render(List<Terrain> terrains) {
+    /** Draws only the chunks of each terrain that are inside the frustum, each one with the index pattern of its
+     *  level of detail. The chunks share one VAO, glDrawElementsBaseVertex shifts a pattern onto a chunk's vertices.
+     */
+    public void render(List<Terrain> terrains, Frustum frustum) {
+        chunksDrawn = 0;
+        trianglesDrawn = 0;
         for (Terrain terrain : terrains) {
             prepareTerrainModel(terrain);
             loadModelMatrix(terrain);
-            GL11.glDrawElements(GL11.GL_TRIANGLES, terrain.getModel().getVertexCount(),
-                    GL11.GL_UNSIGNED_INT, 0);
-            unbindTexturedModel();
+            visibleChunks.clear();
+            terrain.selectChunks(frustum, visibleChunks);
+            TerrainLodPatterns patterns = terrain.getLodPatterns();
+            RawModel rawModel = terrain.getModel();
+            for (TerrainChunk chunk : visibleChunks) {
+                int pattern = chunk.getPatternId();
+                GL32.glDrawElementsBaseVertex(GL11.GL_TRIANGLES, patterns.getCount(pattern), rawModel.getIndexType(),
+                        (long) patterns.getOffset(pattern) * rawModel.getIndexSize(), chunk.getBaseVertex());
+                trianglesDrawn += patterns.getCount(pattern) / 3;
+            }
+            chunksDrawn += visibleChunks.size();
         }
     }
 
+    public int getChunksDrawn() {
+        return chunksDrawn;
+    }
+
+    public int getTrianglesDrawn() {
+        return trianglesDrawn;
+    }
+
     private void prepareTerrainModel(Terrain terrain) {
         RawModel rawModel = terrain.getModel();
-        GL30.glBindVertexArray(rawModel.getVaoID());      // We bind ("activate") the VAO of the model
-        GL20.glEnableVertexAttribArray(0);      // We activate the Attribute List 0 of the VAO
-        GL20.glEnableVertexAttribArray(1);      // Now we activate Attrib List 1 of the VAO for textures
-        GL20.glEnableVertexAttribArray(2);      // Activate Attrib List 2 of the VAO for normals.
+        state.bindVertexArray(rawModel.getVaoID());       // We bind ("activate") the VAO of the model
+        state.setEnabledAttributes(EntityRenderer.MODEL_ATTRIBUTES);  // Positions, textures and normals.
+        shader.loadPositionDequantization(rawModel);
         bindTerrainTextures(terrain);
         shader.loadShineVariables(1, 0);
     }
 
-    private void unbindTexturedModel() {
-        GL20.glDisableVertexAttribArray(0);
-        GL20.glDisableVertexAttribArray(1);
-        GL20.glDisableVertexAttribArray(2);
-        GL30.glBindVertexArray(0);                  //Deactivate VAO, after deactivating both attrib lists.
-    }
-
+    /** Terrains usually share their texture pack, so after the first one only the blend map (if even that)
+     *  gets bound again. */
     private void bindTerrainTextures(Terrain terrain) {
         TerrainTexturePack texturePack = terrain.getTexturePack();
-        GL13.glActiveTexture(GL13.GL_TEXTURE0);       // Texture bank 0, default for textureSampler2D, we use it for backgroundTexture.
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, texturePack.getBackgroundTexture().getTextureID());
-        GL13.glActiveTexture(GL13.GL_TEXTURE1);       // Texture bank 1, used for rTexture, and so on below..
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, texturePack.getrTexture().getTextureID());
-        GL13.glActiveTexture(GL13.GL_TEXTURE2);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, texturePack.getgTexture().getTextureID());
-        GL13.glActiveTexture(GL13.GL_TEXTURE3);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, texturePack.getbTexture().getTextureID());
-        GL13.glActiveTexture(GL13.GL_TEXTURE4);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, terrain.getBlendMap().getTextureID());
+        state.bindTexture(0, texturePack.getBackgroundTexture().getTextureID());   // Texture bank 0, default for textureSampler2D, we use it for backgroundTexture.
+        state.bindTexture(1, texturePack.getrTexture().getTextureID());    // Texture bank 1, used for rTexture, and so on below..
+        state.bindTexture(2, texturePack.getgTexture().getTextureID());
+        state.bindTexture(3, texturePack.getbTexture().getTextureID());
+        state.bindTexture(4, terrain.getBlendMap().getTextureID());
     }
 
     private void loadModelMatrix(Terrain terrain) { //Transforms Model Space into World Space.
-        Matrix4f transformationMatrix = Maths.createTransformationMatrix(new Vector3f(terrain.getX(),
-                        0, terrain.getZ()), 0, 0, 0, 1);
+        Maths.createTransformationMatrix(terrain.getX(), 0, terrain.getZ(), 0, 0, 0, 1, transformationMatrix);
         shader.loadTransformationMatrix(transformationMatrix);
     }
 }
@@ -0,0 +1,89 @@
+package renderEngine;
+
+/** How the Loader lays out the vertices of a mesh on the GPU.
+ *
+ *  SEPARATE is the original layout: one float VBO per attribute, 12 + 8 + 12 = 32 bytes a vertex. The other
+ *  formats put all attributes of a vertex next to each other in a single VBO, and can shrink each of them:
+ *   - quantized positions: 3 unsigned shorts (plus 2 bytes of padding) spanning the mesh's bounding box, which
+ *     the vertex shader scales back with the model's positionOffset and positionScale,
+ *   - half float texture coordinates: 2 x 2 bytes, exact for 0..1 up to 1/2048,
+ *   - packed normals: GL_INT_2_10_10_10_REV, 10 signed bits per component in one int.
+ *  COMPACT uses all three for 16 bytes a vertex, half of SEPARATE. The shaders read every format the same way.
+ */
+public class VertexFormat {
+
+    public static final VertexFormat SEPARATE = new VertexFormat("separate", false, false, false, false);
+    public static final VertexFormat INTERLEAVED = new VertexFormat(false, false, false);
+    public static final VertexFormat COMPACT = new VertexFormat(true, true, true);
+
+    private final String name;
+    private final boolean interleaved;
+    private final boolean quantizedPositions;
+    private final boolean halfFloatTextureCoords;
+    private final boolean packedNormals;
+
+    /** An interleaved format, with each attribute either kept as floats or shrunk. */
+    public VertexFormat(boolean quantizedPositions, boolean halfFloatTextureCoords, boolean packedNormals) {
+        this("interleaved" + (quantizedPositions ? "-q" : "") + (halfFloatTextureCoords ? "-h" : "")
+                + (packedNormals ? "-p" : ""), true, quantizedPositions, halfFloatTextureCoords, packedNormals);
+    }
+
+    private VertexFormat(String name, boolean interleaved, boolean quantizedPositions,
+                         boolean halfFloatTextureCoords, boolean packedNormals) {
+        this.name = name;
+        this.interleaved = interleaved;
+        this.quantizedPositions = quantizedPositions;
+        this.halfFloatTextureCoords = halfFloatTextureCoords;
+        this.packedNormals = packedNormals;
+    }
+
+    public int getPositionSize() {
+        return quantizedPositions ? 8 : 12;
+    }
+
+    public int getTextureCoordsSize() {
+        return halfFloatTextureCoords ? 4 : 8;
+    }
+
+    public int getNormalSize() {
+        return packedNormals ? 4 : 12;
+    }
+
+    /** Bytes per vertex (for SEPARATE, added up over its three buffers). */
+    public int getStride() {
+        return getPositionSize() + getTextureCoordsSize() + getNormalSize();
+    }
+
+    public int getTextureCoordsOffset() {
+        return getPositionSize();
+    }
+
+    public int getNormalOffset() {
+        return getPositionSize() + getTextureCoordsSize();
+    }
+
+    public boolean isInterleaved() {
+        return interleaved;
+    }
+
+    public boolean hasQuantizedPositions() {
+        return quantizedPositions;
+    }
+
+    public boolean hasHalfFloatTextureCoords() {
+        return halfFloatTextureCoords;
+    }
+
+    public boolean hasPackedNormals() {
+        return packedNormals;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,132 @@
+package renderEngine;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/** Builds the interleaved vertex buffers of the VertexFormats on the CPU, and has the matching unpack methods
+ *  (doing what the GPU does when it reads them) so the precision of every format can be checked without OpenGL.
+ */
+public class VertexPacker {
+
+    private static final int MAX_QUANTIZED = 0xFFFF;
+    private static final int MAX_NORMAL_COMPONENT = 511;       // Largest signed 10 bit value.
+
+    /** Packs vertexCount vertices into a new direct buffer in the layout of format (which must be interleaved).
+     *  bounds (minX, minY, minZ, maxX, maxY, maxZ) are only used for quantized positions. */
+    public static ByteBuffer pack(VertexFormat format, FloatBuffer positions, FloatBuffer textureCoords,
+                                  FloatBuffer normals, int vertexCount, float[] bounds) {
+        int stride = format.getStride();
+        ByteBuffer buffer = BufferUtils.createByteBuffer(vertexCount * stride);
+        for (int i = 0; i < vertexCount; i++) {
+            int vertex = i * stride;
+            for (int axis = 0; axis < 3; axis++) {
+                float value = positions.get(i * 3 + axis);
+                if (format.hasQuantizedPositions()) {
+                    buffer.putShort(vertex + axis * 2,
+                            quantize(value, bounds[axis], bounds[axis + 3] - bounds[axis]));
+                } else {
+                    buffer.putFloat(vertex + axis * 4, value);
+                }
+            }
+            int offset = vertex + format.getTextureCoordsOffset();
+            for (int axis = 0; axis < 2; axis++) {
+                float value = textureCoords.get(i * 2 + axis);
+                if (format.hasHalfFloatTextureCoords()) {
+                    buffer.putShort(offset + axis * 2, toHalf(value));
+                } else {
+                    buffer.putFloat(offset + axis * 4, value);
+                }
+            }
+            offset = vertex + format.getNormalOffset();
+            if (format.hasPackedNormals()) {
+                buffer.putInt(offset, packNormal(normals.get(i * 3), normals.get(i * 3 + 1), normals.get(i * 3 + 2)));
+            } else {
+                for (int axis = 0; axis < 3; axis++) {
+                    buffer.putFloat(offset + axis * 4, normals.get(i * 3 + axis));
+                }
+            }
+        }
+        return buffer;
+    }
+
+    /** Maps min..min + range onto the full range of an unsigned short. */
+    public static short quantize(float value, float min, float range) {
+        if (range <= 0) {
+            return 0;
+        }
+        float normalized = Math.min(Math.max((value - min) / range, 0), 1);
+        return (short) Math.round(normalized * MAX_QUANTIZED);
+    }
+
+    /** What the vertex shader computes: positionOffset + (normalized unsigned short) * positionScale. */
+    public static float dequantize(short quantized, float min, float range) {
+        return min + (quantized & 0xFFFF) / (float) MAX_QUANTIZED * range;
+    }
+
+    /** Rounds a float to the nearest half float (ties to even), like the GPU's own conversions. */
+    public static short toHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xFF;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent == 0xFF) {                                     // Infinity or NaN.
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1F) {                                 // Too big, becomes infinity.
+            return (short) (sign | 0x7C00);
+        }
+        if (halfExponent <= 0) {                                    // Too small for a normal half float.
+            if (halfExponent < -10) {
+                return (short) sign;
+            }
+            int shift = 14 - halfExponent;
+            return (short) (sign | roundShift(mantissa | 0x800000, shift));
+        }
+        // Rounding up can carry into the exponent, which is still the right answer (up to infinity).
+        return (short) (sign | roundShift((halfExponent << 23) | mantissa, 13));
+    }
+
+    public static float fromHalf(short half) {
+        int bits = half & 0xFFFF;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1F;
+        int mantissa = bits & 0x3FF;
+        if (exponent == 0) {
+            float value = mantissa * 0x1p-24f;
+            return sign != 0 ? -value : value;
+        }
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 127 - 15) << 23) | (mantissa << 13));
+    }
+
+    /** x, y and z in the low 30 bits as signed 10 bit values, w (unused) left at 0. */
+    public static int packNormal(float x, float y, float z) {
+        return packComponent(x) | (packComponent(y) << 10) | (packComponent(z) << 20);
+    }
+
+    /** Component 0, 1 or 2 of a packed normal, converted back like OpenGL (4.2 and up) does. */
+    public static float unpackNormal(int packed, int component) {
+        int value = (packed << (22 - component * 10)) >> 22;       // Sign extends the 10 bits.
+        return Math.max(value / (float) MAX_NORMAL_COMPONENT, -1);
+    }
+
+    private static int packComponent(float value) {
+        float clamped = Math.min(Math.max(value, -1), 1);
+        return Math.round(clamped * MAX_NORMAL_COMPONENT) & 0x3FF;
+    }
+
+    private static int roundShift(int value, int shift) {
+        int result = value >>> shift;
+        int remainder = value & ((1 << shift) - 1);
+        int halfway = 1 << (shift - 1);
+        if (remainder > halfway || (remainder == halfway && (result & 1) != 0)) {
+            result++;
+        }
+        return result;
+    }
+}
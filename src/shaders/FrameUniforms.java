@@ -0,0 +1,84 @@
+package shaders;
+
+import entities.Light;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import java.nio.ByteBuffer;
+
+/** The uniforms that are the same for every program during a frame (camera, projection, light and fog), kept
+ *  in one uniform buffer that is filled once per frame instead of being loaded into each program separately.
+ *
+ *  Every shader declares the same block (keep them in sync with writeBlock()):
+ *
+ *      layout(std140) uniform FrameData {
+ *          mat4 viewMatrix;
+ *          mat4 projectionMatrix;
+ *          mat4 projectionViewMatrix;
+ *          vec3 cameraPosition;
+ *          vec3 lightPosition;
+ *          vec3 lightColour;
+ *          vec3 skyColour;
+ *          float fogDensity;
+ *          float fogGradient;
+ *      };
+ *
+ *  ShaderProgram connects the block of every program to BINDING_POINT, where this buffer stays bound.
+ */
+public class FrameUniforms {
+
+    public static final String BLOCK_NAME = "FrameData";
+    public static final int BINDING_POINT = 0;
+    private static final int CAPACITY = 512;           // Bytes, plenty for the block.
+
+    private final int bufferID;
+    private final ByteBuffer data = BufferUtils.createByteBuffer(CAPACITY);
+    private final UniformBlockWriter writer = new UniformBlockWriter(data);
+    private final Matrix4f projectionViewMatrix = new Matrix4f();
+
+    public FrameUniforms() {
+        bufferID = GL15.glGenBuffers();
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, bufferID);
+        GL15.glBufferData(GL31.GL_UNIFORM_BUFFER, CAPACITY, GL15.GL_DYNAMIC_DRAW);
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
+        GL30.glBindBufferBase(GL31.GL_UNIFORM_BUFFER, BINDING_POINT, bufferID);
+    }
+
+    public void update(Matrix4f viewMatrix, Matrix4f projectionMatrix, Vector3f cameraPosition, Light light,
+                       Vector3f skyColour, float fogDensity, float fogGradient) {
+        Matrix4f.mul(projectionMatrix, viewMatrix, projectionViewMatrix);
+        int size = writeBlock(writer, viewMatrix, projectionMatrix, projectionViewMatrix, cameraPosition, light,
+                skyColour, fogDensity, fogGradient);
+        data.limit(size);
+        data.position(0);
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, bufferID);
+        GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, 0, data);
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
+        data.clear();
+    }
+
+    public void cleanUp() {
+        GL15.glDeleteBuffers(bufferID);
+    }
+
+    /** Writes the FrameData block from the start and returns its size. */
+    public static int writeBlock(UniformBlockWriter writer, Matrix4f viewMatrix, Matrix4f projectionMatrix,
+                                 Matrix4f projectionViewMatrix, Vector3f cameraPosition, Light light,
+                                 Vector3f skyColour, float fogDensity, float fogGradient) {
+        writer.reset();
+        writer.putMat4(viewMatrix)
+                .putMat4(projectionMatrix)
+                .putMat4(projectionViewMatrix)
+                .putVec3(cameraPosition)
+                .putVec3(light.getPosition())
+                .putVec3(light.getColour())
+                .putVec3(skyColour)
+                .putFloat(fogDensity)
+                .putFloat(fogGradient);
+        return writer.getBlockSize();
+    }
+}
@@ -3,6 +3,7 @@ package shaders;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
@@ -11,7 +12,12 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
 
+/** Uniform values stay with their program, so every program keeps a shadow copy of what it last sent for each
+ *  uniform location and skips glUniform calls that wouldn't change anything (e.g. the same shine values for
+ *  every batch, or the same atlas offset for most entities). The load methods must only be called while the
+ *  program is started, like the glUniform calls they replace. */
 public abstract class ShaderProgram {
 
     private int programID;
@@ -20,6 +26,12 @@ public abstract class ShaderProgram {
 
     private static FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16); //16 floats because we're working with 4x4 matrices.
 
+    /** Raw bits of the last value sent to each uniform location (NOT_LOADED until it has been loaded once). */
+    private static final int[] NOT_LOADED = new int[0];
+    private int[][] uniformValues = new int[0][];
+    private int uniformUploads = 0;
+    private int uniformUploadsSkipped = 0;
+
     public ShaderProgram(String vertexFile, String fragmentFile) {
         vertexShaderID = loadShader(vertexFile, GL20.GL_VERTEX_SHADER);
         fragmentShaderID = loadShader(fragmentFile, GL20.GL_FRAGMENT_SHADER);
@@ -30,6 +42,7 @@ public abstract class ShaderProgram {
         GL20.glLinkProgram(programID);
         GL20.glValidateProgram(programID);
         getAllUniformLocations();
+        connectFrameUniforms();
     }
 
     public void start() {
@@ -40,6 +53,11 @@ public abstract class ShaderProgram {
         GL20.glUseProgram(0);
     }
 
+    /** For RenderState.useProgram(), which the renderers start programs with while drawing a frame. */
+    public int getProgramID() {
+        return programID;
+    }
+
     public void cleanUp() {
         stop();
         GL20.glDetachShader(programID, vertexShaderID);
@@ -53,6 +71,14 @@ public abstract class ShaderProgram {
     }
 
 
+    /** Points the program's FrameData block (if it uses one) at the buffer of FrameUniforms. */
+    private void connectFrameUniforms() {
+        int blockIndex = GL31.glGetUniformBlockIndex(programID, FrameUniforms.BLOCK_NAME);
+        if (blockIndex != GL31.GL_INVALID_INDEX) {
+            GL31.glUniformBlockBinding(programID, blockIndex, FrameUniforms.BINDING_POINT);
+        }
+    }
+
     protected abstract void bindAttributes();
 
     protected void bindAttribute(int attribute, String variableName) {
@@ -63,23 +89,61 @@ public abstract class ShaderProgram {
     protected abstract void getAllUniformLocations();
 
     protected int getUniformLocation(String uniformName) {
-        return GL20.glGetUniformLocation(programID, uniformName);
+        int location = GL20.glGetUniformLocation(programID, uniformName);
+        if (location >= uniformValues.length) {
+            int oldLength = uniformValues.length;
+            uniformValues = Arrays.copyOf(uniformValues, location + 1);
+            Arrays.fill(uniformValues, oldLength, uniformValues.length, NOT_LOADED);
+        }
+        return location;
+    }
+
+    /** glUniform calls this program made since the last resetUniformCounters(). */
+    public int getUniformUploads() {
+        return uniformUploads;
+    }
+
+    /** Loads that were skipped because the uniform already had that value. */
+    public int getUniformUploadsSkipped() {
+        return uniformUploadsSkipped;
+    }
+
+    public void resetUniformCounters() {
+        uniformUploads = 0;
+        uniformUploadsSkipped = 0;
     }
 
     protected void loadInt(int location, int value) {
-        GL20.glUniform1i(location, value);
+        if (changed(location, value, 0, 0, 1)) {
+            GL20.glUniform1i(location, value);
+        }
     }
 
     protected void loadFloat(int location, float value) {
-        GL20.glUniform1f(location, value);
+        if (changed(location, Float.floatToRawIntBits(value), 0, 0, 1)) {
+            GL20.glUniform1f(location, value);
+        }
     }
 
     protected void loadVector(int location, Vector3f vector) {
-        GL20.glUniform3f(location, vector.x, vector.y, vector.z);
+        loadVector(location, vector.x, vector.y, vector.z);
+    }
+
+    protected void loadVector(int location, float x, float y, float z) {
+        if (changed(location, Float.floatToRawIntBits(x), Float.floatToRawIntBits(y), Float.floatToRawIntBits(z),
+                3)) {
+            GL20.glUniform3f(location, x, y, z);
+        }
     }
 
     protected void load2DVector (int location, Vector2f vector) {
-        GL20.glUniform2f(location, vector.x, vector.y);
+        load2DVector(location, vector.x, vector.y);
+    }
+
+    protected void load2DVector(int location, float x, float y) {
+        if (changed(location, Float.floatToRawIntBits(x), Float.floatToRawIntBits(y), 0, 2)) {
+            GL20.glUniform2f(location, x, y);
+        }
     }
 
     protected void loadBoolean(int location, boolean value) {
@@ -87,13 +151,68 @@ public abstract class ShaderProgram {
         if(value) {
             toLoad = 1;
         }
-        GL20.glUniform1f(location, toLoad);
+        loadFloat(location, toLoad);
     }
 
     protected void loadMatrix(int location, Matrix4f matrix) {
         matrix.store(matrixBuffer);
         matrixBuffer.flip();
-        GL20.glUniformMatrix4(location, false, matrixBuffer);
+        int[] last = shadowOf(location);
+        if (last == null) {
+            uniformUploadsSkipped++;
+            return;
+        }
+        boolean changed = last == NOT_LOADED;
+        if (changed) {
+            last = uniformValues[location] = new int[16];
+        }
+        for (int i = 0; i < 16; i++) {
+            int bits = Float.floatToRawIntBits(matrixBuffer.get(i));
+            changed |= last[i] != bits;
+            last[i] = bits;
+        }
+        if (count(changed)) {
+            GL20.glUniformMatrix4(location, false, matrixBuffer);
+        }
+    }
+
+    /** Compares the first size of x, y and z (raw bits) with the shadow copy, updates it, and tells whether the
+     *  uniform has to be sent. Locations of -1 (uniforms the compiler removed) never are. */
+    private boolean changed(int location, int x, int y, int z, int size) {
+        int[] last = shadowOf(location);
+        if (last == null) {
+            return count(false);
+        }
+        if (last == NOT_LOADED) {
+            last = uniformValues[location] = new int[size];
+        } else if (last[0] == x && (size < 2 || last[1] == y) && (size < 3 || last[2] == z)) {
+            return count(false);
+        }
+        last[0] = x;
+        if (size > 1) {
+            last[1] = y;
+        }
+        if (size > 2) {
+            last[2] = z;
+        }
+        return count(true);
+    }
+
+    /** The shadow copy of a location: NOT_LOADED the first time, null for -1. */
+    private int[] shadowOf(int location) {
+        if (location < 0 || location >= uniformValues.length) {
+            return null;
+        }
+        return uniformValues[location];
+    }
+
+    private boolean count(boolean upload) {
+        if (upload) {
+            uniformUploads++;
+        } else {
+            uniformUploadsSkipped++;
+        }
+        return upload;
     }
 
     private static int loadShader(String file, int type) {
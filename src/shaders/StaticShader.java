@@ -1,11 +1,7 @@
 package shaders;
 
-import entities.Camera;
-import entities.Light;
+import models.RawModel;
 import org.lwjgl.util.vector.Matrix4f;
-import org.lwjgl.util.vector.Vector2f;
-import org.lwjgl.util.vector.Vector3f;
-import toolbox.Maths;
 
 public class StaticShader extends ShaderProgram {
 
@@ -13,16 +9,14 @@ public class StaticShader extends ShaderProgram {
     public static final String FRAGMENT_FILE = "src/shaders/fragmentShader.txt";
 
     private int location_transformationMatrix;
-    private int location_viewMatrix;
-    private int location_projectionMatrix;
-    private int location_lightPosition;
-    private int location_lightColour;
+    private int location_positionOffset;
+    private int location_positionScale;
     private int location_shineDamper;
     private int location_reflectivity;
     private int location_useFakeLighting;
-    private int location_skyColour;
     private int location_numberOfRows;
     private int location_offset;
+    private int location_useInstancing;
 
     public StaticShader() {
         super(VERTEX_FILE, FRAGMENT_FILE);
@@ -36,6 +30,8 @@ public class StaticShader extends ShaderProgram {
         super.bindAttribute(0, "position ");    //Attribute list 0 in VAO.
         super.bindAttribute(1, "textureCoordinates");    //Attribute list 1 in VAO.
         super.bindAttribute(2, "normal");       //Attribute list 2 in VAO
+        super.bindAttribute(3, "instanceMatrix");   //Attribute lists 3 to 6 (one per column), only for instanced draws.
+        super.bindAttribute(7, "instanceOffset");   //Attribute list 7, only for instanced draws.
     }
 
     @Override
@@ -46,16 +42,14 @@ public class StaticShader extends ShaderProgram {
          *  *** VERY IMPORTANT THAT uniformName ARGUMENT IS EXACTLY THE NAME IN THE VERTEX AND
          *  FRAGMENT SHADER TXT FILES!!*** */
         location_transformationMatrix = super.getUniformLocation("transformationMatrix");
-        location_viewMatrix = super.getUniformLocation("viewMatrix");
-        location_projectionMatrix = super.getUniformLocation("projectionMatrix");
-        location_lightPosition = super.getUniformLocation("lightPosition");
-        location_lightColour = super.getUniformLocation("lightColour");
+        location_positionOffset = super.getUniformLocation("positionOffset");
+        location_positionScale = super.getUniformLocation("positionScale");
         location_shineDamper = super.getUniformLocation("shineDamper");
         location_reflectivity = super.getUniformLocation("reflectivity");
         location_useFakeLighting = super.getUniformLocation("useFakeLighting");
-        location_skyColour = super.getUniformLocation("skyColour");
         location_numberOfRows = super.getUniformLocation("numberOfRows");
         location_offset = super.getUniformLocation("offset");
+        location_useInstancing = super.getUniformLocation("useInstancing");
     }
 
     public void loadNumberofRows(int numberOfRows) {
@@ -63,11 +57,7 @@ public class StaticShader extends ShaderProgram {
     }
 
     public void loadOffset(float x, float y) {
-        super.load2DVector(location_offset, new Vector2f(x, y));
-    }
-
-    public void loadSkyColour(float r, float g, float b) {
-        super.loadVector(location_skyColour, new Vector3f(r, g, b));
+        super.load2DVector(location_offset, x, y);
     }
 
     public void loadShineVariables(float shineDamper, float reflectivity) {
@@ -79,22 +69,18 @@ public class StaticShader extends ShaderProgram {
         super.loadBoolean(location_useFakeLighting, useFake);
     }
 
-    public void loadTransformationMatrix(Matrix4f matrix) {
-         super.loadMatrix(location_transformationMatrix, matrix);
-    }
-
-    public void loadViewMatrix(Camera camera) {
-        Matrix4f viewMatrix = Maths.createViewMatrix(camera);
-        super.loadMatrix(location_viewMatrix, viewMatrix);
+    public void loadUseInstancing(boolean useInstancing) {
+        super.loadBoolean(location_useInstancing, useInstancing);
     }
 
-    public void loadProjectionMatrix(Matrix4f matrix) {
-        super.loadMatrix(location_projectionMatrix, matrix);
+    /** Has to be loaded for every model, see RawModel.getPositionOffset(). */
+    public void loadPositionDequantization(RawModel model) {
+        super.loadVector(location_positionOffset, model.getPositionOffset());
+        super.loadVector(location_positionScale, model.getPositionScale());
     }
 
-    public void loadLight(Light light) {
-        super.loadVector(location_lightPosition, light.getPosition());
-        super.loadVector(location_lightColour, light.getColour());
+    public void loadTransformationMatrix(Matrix4f matrix) {
+         super.loadMatrix(location_transformationMatrix, matrix);
     }
 
 }
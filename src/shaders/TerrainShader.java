@@ -1,10 +1,7 @@
 package shaders;
 
-import entities.Camera;
-import entities.Light;
+import models.RawModel;
 import org.lwjgl.util.vector.Matrix4f;
-import org.lwjgl.util.vector.Vector3f;
-import toolbox.Maths;
 
 public class TerrainShader extends ShaderProgram {
 
@@ -12,13 +9,10 @@ public class TerrainShader extends ShaderProgram {
     public static final String FRAGMENT_FILE = "src/shaders/terrainFragmentShader.txt";
 
     private int location_transformationMatrix;
-    private int location_viewMatrix;
-    private int location_projectionMatrix;
-    private int location_lightPosition;
-    private int location_lightColour;
+    private int location_positionOffset;
+    private int location_positionScale;
     private int location_shineDamper;
     private int location_reflectivity;
-    private int location_skyColour;
     private int location_backgroundTexture;
     private int location_rTexture;
     private int location_gTexture;
@@ -48,13 +42,10 @@ public class TerrainShader extends ShaderProgram {
          *  *** VERY IMPORTANT THAT uniformName ARGUMENT IS EXACTLY THE NAME IN THE VERTEX AND
          *  FRAGMENT SHADER TXT FILES!!*** */
         location_transformationMatrix = super.getUniformLocation("transformationMatrix");
-        location_viewMatrix = super.getUniformLocation("viewMatrix");
-        location_projectionMatrix = super.getUniformLocation("projectionMatrix");
-        location_lightPosition = super.getUniformLocation("lightPosition");
-        location_lightColour = super.getUniformLocation("lightColour");
+        location_positionOffset = super.getUniformLocation("positionOffset");
+        location_positionScale = super.getUniformLocation("positionScale");
         location_shineDamper = super.getUniformLocation("shineDamper");
         location_reflectivity = super.getUniformLocation("reflectivity");
-        location_skyColour = super.getUniformLocation("skyColour");
         location_backgroundTexture = super.getUniformLocation("backgroundTexture");
         location_rTexture = super.getUniformLocation("rTexture");
         location_gTexture = super.getUniformLocation("gTexture");
@@ -70,31 +61,19 @@ public class TerrainShader extends ShaderProgram {
         super.loadInt(location_blendMap, 4);
     }
 
-    public void loadSkyColour(float r, float g, float b) {
-        super.loadVector(location_skyColour, new Vector3f(r, g, b));
-    }
-
     public void loadShineVariables(float shineDamper, float reflectivity) {
         super.loadFloat(location_shineDamper, shineDamper);
         super.loadFloat(location_reflectivity, reflectivity);
     }
 
-    public void loadTransformationMatrix(Matrix4f matrix) {
-        super.loadMatrix(location_transformationMatrix, matrix);
-    }
-
-    public void loadViewMatrix(Camera camera) {
-        Matrix4f viewMatrix = Maths.createViewMatrix(camera);
-        super.loadMatrix(location_viewMatrix, viewMatrix);
-    }
-
-    public void loadProjectionMatrix(Matrix4f matrix) {
-        super.loadMatrix(location_projectionMatrix, matrix);
+    /** Has to be loaded for every model, see RawModel.getPositionOffset(). */
+    public void loadPositionDequantization(RawModel model) {
+        super.loadVector(location_positionOffset, model.getPositionOffset());
+        super.loadVector(location_positionScale, model.getPositionScale());
     }
 
-    public void loadLight(Light light) {
-        super.loadVector(location_lightPosition, light.getPosition());
-        super.loadVector(location_lightColour, light.getColour());
+    public void loadTransformationMatrix(Matrix4f matrix) {
+        super.loadMatrix(location_transformationMatrix, matrix);
     }
 
 }
@@ -0,0 +1,98 @@
+package shaders;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import java.nio.ByteBuffer;
+
+/** Writes values into a buffer laid out like a GLSL uniform block with layout(std140), so that the members can
+ *  be put one after the other in the order the block declares them and end up at the offsets the shader reads.
+ *
+ *  The std140 rules for what our blocks use: scalars are aligned to 4 bytes, vec2 to 8, vec3 and vec4 to 16 (a
+ *  vec3 takes 12 bytes, so a following float fits into its last 4), and a mat4 is 4 vec4 columns. The size of
+ *  a whole block is rounded up to 16.
+ *
+ *  Doesn't touch OpenGL, so the layout of a block can be checked without a context.
+ */
+public class UniformBlockWriter {
+
+    private final ByteBuffer buffer;
+    private int offset;
+
+    /** The buffer must be in the machine's byte order (e.g. from BufferUtils) to be uploaded as is. */
+    public UniformBlockWriter(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /** Starts writing the block again from its first member. */
+    public void reset() {
+        offset = 0;
+    }
+
+    /** Offset (in bytes) of the next member, before its alignment. */
+    public int getOffset() {
+        return offset;
+    }
+
+    /** Size of the block written so far, as OpenGL counts it. */
+    public int getBlockSize() {
+        return align(offset, 16);
+    }
+
+    public UniformBlockWriter putFloat(float value) {
+        offset = align(offset, 4);
+        buffer.putFloat(offset, value);
+        offset += 4;
+        return this;
+    }
+
+    public UniformBlockWriter putInt(int value) {
+        offset = align(offset, 4);
+        buffer.putInt(offset, value);
+        offset += 4;
+        return this;
+    }
+
+    public UniformBlockWriter putVec2(float x, float y) {
+        offset = align(offset, 8);
+        buffer.putFloat(offset, x);
+        buffer.putFloat(offset + 4, y);
+        offset += 8;
+        return this;
+    }
+
+    public UniformBlockWriter putVec3(float x, float y, float z) {
+        offset = align(offset, 16);
+        buffer.putFloat(offset, x);
+        buffer.putFloat(offset + 4, y);
+        buffer.putFloat(offset + 8, z);
+        offset += 12;
+        return this;
+    }
+
+    public UniformBlockWriter putVec3(Vector3f vector) {
+        return putVec3(vector.x, vector.y, vector.z);
+    }
+
+    public UniformBlockWriter putVec4(float x, float y, float z, float w) {
+        offset = align(offset, 16);
+        buffer.putFloat(offset, x);
+        buffer.putFloat(offset + 4, y);
+        buffer.putFloat(offset + 8, z);
+        buffer.putFloat(offset + 12, w);
+        offset += 16;
+        return this;
+    }
+
+    /** Column major, like glUniformMatrix4 without transposing (LWJGL names its fields m<column><row>). */
+    public UniformBlockWriter putMat4(Matrix4f matrix) {
+        putVec4(matrix.m00, matrix.m01, matrix.m02, matrix.m03);
+        putVec4(matrix.m10, matrix.m11, matrix.m12, matrix.m13);
+        putVec4(matrix.m20, matrix.m21, matrix.m22, matrix.m23);
+        return putVec4(matrix.m30, matrix.m31, matrix.m32, matrix.m33);
+    }
+
+    private static int align(int offset, int alignment) {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+}
@@ -1,24 +1,43 @@
 package terrains;
 
 import models.RawModel;
-import org.lwjgl.util.vector.Vector2f;
-import org.lwjgl.util.vector.Vector3f;
 import renderEngine.Loader;
+import renderEngine.VertexFormat;
 import textures.TerrainTexture;
 import textures.TerrainTexturePack;
+import toolbox.Frustum;
 import toolbox.Maths;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
 
 public class Terrain {
 
-    private static final float SIZE = 800;
+    public static final float SIZE = 800;
     private static final float MAX_HEIGHT = 40;
     private static final float MAX_PIXEL_COLOUR = 256 * 256 * 256;
 
+    private static final int CHUNK_QUADS = 32;      // Rough size of a chunk, in grid squares per side.
+    private static final int MAX_LOD = 4;           // LOD 4 uses every 16th vertex.
+
+    /** Quantized positions and packed normals, 20 bytes a vertex. The texture coordinates stay floats because the
+     *  fragment shader tiles them 40 times, which would blow half float rounding up to a few texels. */
+    private static final VertexFormat VERTEX_FORMAT = new VertexFormat(true, false, true);
+
+    private static final ForkJoinPool FORK_JOIN_POOL = ForkJoinPool.commonPool();
+    private static final int HEIGHT_BAND_ROWS = 64;          // Height map rows decoded per parallel task.
+
+    private static final int PARALLEL_BATCH_THRESHOLD = 16384;   // Smaller height batches aren't worth splitting.
+    private static final int BATCH_BLOCK_SIZE = 4096;
+
+    private int gridX;
+    private int gridZ;
     private float x;
     private float z;
 
@@ -26,77 +45,219 @@ public class Terrain {
     private TerrainTexturePack texturePack;
     private TerrainTexture blendMap;
 
-    private float[][] heights;
+    private float[] heights;            // Row major, heights[z * vertexCount + x].
+    private int vertexCount;
+    private TerrainChunk[] chunks;
+    private TerrainLodPatterns lodPatterns;
+    private TerrainQuadtree quadtree;
+    private float minHeight = Float.MAX_VALUE;
+    private float maxHeight = -Float.MAX_VALUE;
+
+    /** Mesh waiting to be uploaded, only kept between construction and upload(). */
+    private float[] meshVertices;
+    private float[] meshTextureCoords;
+    private float[] meshNormals;
+    private int[] meshIndices;
+    private long gpuBytes;
 
     public Terrain(int gridX, int gridZ, Loader loader, TerrainTexturePack texturePack,
                    TerrainTexture blendMap, String heightMap) {
+        this(gridX, gridZ, texturePack, blendMap, heightMap);
+        upload(loader);
+    }
+
+    /** Only does the CPU side of building a terrain (reading the height map, generating the mesh), so it can run
+     *  on any thread. The terrain can't be rendered until upload() has been called on the OpenGL thread. */
+    public Terrain(int gridX, int gridZ, TerrainTexturePack texturePack, TerrainTexture blendMap,
+                   String heightMap) {
+        this.gridX = gridX;
+        this.gridZ = gridZ;
+        this.x = gridX * SIZE;
+        this.z = gridZ * SIZE;
+        this.texturePack = texturePack;
+        this.blendMap = blendMap;
+        generateTerrain(heightMap);
+    }
+
+    /** Same as above with a height map that is already decoded (or made up, like a procedural one). */
+    public Terrain(int gridX, int gridZ, TerrainTexturePack texturePack, TerrainTexture blendMap,
+                   BufferedImage heightMap) {
+        this.gridX = gridX;
+        this.gridZ = gridZ;
         this.x = gridX * SIZE;
         this.z = gridZ * SIZE;
         this.texturePack = texturePack;
         this.blendMap = blendMap;
-        model = generateTerrain(loader, heightMap);
+        generateTerrain(heightMap);
+    }
+
+    /** Sends the generated mesh to the GPU and lets go of the CPU copy. Must be called on the OpenGL thread. */
+    public void upload(Loader loader) {
+        if (model != null) {
+            return;
+        }
+        model = loader.loadToVAO(meshVertices, meshTextureCoords, meshNormals, meshIndices, VERTEX_FORMAT);
+        gpuBytes = (long) (meshVertices.length / 3) * VERTEX_FORMAT.getStride()
+                + (long) meshIndices.length * model.getIndexSize();
+        meshVertices = null;
+        meshTextureCoords = null;
+        meshNormals = null;
+        meshIndices = null;
+    }
+
+    public boolean isUploaded() {
+        return model != null;
+    }
+
+    /** Memory the terrain keeps on the CPU (heights for collision) and on the GPU (vertex and index buffers). */
+    public long getCpuBytes() {
+        return heights.length * 4L;
     }
 
-    private RawModel generateTerrain(Loader loader, String heightMap) {
+    public long getGpuBytes() {
+        return gpuBytes;
+    }
+
+    private void generateTerrain(String heightMap) {
         BufferedImage image = null;
         try {
             image = ImageIO.read(new File("res/" + heightMap + ".png"));
         } catch (IOException e) {
             e.printStackTrace();
         }
+        generateTerrain(image);
+    }
 
+    private void generateTerrain(BufferedImage image) {
         int VERTEX_COUNT = image.getHeight();
-        heights = new float[VERTEX_COUNT][VERTEX_COUNT];
-        int count = VERTEX_COUNT * VERTEX_COUNT;
-        float[] vertices = new float[count * 3];
-        float[] normals = new float[count * 3];
-        float[] textureCoords = new float[count*2];
-        int[] indices = new int[6*(VERTEX_COUNT-1)*(VERTEX_COUNT-1)];
-        int vertexPointer = 0;
-        for(int i=0;i<VERTEX_COUNT;i++){
-            for(int j=0;j<VERTEX_COUNT;j++){
-                vertices[vertexPointer * 3] = (float)j/((float)VERTEX_COUNT - 1) * SIZE;
-                float height = getHeight(j, i, image);
-                heights[j][i] = height;
-                vertices[vertexPointer * 3 + 1] = height;
-                vertices[vertexPointer * 3 + 2] = (float)i/((float)VERTEX_COUNT - 1) * SIZE;
-                Vector3f normal = calculateNormals(j, i, image);
-                normals[vertexPointer * 3] = normal.x;
-                normals[vertexPointer * 3 + 1] = normal.y;
-                normals[vertexPointer * 3 + 2] = normal.z;
-                textureCoords[vertexPointer * 2] = (float)j/((float)VERTEX_COUNT - 1);
-                textureCoords[vertexPointer * 2 + 1] = (float)i/((float)VERTEX_COUNT - 1);
-                vertexPointer++;
+        vertexCount = VERTEX_COUNT;
+        heights = readHeights(image, VERTEX_COUNT);
+        for (float height : heights) {
+            minHeight = Math.min(minHeight, height);
+            maxHeight = Math.max(maxHeight, height);
+        }
+        buildChunks(VERTEX_COUNT);
+    }
+
+    /** Reads the whole raster once (one bulk getRGB per row band, in parallel) and turns it into heights,
+     *  instead of going through BufferedImage.getRGB five times for every vertex. */
+    private static float[] readHeights(BufferedImage image, int vertexCount) {
+        float[] heights = new float[vertexCount * vertexCount];
+        FORK_JOIN_POOL.invoke(new RowBandTask(0, vertexCount, HEIGHT_BAND_ROWS, (from, to) -> {
+            int[] pixels = image.getRGB(0, from, vertexCount, to - from, null, 0, vertexCount);
+            for (int i = 0; i < pixels.length; i++) {
+                heights[from * vertexCount + i] = toHeight(pixels[i]);
+            }
+        }));
+        return heights;
+    }
+
+    /** Splits the grid into chunks of about CHUNK_QUADS squares and generates every chunk's vertices into its own
+     *  block (see TerrainChunk). The rows of chunks are generated in parallel, each vertex straight from the
+     *  heights array. The mesh is kept, together with all the LOD index patterns the chunks can use, for upload. */
+    private void buildChunks(int vertexCount) {
+        int quads = vertexCount - 1;
+        int chunksPerSide = Math.max(1, (quads + CHUNK_QUADS - 1) / CHUNK_QUADS);
+        int[] bounds = new int[chunksPerSide + 1];       // Grid vertex where every chunk starts, spread evenly.
+        for (int i = 0; i <= chunksPerSide; i++) {
+            bounds[i] = Math.round((float) i * quads / chunksPerSide);
+        }
+
+        lodPatterns = new TerrainLodPatterns(MAX_LOD, 4);
+        chunks = new TerrainChunk[chunksPerSide * chunksPerSide];
+        int totalVertices = 0;
+        for (int cz = 0; cz < chunksPerSide; cz++) {
+            for (int cx = 0; cx < chunksPerSide; cx++) {
+                int quadsX = bounds[cx + 1] - bounds[cx];
+                int quadsZ = bounds[cz + 1] - bounds[cz];
+                chunks[cz * chunksPerSide + cx] = new TerrainChunk(cx, cz, bounds[cx], bounds[cz], quadsX, quadsZ,
+                        totalVertices, lodPatterns.getPatternBase(quadsX, quadsZ),
+                        lodPatterns.maxLodFor(quadsX, quadsZ));
+                totalVertices += (quadsX + 1) * (quadsZ + 1);
             }
         }
-        int pointer = 0;
-        for(int gz=0;gz<VERTEX_COUNT-1;gz++){
-            for(int gx=0;gx<VERTEX_COUNT-1;gx++){
-                int topLeft = (gz*VERTEX_COUNT)+gx;
-                int topRight = topLeft + 1;
-                int bottomLeft = ((gz+1)*VERTEX_COUNT)+gx;
-                int bottomRight = bottomLeft + 1;
-                indices[pointer++] = topLeft;
-                indices[pointer++] = bottomLeft;
-                indices[pointer++] = topRight;
-                indices[pointer++] = topRight;
-                indices[pointer++] = bottomLeft;
-                indices[pointer++] = bottomRight;
+
+        meshVertices = new float[totalVertices * 3];
+        meshNormals = new float[totalVertices * 3];
+        meshTextureCoords = new float[totalVertices * 2];
+        FORK_JOIN_POOL.invoke(new RowBandTask(0, chunksPerSide, 1, (from, to) -> {
+            for (int i = from * chunksPerSide; i < to * chunksPerSide; i++) {
+                generateChunk(chunks[i]);
+            }
+        }));
+        quadtree = new TerrainQuadtree(chunks, chunksPerSide, chunksPerSide);
+        meshIndices = lodPatterns.getIndices();
+    }
+
+    private void generateChunk(TerrainChunk chunk) {
+        int VERTEX_COUNT = vertexCount;
+        int vertexPointer = chunk.getBaseVertex();
+        float chunkMin = Float.MAX_VALUE;
+        float chunkMax = -Float.MAX_VALUE;
+        for (int i = chunk.getStartZ(); i <= chunk.getStartZ() + chunk.getQuadsZ(); i++) {
+            for (int j = chunk.getStartX(); j <= chunk.getStartX() + chunk.getQuadsX(); j++) {
+                float height = heights[i * VERTEX_COUNT + j];
+                chunkMin = Math.min(chunkMin, height);
+                chunkMax = Math.max(chunkMax, height);
+                meshVertices[vertexPointer * 3] = (float)j/((float)VERTEX_COUNT - 1) * SIZE;
+                meshVertices[vertexPointer * 3 + 1] = height;
+                meshVertices[vertexPointer * 3 + 2] = (float)i/((float)VERTEX_COUNT - 1) * SIZE;
+                storeNormal(j, i, vertexPointer * 3);
+                meshTextureCoords[vertexPointer * 2] = (float)j/((float)VERTEX_COUNT - 1);
+                meshTextureCoords[vertexPointer * 2 + 1] = (float)i/((float)VERTEX_COUNT - 1);
+                vertexPointer++;
             }
         }
-        return loader.loadToVAO(vertices, textureCoords, normals, indices);
+        float gridSquareSize = SIZE / ((float) (VERTEX_COUNT - 1));
+        chunk.setBounds(x + chunk.getStartX() * gridSquareSize, chunkMin, z + chunk.getStartZ() * gridSquareSize,
+                x + (chunk.getStartX() + chunk.getQuadsX()) * gridSquareSize, chunkMax,
+                z + (chunk.getStartZ() + chunk.getQuadsZ()) * gridSquareSize);
+    }
+
+    /** Adds the chunks of this terrain that are inside the frustum to visible, with the LOD chosen for them by
+     *  TerrainWorld.selectLods(). */
+    public void selectChunks(Frustum frustum, List<TerrainChunk> visible) {
+        quadtree.selectChunks(frustum, visible);
     }
 
     public float getHeightOfTerrain(float worldX, float worldZ) {
-        float terrainX = worldX - this.x;   /** X position of entity (player) relative to the Terrain Grid */
-        float terrainZ = worldZ - this.z;   /** Z position of entity (player) relative to the Terrain Grid */
-        float gridSquareSize = SIZE / ((float) (heights.length - 1));  /** Size of a singular square on a T. Grid */
+        return heightAt(worldX - this.x, worldZ - this.z);
+    }
+
+    /** Batch version of getHeightOfTerrain: heightsOut[i] = height under (worldX[i], worldZ[i]) for i < count.
+     *  Large batches (placing thousands of objects on the ground) are split into blocks that run in parallel. */
+    public void getHeightsOfTerrain(float[] worldX, float[] worldZ, float[] heightsOut, int count) {
+        if (count < PARALLEL_BATCH_THRESHOLD) {
+            getHeights(worldX, worldZ, heightsOut, 0, count);
+            return;
+        }
+        int blocks = (count + BATCH_BLOCK_SIZE - 1) / BATCH_BLOCK_SIZE;
+        IntStream.range(0, blocks).parallel().forEach(block -> getHeights(worldX, worldZ, heightsOut,
+                block * BATCH_BLOCK_SIZE, Math.min(count, (block + 1) * BATCH_BLOCK_SIZE)));
+    }
+
+    public void getHeightsOfTerrain(float[] worldX, float[] worldZ, float[] heightsOut) {
+        getHeightsOfTerrain(worldX, worldZ, heightsOut, worldX.length);
+    }
+
+    private void getHeights(float[] worldX, float[] worldZ, float[] heightsOut, int from, int to) {
+        float terrainX = this.x;
+        float terrainZ = this.z;
+        for (int i = from; i < to; i++) {
+            heightsOut[i] = heightAt(worldX[i] - terrainX, worldZ[i] - terrainZ);
+        }
+    }
+
+    /** terrainX and terrainZ are the position of the entity (player) relative to the Terrain Grid.
+     *  Doesn't allocate anything, it's called every frame by the player and for every object placed on the ground. */
+    private float heightAt(float terrainX, float terrainZ) {
+        float gridSquareSize = SIZE / ((float) (vertexCount - 1));  /** Size of a singular square on a T. Grid */
 
         /** "Converts" from POSITION in world space, to TILE NUMBER in terrain grid.
             e.g., a world position of (13,8) rel. to terrain corresponds to the (2,1) tile in terrain grid. */
         int gridX = (int) Math.floor(terrainX / gridSquareSize);
         int gridZ = (int) Math.floor(terrainZ / gridSquareSize);
-        if (gridX >= heights.length - 1 || gridZ >= heights.length - 1 || gridX < 0 || gridZ < 0) {
+        if (terrainX > SIZE || terrainZ > SIZE || gridX < 0 || gridZ < 0) {
             return 0;
         }
 
@@ -105,8 +266,19 @@ public class Terrain {
          * 0 <= zCoord <= 1        */
         float xCoord = (terrainX % gridSquareSize) / gridSquareSize;
         float zCoord = (terrainZ % gridSquareSize) / gridSquareSize;
-        float answer = 0;
+        /** A position right on the far edge (which happens when a TerrainWorld hands over between tiles)
+         *  belongs to the last square, at its far side, instead of falling off the terrain. */
+        if (gridX >= vertexCount - 1) {
+            gridX = vertexCount - 2;
+            xCoord = 1;
+        }
+        if (gridZ >= vertexCount - 1) {
+            gridZ = vertexCount - 2;
+            zCoord = 1;
+        }
 
+        int topLeft = gridZ * vertexCount + gridX;      // heights is row major: (x, z) is at z * vertexCount + x.
+        int bottomLeft = topLeft + vertexCount;
         /** Based on the fact that each square on the grid is interpreted as 2 triangles by renderer.
          *  The diagonal line on the square is xCoord = 1 - zCoord.
          *  Therefore anything below the diagonal is represented by xCoord < 1 - zCoord and
@@ -116,38 +288,43 @@ public class Terrain {
          *  interpolate (approximate) the height of any point inside the area of the triangle.
          */
         if (xCoord <= (1 - zCoord)) {
-            answer = Maths.barryCentric(new Vector3f(0, heights[gridX][gridZ], 0), new Vector3f(1,
-                    heights[gridX + 1][gridZ], 0), new Vector3f(0,
-                    heights[gridX][gridZ + 1], 1), new Vector2f(xCoord, zCoord));
+            return Maths.barryCentric(0, heights[topLeft], 0, 1, heights[topLeft + 1], 0,
+                    0, heights[bottomLeft], 1, xCoord, zCoord);
         } else {
-            answer = Maths.barryCentric(new Vector3f(1, heights[gridX + 1][gridZ], 0), new Vector3f(1,
-                    heights[gridX + 1][gridZ + 1], 1), new Vector3f(0,
-                    heights[gridX][gridZ + 1], 1), new Vector2f(xCoord, zCoord));
+            return Maths.barryCentric(1, heights[topLeft + 1], 0, 1, heights[bottomLeft + 1], 1,
+                    0, heights[bottomLeft], 1, xCoord, zCoord);
         }
-
-        return answer;
     }
 
-    private Vector3f calculateNormals(int x, int z, BufferedImage image) {
+    private void storeNormal(int x, int z, int pointer) {
         /** Determines normal vectors for each pixel based on adjacent pixels */
-        float heightL = getHeight(x - 1, z, image);
-        float heightR = getHeight(x + 1, z, image);
-        float heightD = getHeight(x, z - 1, image);
-        float heightU = getHeight(x, z + 1, image);
+        float heightL = heightOrZero(x - 1, z);
+        float heightR = heightOrZero(x + 1, z);
+        float heightD = heightOrZero(x, z - 1);
+        float heightU = heightOrZero(x, z + 1);
 
-        Vector3f normal = new Vector3f(heightL - heightR, 2f, heightD - heightU);
-        normal.normalise();     // Makes normal a unit vector. (length = 1)
-        return normal;
+        /** Same maths as Vector3f(heightL - heightR, 2f, heightD - heightU).normalise(), without the object. */
+        float normalX = heightL - heightR;
+        float normalY = 2f;
+        float normalZ = heightD - heightU;
+        float length = (float) Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+        float scale = 1.0f / length;     // Makes normal a unit vector. (length = 1)
+        meshNormals[pointer] = normalX * scale;
+        meshNormals[pointer + 1] = normalY * scale;
+        meshNormals[pointer + 2] = normalZ * scale;
     }
 
-
-    /** This method computes height of the terrain based on a noise map png file
-     * and assigns a height to each vertex on the terrain grid.   */
-    private float getHeight (int x, int z, BufferedImage image) {
-        if (x < 0 || x >= image.getHeight() || z < 0 || z >= image.getHeight()) {
+    private float heightOrZero(int x, int z) {
+        if (x < 0 || x >= vertexCount || z < 0 || z >= vertexCount) {
             return 0;
         }
-        float height = image.getRGB(x, z);
+        return heights[z * vertexCount + x];
+    }
+
+    /** This method computes height of the terrain based on a noise map pixel
+     * and assigns a height to each vertex on the terrain grid.   */
+    private static float toHeight(int rgb) {
+        float height = rgb;
         height += MAX_PIXEL_COLOUR / 2f;       // -M_P_C/2 < height < M_P_C/2
         height /= MAX_PIXEL_COLOUR / 2f;       // -1 < height < 1
         height *= MAX_HEIGHT;                  // -MAX_HEIGHT < height < MAX_HEIGHT
@@ -155,6 +332,44 @@ public class Terrain {
         return height;
     }
 
+    /** Runs body over [from, to) split into bands of at most bandSize rows, spread over the fork/join pool. */
+    private static class RowBandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        interface Body {
+            void run(int from, int to);
+        }
+
+        private final int from, to, bandSize;
+        private final Body body;
+
+        RowBandTask(int from, int to, int bandSize, Body body) {
+            this.from = from;
+            this.to = to;
+            this.bandSize = bandSize;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= bandSize) {
+                body.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RowBandTask(from, middle, bandSize, body), new RowBandTask(middle, to, bandSize, body));
+        }
+    }
+
+    public int getGridX() {
+        return gridX;
+    }
+
+    public int getGridZ() {
+        return gridZ;
+    }
+
     public float getX() {
         return x;
     }
@@ -163,10 +378,27 @@ public class Terrain {
         return z;
     }
 
+    /** Lowest and highest vertex of the terrain, together with x/z and SIZE they make its bounding box. */
+    public float getMinHeight() {
+        return minHeight;
+    }
+
+    public float getMaxHeight() {
+        return maxHeight;
+    }
+
     public RawModel getModel() {
         return model;
     }
 
+    public TerrainLodPatterns getLodPatterns() {
+        return lodPatterns;
+    }
+
+    public TerrainQuadtree getQuadtree() {
+        return quadtree;
+    }
+
     public TerrainTexturePack getTexturePack() {
         return texturePack;
     }
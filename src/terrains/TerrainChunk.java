@@ -0,0 +1,129 @@
+package terrains;
+
+/** A rectangular piece of a Terrain, quadsX by quadsZ grid squares starting at grid vertex (startX, startZ).
+ *  Every chunk owns its own block of vertices in the terrain's VAO (border vertices are duplicated between
+ *  neighbouring chunks), so the same index pattern can be drawn for any chunk of the same size just by
+ *  passing the chunk's baseVertex to glDrawElementsBaseVertex.
+ */
+public class TerrainChunk {
+
+    private final int chunkX, chunkZ;          // Position in the grid of chunks.
+    private final int startX, startZ;          // First grid vertex covered by the chunk.
+    private final int quadsX, quadsZ;
+    private final int baseVertex;              // Index of the chunk's first vertex in the terrain's vertex buffer.
+    private final int patternBase;             // First index pattern for chunks of this size, see TerrainLodPatterns.
+    private final int maxLod;
+
+    /** Bounding box in World Space. */
+    private float minX, minY, minZ, maxX, maxY, maxZ;
+
+    private int lod;                           // Chosen every frame by the TerrainQuadtree.
+    private int edgeMask;                      // Edges that are stitched to a coarser neighbour.
+
+    public TerrainChunk(int chunkX, int chunkZ, int startX, int startZ, int quadsX, int quadsZ, int baseVertex,
+                        int patternBase, int maxLod) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.startX = startX;
+        this.startZ = startZ;
+        this.quadsX = quadsX;
+        this.quadsZ = quadsZ;
+        this.baseVertex = baseVertex;
+        this.patternBase = patternBase;
+        this.maxLod = maxLod;
+    }
+
+    public void setBounds(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+    }
+
+    /** Distance from a point to the closest point of the chunk's bounding box (0 if the point is inside). */
+    public float distanceTo(float x, float y, float z) {
+        float dx = Math.max(Math.max(minX - x, x - maxX), 0);
+        float dy = Math.max(Math.max(minY - y, y - maxY), 0);
+        float dz = Math.max(Math.max(minZ - z, z - maxZ), 0);
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /** The index pattern to draw for the current lod and edge mask. */
+    public int getPatternId() {
+        return TerrainLodPatterns.patternId(patternBase, lod, edgeMask);
+    }
+
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    public int getStartX() {
+        return startX;
+    }
+
+    public int getStartZ() {
+        return startZ;
+    }
+
+    public int getQuadsX() {
+        return quadsX;
+    }
+
+    public int getQuadsZ() {
+        return quadsZ;
+    }
+
+    public int getBaseVertex() {
+        return baseVertex;
+    }
+
+    public int getMaxLod() {
+        return maxLod;
+    }
+
+    public int getLod() {
+        return lod;
+    }
+
+    public void setLod(int lod) {
+        this.lod = lod;
+    }
+
+    public int getEdgeMask() {
+        return edgeMask;
+    }
+
+    public void setEdgeMask(int edgeMask) {
+        this.edgeMask = edgeMask;
+    }
+
+    public float getMinX() {
+        return minX;
+    }
+
+    public float getMinY() {
+        return minY;
+    }
+
+    public float getMinZ() {
+        return minZ;
+    }
+
+    public float getMaxX() {
+        return maxX;
+    }
+
+    public float getMaxY() {
+        return maxY;
+    }
+
+    public float getMaxZ() {
+        return maxZ;
+    }
+}
@@ -0,0 +1,280 @@
+package terrains;
+
+import toolbox.VertexCacheOptimizer;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Builds every index pattern a chunk can be drawn with and keeps them in one index array.
+ *
+ *  At level of detail (LOD) l a chunk only uses every 2^l-th grid vertex in each direction (plus its last row and
+ *  column, so chunks whose size isn't a power of two still close up). Two neighbouring chunks at different LODs
+ *  would leave cracks along their shared edge, because the finer one has vertices on that edge that the coarser
+ *  one skips. To stitch them, the outermost ring of every pattern is triangulated separately: the ring between
+ *  the chunk's edge and the first inner row is "zipped" from the vertices on both lines, and the edge line can use
+ *  the step of a coarser neighbour. So every (size, lod) has 16 variants, one for each combination of edges
+ *  that border a coarser chunk. The TerrainQuadtree makes sure neighbours never differ by more than one LOD.
+ *
+ *  Indices are local to a chunk (row major, (quadsX + 1) vertices per row); chunks add their baseVertex at draw
+ *  time. Triangles are wound the same way as the original full terrain mesh (facing +y). Each pattern's
+ *  triangles are reordered for the vertex cache once it's built; the vertices stay in grid order, which the
+ *  chunks and all their patterns share.
+ */
+public class TerrainLodPatterns {
+
+    /** Bits of the edge mask: NORTH is the z = 0 edge of the chunk, SOUTH z = quadsZ, WEST x = 0, EAST x = quadsX. */
+    public static final int NORTH = 1, EAST = 2, SOUTH = 4, WEST = 8;
+    public static final int EDGE_VARIANTS = 16;
+
+    /** Every terrain has chunks of the same few sizes, so the (optimized) patterns are built once and shared by
+     *  all of them; terrains are built on the AssetPipeline's workers, hence the concurrent map. */
+    private static final Map<Long, OptimizedPattern> OPTIMIZED_PATTERNS = new ConcurrentHashMap<>();
+
+    private final int maxLod;
+    private final int[] sizeX;                 // Chunk size of each block of patterns.
+    private final int[] sizeZ;
+    private int blockCount = 0;
+
+    private int[] offsets = new int[0];
+    private int[] counts = new int[0];
+    private int[] indices = new int[1024];
+    private int indexCount = 0;
+    private double missesBefore = 0;          // Simulated vertex cache misses of all patterns, for getACMR().
+    private double missesAfter = 0;
+
+    public TerrainLodPatterns(int maxLod, int maxBlocks) {
+        this.maxLod = maxLod;
+        this.sizeX = new int[maxBlocks];
+        this.sizeZ = new int[maxBlocks];
+    }
+
+    public static int patternId(int patternBase, int lod, int edgeMask) {
+        return patternBase + lod * EDGE_VARIANTS + edgeMask;
+    }
+
+    /** Highest LOD that still leaves a chunk of this size with at least one inner row and column. */
+    public int maxLodFor(int quadsX, int quadsZ) {
+        int lod = 0;
+        while (lod < maxLod && (2 << lod) < Math.min(quadsX, quadsZ)) {
+            lod++;
+        }
+        return lod;
+    }
+
+    /** Returns the pattern base for chunks of the given size, building its patterns the first time. */
+    public int getPatternBase(int quadsX, int quadsZ) {
+        int patternsPerBlock = (maxLod + 1) * EDGE_VARIANTS;
+        for (int i = 0; i < blockCount; i++) {
+            if (sizeX[i] == quadsX && sizeZ[i] == quadsZ) {
+                return i * patternsPerBlock;
+            }
+        }
+        int block = blockCount++;
+        sizeX[block] = quadsX;
+        sizeZ[block] = quadsZ;
+        offsets = Arrays.copyOf(offsets, blockCount * patternsPerBlock);
+        counts = Arrays.copyOf(counts, blockCount * patternsPerBlock);
+        int chunkMaxLod = maxLodFor(quadsX, quadsZ);
+        for (int lod = 0; lod <= maxLod; lod++) {
+            for (int mask = 0; mask < EDGE_VARIANTS; mask++) {
+                int pattern = patternId(block * patternsPerBlock, lod, mask);
+                offsets[pattern] = indexCount;
+                if (lod <= chunkMaxLod) {        // Higher LODs are never selected for this size, leave them empty.
+                    addPattern(quadsX, quadsZ, lod, mask);
+                }
+                counts[pattern] = indexCount - offsets[pattern];
+            }
+        }
+        return block * patternsPerBlock;
+    }
+
+    /** Offset of the pattern's first index in getIndices(), in indices (not bytes). */
+    public int getOffset(int pattern) {
+        return offsets[pattern];
+    }
+
+    public int getCount(int pattern) {
+        return counts[pattern];
+    }
+
+    public int[] getIndices() {
+        return Arrays.copyOf(indices, indexCount);
+    }
+
+    /** ACMR (see VertexCacheOptimizer) over all patterns built so far, before or after their optimization. */
+    public float getACMR(boolean optimized) {
+        return indexCount == 0 ? 0 : (float) ((optimized ? missesAfter : missesBefore) / (indexCount / 3));
+    }
+
+    private void addPattern(int quadsX, int quadsZ, int lod, int mask) {
+        long key = ((long) quadsX << 32) | ((long) quadsZ << 16) | (lod << 4) | mask;
+        OptimizedPattern optimized = OPTIMIZED_PATTERNS.get(key);
+        if (optimized == null) {
+            // Built outside the map: optimizing takes a while, and computeIfAbsent would hold the map's lock (and
+            // block other workers wanting the same bin) all that time. Two workers may build the same pattern;
+            // they come out identical, and putIfAbsent makes every terrain use the first.
+            PatternBuilder builder = new PatternBuilder(quadsX + 1);
+            builder.build(quadsX, quadsZ, lod, mask);
+            optimized = new OptimizedPattern(builder.toArray());
+            OptimizedPattern existing = OPTIMIZED_PATTERNS.putIfAbsent(key, optimized);
+            if (existing != null) {
+                optimized = existing;
+            }
+        }
+        for (int index : optimized.indices) {
+            add(index);
+        }
+        int triangles = optimized.indices.length / 3;
+        missesBefore += optimized.acmrBefore * triangles;
+        missesAfter += optimized.acmrAfter * triangles;
+    }
+
+    private static int edgeStep(int step, int mask, int edge) {
+        return (mask & edge) != 0 ? step * 2 : step;
+    }
+
+    /** 0, step, 2 * step, ... and always the last vertex (quads). */
+    private static int[] samples(int quads, int step) {
+        int count = (quads + step - 1) / step + 1;
+        int[] samples = new int[count];
+        for (int i = 0; i < count - 1; i++) {
+            samples[i] = i * step;
+        }
+        samples[count - 1] = quads;
+        return samples;
+    }
+
+    /** Packs a grid point as x | z << 16, which is plenty for a chunk. */
+    private static int point(int along, int across, boolean horizontal) {
+        return horizontal ? along | (across << 16) : across | (along << 16);
+    }
+
+    private void add(int index) {
+        if (indexCount == indices.length) {
+            indices = Arrays.copyOf(indices, indices.length * 2);
+        }
+        indices[indexCount++] = index;
+    }
+
+    /** Collects the triangles of one pattern, so building it doesn't touch the (shared) index array. */
+    private static class PatternBuilder {
+
+        private final int rowLength;
+        private int[] indices = new int[256];
+        private int count = 0;
+
+        private PatternBuilder(int rowLength) {
+            this.rowLength = rowLength;
+        }
+
+        private void build(int quadsX, int quadsZ, int lod, int mask) {
+            int step = 1 << lod;
+            int[] xs = samples(quadsX, step);
+            int[] zs = samples(quadsZ, step);
+            if (xs.length < 3 || zs.length < 3) {     // Too small to have an inner ring, just a plain grid.
+                for (int zi = 0; zi < zs.length - 1; zi++) {
+                    for (int xi = 0; xi < xs.length - 1; xi++) {
+                        addQuad(xs[xi], zs[zi], xs[xi + 1], zs[zi + 1]);
+                    }
+                }
+                return;
+            }
+            int lastX = xs.length - 2;             // Index of the last inner column / row.
+            int lastZ = zs.length - 2;
+            for (int zi = 1; zi < lastZ; zi++) {
+                for (int xi = 1; xi < lastX; xi++) {
+                    addQuad(xs[xi], zs[zi], xs[xi + 1], zs[zi + 1]);
+                }
+            }
+            int[] innerXs = Arrays.copyOfRange(xs, 1, lastX + 1);
+            int[] innerZs = Arrays.copyOfRange(zs, 1, lastZ + 1);
+            int[] northEdge = samples(quadsX, edgeStep(step, mask, NORTH));
+            int[] southEdge = samples(quadsX, edgeStep(step, mask, SOUTH));
+            int[] westEdge = samples(quadsZ, edgeStep(step, mask, WEST));
+            int[] eastEdge = samples(quadsZ, edgeStep(step, mask, EAST));
+            zip(northEdge, 0, innerXs, zs[1], true);
+            zip(southEdge, quadsZ, innerXs, zs[lastZ], true);
+            zip(westEdge, 0, innerZs, xs[1], false);
+            zip(eastEdge, quadsX, innerZs, xs[lastX], false);
+        }
+
+        /** Triangulates the strip between the chunk's edge line (at fixed coordinate edge) and the first inner line
+         *  (at fixed coordinate inner), walking along both like a zip: each triangle advances along whichever line
+         *  is behind. horizontal means the lines run along x (north / south edges). */
+        private void zip(int[] outer, int edge, int[] inner, int innerLine, boolean horizontal) {
+            int i = 0;
+            int j = 0;
+            while (i < outer.length - 1 || j < inner.length - 1) {
+                boolean advanceOuter = j == inner.length - 1
+                        || (i < outer.length - 1 && outer[i + 1] <= inner[j + 1]);
+                if (advanceOuter) {
+                    addTriangle(point(outer[i], edge, horizontal), point(outer[i + 1], edge, horizontal),
+                            point(inner[j], innerLine, horizontal));
+                    i++;
+                } else {
+                    addTriangle(point(outer[i], edge, horizontal), point(inner[j + 1], innerLine, horizontal),
+                            point(inner[j], innerLine, horizontal));
+                    j++;
+                }
+            }
+        }
+
+        private void addQuad(int x0, int z0, int x1, int z1) {
+            int topLeft = z0 * rowLength + x0;
+            int topRight = z0 * rowLength + x1;
+            int bottomLeft = z1 * rowLength + x0;
+            int bottomRight = z1 * rowLength + x1;
+            add(topLeft);
+            add(bottomLeft);
+            add(topRight);
+            add(topRight);
+            add(bottomLeft);
+            add(bottomRight);
+        }
+
+        /** Adds the triangle wound like the quads above (normal pointing up), skipping degenerate ones. */
+        private void addTriangle(int a, int b, int c) {
+            int ax = a & 0xFFFF, az = a >>> 16;
+            int bx = b & 0xFFFF, bz = b >>> 16;
+            int cx = c & 0xFFFF, cz = c >>> 16;
+            int winding = (bz - az) * (cx - ax) - (bx - ax) * (cz - az);
+            if (winding == 0) {
+                return;
+            }
+            if (winding < 0) {
+                int tx = bx, tz = bz;
+                bx = cx; bz = cz;
+                cx = tx; cz = tz;
+            }
+            add(az * rowLength + ax);
+            add(bz * rowLength + bx);
+            add(cz * rowLength + cx);
+        }
+
+        private void add(int index) {
+            if (count == indices.length) {
+                indices = Arrays.copyOf(indices, indices.length * 2);
+            }
+            indices[count++] = index;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(indices, count);
+        }
+    }
+
+    private static class OptimizedPattern {
+
+        private final int[] indices;
+        private final float acmrBefore;
+        private final float acmrAfter;
+
+        private OptimizedPattern(int[] indices) {
+            this.acmrBefore = VertexCacheOptimizer.calculateACMR(indices);
+            VertexCacheOptimizer.optimizeTriangles(indices, 0, indices.length);
+            this.acmrAfter = VertexCacheOptimizer.calculateACMR(indices);
+            this.indices = indices;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package terrains;
+
+import toolbox.Frustum;
+
+import java.util.List;
+
+/** Quadtree over the grid of chunks of one Terrain. Every node stores the bounding box of all the chunks below it,
+ *  so whole quarters of the terrain can be thrown away (or accepted) with a single frustum test.
+ *
+ *  It also picks the level of detail of every chunk from its distance to the camera: LOD 0 closer than
+ *  LOD_DISTANCE, then one level coarser every time the distance doubles. Neighbouring chunks are then forced
+ *  to be at most one level apart, which is what the stitched edges of TerrainLodPatterns can handle.
+ *
+ *  That has to hold across the border to the next terrain tile too, or there are cracks at the seam. So the
+ *  TerrainWorld links the quadtrees of neighbouring tiles, and chooses the LODs of all tiles around the camera
+ *  together (selectLods, then limitLods until no tile changes) before any tile's chunks are selected.
+ */
+public class TerrainQuadtree {
+
+    private static final float LOD_DISTANCE = 60;
+    private static final int NO_NEIGHBOUR = Integer.MAX_VALUE - 1;     // Never limits a LOD (+ 1 can't overflow).
+
+    private final TerrainChunk[] chunks;       // Row major, chunksX per row.
+    private final int chunksX, chunksZ;
+    private final int[] lods;
+    private final Node root;
+    private TerrainQuadtree north, east, south, west;     // Quadtrees of the neighbouring tiles, if loaded.
+
+    private int nodesTested;
+    private int chunksCulled;
+
+    public TerrainQuadtree(TerrainChunk[] chunks, int chunksX, int chunksZ) {
+        this.chunks = chunks;
+        this.chunksX = chunksX;
+        this.chunksZ = chunksZ;
+        this.lods = new int[chunks.length];
+        this.root = build(0, 0, chunksX, chunksZ);
+    }
+
+    /** Adds the chunks inside the frustum to visible and sets their LOD and edge mask, as chosen by selectLods()
+     *  and limitLods() for the camera position. */
+    public void selectChunks(Frustum frustum, List<TerrainChunk> visible) {
+        nodesTested = 0;
+        chunksCulled = 0;
+        int first = visible.size();
+        collect(root, frustum, visible, false);
+        for (int i = first; i < visible.size(); i++) {
+            TerrainChunk chunk = visible.get(i);
+            chunk.setLod(lods[chunk.getChunkZ() * chunksX + chunk.getChunkX()]);
+            chunk.setEdgeMask(edgeMask(chunk.getChunkX(), chunk.getChunkZ()));
+        }
+    }
+
+    /** Sets the tile on the given side (one of the TerrainLodPatterns edge bits) as this one's neighbour, null
+     *  for none. Only a tile with the same grid of chunks counts: otherwise their vertices don't line up at the
+     *  seam anyway. */
+    public void setNeighbour(int edge, TerrainQuadtree neighbour) {
+        if (neighbour != null && !sameGrid(neighbour)) {
+            neighbour = null;
+        }
+        switch (edge) {
+            case TerrainLodPatterns.NORTH: north = neighbour; break;
+            case TerrainLodPatterns.EAST: east = neighbour; break;
+            case TerrainLodPatterns.SOUTH: south = neighbour; break;
+            case TerrainLodPatterns.WEST: west = neighbour; break;
+            default: throw new IllegalArgumentException("Not an edge: " + edge);
+        }
+    }
+
+    /** Picks the LOD of every chunk from its distance to the camera, and limits them within this tile. */
+    public void selectLods(float cameraX, float cameraY, float cameraZ) {
+        for (int i = 0; i < chunks.length; i++) {
+            float distance = chunks[i].distanceTo(cameraX, cameraY, cameraZ);
+            int lod = 0;
+            for (float limit = LOD_DISTANCE; distance >= limit && lod < chunks[i].getMaxLod(); limit *= 2) {
+                lod++;
+            }
+            lods[i] = lod;
+        }
+        limitLods();
+    }
+
+    /** Lowers the LOD of every chunk that is more than one level coarser than a neighbour, including the chunks
+     *  of neighbouring tiles along the border. Returns whether any LOD changed, which may in turn force the
+     *  neighbouring tiles to lower theirs. */
+    public boolean limitLods() {
+        // Only ever lowers LODs, so it settles; usually after one or two sweeps.
+        boolean changedAny = false;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int cz = 0; cz < chunksZ; cz++) {
+                for (int cx = 0; cx < chunksX; cx++) {
+                    int i = cz * chunksX + cx;
+                    int limit = Math.min(Math.min(lodAt(cx - 1, cz), lodAt(cx + 1, cz)),
+                            Math.min(lodAt(cx, cz - 1), lodAt(cx, cz + 1))) + 1;
+                    if (lods[i] > limit) {
+                        lods[i] = limit;
+                        changed = true;
+                    }
+                }
+            }
+            changedAny |= changed;
+        }
+        return changedAny;
+    }
+
+    public int getNodesTested() {
+        return nodesTested;
+    }
+
+    public int getChunksCulled() {
+        return chunksCulled;
+    }
+
+    public int getChunkCount() {
+        return chunks.length;
+    }
+
+    /** LOD of the chunk at (cx, cz), which may be a chunk of a neighbouring tile; NO_NEIGHBOUR if there is none. */
+    private int lodAt(int cx, int cz) {
+        if (cx < 0) {
+            return west == null ? NO_NEIGHBOUR : west.lods[cz * chunksX + chunksX - 1];
+        }
+        if (cx >= chunksX) {
+            return east == null ? NO_NEIGHBOUR : east.lods[cz * chunksX];
+        }
+        if (cz < 0) {
+            return north == null ? NO_NEIGHBOUR : north.lods[(chunksZ - 1) * chunksX + cx];
+        }
+        if (cz >= chunksZ) {
+            return south == null ? NO_NEIGHBOUR : south.lods[cx];
+        }
+        return lods[cz * chunksX + cx];
+    }
+
+    private int edgeMask(int cx, int cz) {
+        int lod = lods[cz * chunksX + cx];
+        int mask = 0;
+        if (coarser(cx, cz - 1, lod)) mask |= TerrainLodPatterns.NORTH;
+        if (coarser(cx + 1, cz, lod)) mask |= TerrainLodPatterns.EAST;
+        if (coarser(cx, cz + 1, lod)) mask |= TerrainLodPatterns.SOUTH;
+        if (coarser(cx - 1, cz, lod)) mask |= TerrainLodPatterns.WEST;
+        return mask;
+    }
+
+    private boolean coarser(int cx, int cz, int lod) {
+        int neighbour = lodAt(cx, cz);
+        return neighbour != NO_NEIGHBOUR && neighbour > lod;
+    }
+
+    private boolean sameGrid(TerrainQuadtree other) {
+        if (other.chunksX != chunksX || other.chunksZ != chunksZ) {
+            return false;
+        }
+        for (int i = 0; i < chunks.length; i++) {
+            if (other.chunks[i].getQuadsX() != chunks[i].getQuadsX()
+                    || other.chunks[i].getQuadsZ() != chunks[i].getQuadsZ()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void collect(Node node, Frustum frustum, List<TerrainChunk> visible, boolean inside) {
+        if (!inside) {
+            nodesTested++;
+            if (!frustum.boxInFrustum(node.minX, node.minY, node.minZ, node.maxX, node.maxY, node.maxZ)) {
+                chunksCulled += node.chunkCount;
+                return;
+            }
+            inside = frustum.boxFullyInFrustum(node.minX, node.minY, node.minZ, node.maxX, node.maxY, node.maxZ);
+        }
+        if (node.chunk != null) {
+            visible.add(node.chunk);
+            return;
+        }
+        for (Node child : node.children) {
+            if (child != null) {
+                collect(child, frustum, visible, inside);
+            }
+        }
+    }
+
+    private Node build(int x0, int z0, int x1, int z1) {
+        Node node = new Node();
+        node.chunkCount = (x1 - x0) * (z1 - z0);
+        if (node.chunkCount == 1) {
+            node.chunk = chunks[z0 * chunksX + x0];
+            node.setBounds(node.chunk);
+            return node;
+        }
+        int midX = (x0 + x1 + 1) / 2;
+        int midZ = (z0 + z1 + 1) / 2;
+        node.children = new Node[]{
+                midX > x0 && midZ > z0 ? build(x0, z0, midX, midZ) : null,
+                x1 > midX && midZ > z0 ? build(midX, z0, x1, midZ) : null,
+                midX > x0 && z1 > midZ ? build(x0, midZ, midX, z1) : null,
+                x1 > midX && z1 > midZ ? build(midX, midZ, x1, z1) : null};
+        node.minX = node.minY = node.minZ = Float.MAX_VALUE;
+        node.maxX = node.maxY = node.maxZ = -Float.MAX_VALUE;
+        for (Node child : node.children) {
+            if (child != null) {
+                node.include(child);
+            }
+        }
+        return node;
+    }
+
+    private static class Node {
+
+        private float minX, minY, minZ, maxX, maxY, maxZ;
+        private Node[] children;
+        private TerrainChunk chunk;             // Only set on leaves.
+        private int chunkCount;
+
+        private void setBounds(TerrainChunk chunk) {
+            minX = chunk.getMinX();
+            minY = chunk.getMinY();
+            minZ = chunk.getMinZ();
+            maxX = chunk.getMaxX();
+            maxY = chunk.getMaxY();
+            maxZ = chunk.getMaxZ();
+        }
+
+        private void include(Node child) {
+            minX = Math.min(minX, child.minX);
+            minY = Math.min(minY, child.minY);
+            minZ = Math.min(minZ, child.minZ);
+            maxX = Math.max(maxX, child.maxX);
+            maxY = Math.max(maxY, child.maxY);
+            maxZ = Math.max(maxZ, child.maxZ);
+        }
+    }
+}
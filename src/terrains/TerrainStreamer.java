@@ -0,0 +1,210 @@
+package terrains;
+
+import renderEngine.Loader;
+import textures.TerrainTexture;
+import textures.TerrainTexturePack;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/** Keeps the tiles around the camera loaded in a TerrainWorld, for maps that are too big to load all at once.
+ *
+ *  Building a tile is split in two: reading the height map and generating the mesh happens on worker threads
+ *  (the CPU-only Terrain constructor), while uploading it to a VAO happens in update() on the OpenGL thread,
+ *  and only for as long as the per-frame upload budget allows. That way a new tile never causes a frame hitch.
+ *
+ *  Resident tiles are kept in an LRU cache bounded by the memory they use (heights on the CPU, buffers on the
+ *  GPU). Tiles that are no longer around the camera stay in the cache (and in the world) until it's over budget,
+ *  then the least recently needed ones are removed from the world and their buffers freed through the Loader.
+ */
+public class TerrainStreamer {
+
+    /** Tells the streamer which height map a grid cell uses, or null if the map has no tile there. */
+    public interface TileSource {
+        String getHeightMap(int gridX, int gridZ);
+    }
+
+    private final TerrainWorld world;
+    private final Loader loader;
+    private final TerrainTexturePack texturePack;
+    private final TerrainTexture blendMap;
+    private final TileSource source;
+    private final int loadRadius;               // In tiles around the camera's tile.
+    private final long maxResidentBytes;
+    private final long uploadBudgetNanos;
+    private final ExecutorService workers;
+
+    private final LinkedHashMap<Long, Terrain> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Long> pending = new HashSet<>();
+    private final Set<Long> wanted = new HashSet<>();
+    private final ConcurrentLinkedQueue<Terrain> ready = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Long> failed = new ConcurrentLinkedQueue<>();
+    private final Set<Long> failedKeys = new HashSet<>();      // Never requested again, see submit().
+    private long residentBytes = 0;
+    private int tilesUploaded = 0;
+    private int tilesEvicted = 0;
+
+    public TerrainStreamer(TerrainWorld world, Loader loader, TerrainTexturePack texturePack,
+                           TerrainTexture blendMap, TileSource source, int loadRadius, long maxResidentBytes,
+                           float uploadBudgetMillis, int workerThreads) {
+        this.world = world;
+        this.loader = loader;
+        this.texturePack = texturePack;
+        this.blendMap = blendMap;
+        this.source = source;
+        this.loadRadius = loadRadius;
+        this.maxResidentBytes = maxResidentBytes;
+        this.uploadBudgetNanos = (long) (uploadBudgetMillis * 1000000);
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "terrain-streamer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Call once per frame on the OpenGL thread: requests missing tiles around the camera, uploads finished
+     *  ones within the time budget and evicts old ones if the cache is over budget. */
+    public void update(float cameraX, float cameraZ) {
+        requestTilesAround(cameraX, cameraZ);
+        uploadReadyTiles(uploadBudgetNanos);
+        evictOverBudget();
+    }
+
+    /** Blocks until every tile around the position is resident (or has failed to build), for the first frame
+     *  (before there's anything to show while waiting). Must be called on the OpenGL thread. */
+    public void loadAround(float x, float z) {
+        requestTilesAround(x, z);
+        while (!pending.isEmpty()) {
+            uploadReadyTiles(Long.MAX_VALUE);
+            Thread.yield();
+        }
+        evictOverBudget();
+    }
+
+    public void cleanUp() {
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public int getResidentTiles() {
+        return resident.size();
+    }
+
+    public int getPendingTiles() {
+        return pending.size();
+    }
+
+    public int getTilesUploaded() {
+        return tilesUploaded;
+    }
+
+    public int getTilesEvicted() {
+        return tilesEvicted;
+    }
+
+    /** Tiles whose build threw, which stay missing from the world. */
+    public int getFailedTiles() {
+        return failedKeys.size();
+    }
+
+    private void requestTilesAround(float x, float z) {
+        int centreX = TerrainWorld.toGrid(x);
+        int centreZ = TerrainWorld.toGrid(z);
+        wanted.clear();
+        for (int gridZ = centreZ - loadRadius; gridZ <= centreZ + loadRadius; gridZ++) {
+            for (int gridX = centreX - loadRadius; gridX <= centreX + loadRadius; gridX++) {
+                long key = key(gridX, gridZ);
+                wanted.add(key);
+                if (resident.get(key) != null || pending.contains(key)      // get() also marks it as recently used.
+                        || failedKeys.contains(key)) {
+                    continue;
+                }
+                String heightMap = source.getHeightMap(gridX, gridZ);
+                if (heightMap != null) {
+                    pending.add(key);
+                    submit(gridX, gridZ, heightMap, key);
+                }
+            }
+        }
+    }
+
+    /** A tile that fails to build (a missing or broken height map, or running out of memory on a huge one) is
+     *  reported once and then left out, rather than read again every frame the camera is near it. Anything thrown
+     *  is caught, so the key always leaves pending and loadAround() can't wait for it forever. */
+    private void submit(int gridX, int gridZ, String heightMap, long key) {
+        workers.execute(() -> {
+            try {
+                ready.add(new Terrain(gridX, gridZ, texturePack, blendMap, heightMap));
+            } catch (Throwable e) {
+                e.printStackTrace();
+                failed.add(key);
+            }
+        });
+    }
+
+    /** Uploads finished tiles until the budget is used up. At least one tile goes through per call, so streaming
+     *  always makes progress even if a single upload takes longer than the budget. */
+    private void uploadReadyTiles(long budgetNanos) {
+        Long failedKey;
+        while ((failedKey = failed.poll()) != null) {
+            pending.remove(failedKey);
+            failedKeys.add(failedKey);
+        }
+        long start = System.nanoTime();
+        Terrain terrain;
+        while ((terrain = ready.poll()) != null) {
+            long key = key(terrain.getGridX(), terrain.getGridZ());
+            pending.remove(key);
+            if (!wanted.contains(key)) {        // The camera moved on while it was being built, drop it.
+                continue;
+            }
+            terrain.upload(loader);
+            resident.put(key, terrain);
+            residentBytes += bytesOf(terrain);
+            world.addTerrain(terrain);
+            tilesUploaded++;
+            if (System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+        }
+    }
+
+    private void evictOverBudget() {
+        Iterator<Map.Entry<Long, Terrain>> eldestFirst = resident.entrySet().iterator();
+        while (residentBytes > maxResidentBytes && eldestFirst.hasNext()) {
+            Map.Entry<Long, Terrain> entry = eldestFirst.next();
+            if (wanted.contains(entry.getKey())) {      // Never evict what the camera needs right now.
+                continue;
+            }
+            Terrain terrain = entry.getValue();
+            eldestFirst.remove();
+            residentBytes -= bytesOf(terrain);
+            world.removeTerrain(terrain.getGridX(), terrain.getGridZ());
+            loader.unloadModel(terrain.getModel());
+            tilesEvicted++;
+        }
+    }
+
+    private static long bytesOf(Terrain terrain) {
+        return terrain.getCpuBytes() + terrain.getGpuBytes();
+    }
+
+    private static long key(int gridX, int gridZ) {
+        return ((long) gridX << 32) | (gridZ & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,154 @@
+package terrains;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** All the terrain tiles of a map, each one placed on the grid of Terrain.SIZE squares at (gridX, gridZ).
+ *
+ *  Tiles are kept in a flat array covering the rectangle of grid cells in use, so finding the tile under any
+ *  world position is a floor, a subtraction and an array read, no matter how many tiles the map has. The
+ *  rectangle grows when a tile is added outside of it.
+ */
+public class TerrainWorld {
+
+    private Terrain[] tiles = new Terrain[0];
+    private int minGridX = 0, minGridZ = 0;      // Grid cell stored at tiles[0].
+    private int tilesX = 0, tilesZ = 0;
+
+    private List<Terrain> terrains = new ArrayList<>();
+
+    public void addTerrain(Terrain terrain) {
+        int gridX = terrain.getGridX();
+        int gridZ = terrain.getGridZ();
+        ensureCovers(gridX, gridZ);
+        int index = (gridZ - minGridZ) * tilesX + (gridX - minGridX);
+        if (tiles[index] != null) {
+            terrains.remove(tiles[index]);
+        }
+        tiles[index] = terrain;
+        terrains.add(terrain);
+        linkNeighbours(gridX, gridZ);
+    }
+
+    /** Removes and returns the tile at (gridX, gridZ), or null if there is none. */
+    public Terrain removeTerrain(int gridX, int gridZ) {
+        if (!covers(gridX, gridZ)) {
+            return null;
+        }
+        int index = (gridZ - minGridZ) * tilesX + (gridX - minGridX);
+        Terrain terrain = tiles[index];
+        if (terrain != null) {
+            tiles[index] = null;
+            terrains.remove(terrain);
+            linkNeighbours(gridX, gridZ);
+        }
+        return terrain;
+    }
+
+    public Terrain getTerrain(int gridX, int gridZ) {
+        if (!covers(gridX, gridZ)) {
+            return null;
+        }
+        return tiles[(gridZ - minGridZ) * tilesX + (gridX - minGridX)];
+    }
+
+    /** The tile under a world position, or null if that part of the map has no terrain. */
+    public Terrain getTerrainAt(float worldX, float worldZ) {
+        return getTerrain(toGrid(worldX), toGrid(worldZ));
+    }
+
+    /** Height of the ground at a world position, 0 where there is no tile. Every position belongs to exactly
+     *  one tile (the one whose [x, x + SIZE) range contains it), so queries walk across tile borders seamlessly. */
+    public float getHeightOfTerrain(float worldX, float worldZ) {
+        Terrain terrain = getTerrainAt(worldX, worldZ);
+        if (terrain == null) {
+            return 0;
+        }
+        return terrain.getHeightOfTerrain(worldX, worldZ);
+    }
+
+    /** Adds the tiles that overlap the square of half size radius around (worldX, worldZ) to result. */
+    public void getTerrainsAround(float worldX, float worldZ, float radius, List<Terrain> result) {
+        int fromX = Math.max(toGrid(worldX - radius), minGridX);
+        int toX = Math.min(toGrid(worldX + radius), minGridX + tilesX - 1);
+        int fromZ = Math.max(toGrid(worldZ - radius), minGridZ);
+        int toZ = Math.min(toGrid(worldZ + radius), minGridZ + tilesZ - 1);
+        for (int gridZ = fromZ; gridZ <= toZ; gridZ++) {
+            for (int gridX = fromX; gridX <= toX; gridX++) {
+                Terrain terrain = tiles[(gridZ - minGridZ) * tilesX + (gridX - minGridX)];
+                if (terrain != null) {
+                    result.add(terrain);
+                }
+            }
+        }
+    }
+
+    /** Chooses the LOD of every chunk of the given tiles for the camera position. Each tile first picks its own,
+     *  then the tiles limit each other along their borders until no LOD changes anymore, so the chunks on both
+     *  sides of a seam never differ by more than one level. */
+    public static void selectLods(List<Terrain> terrains, float cameraX, float cameraY, float cameraZ) {
+        for (int i = 0; i < terrains.size(); i++) {
+            terrains.get(i).getQuadtree().selectLods(cameraX, cameraY, cameraZ);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < terrains.size(); i++) {
+                changed |= terrains.get(i).getQuadtree().limitLods();
+            }
+        }
+    }
+
+    public List<Terrain> getTerrains() {
+        return Collections.unmodifiableList(terrains);
+    }
+
+    public static int toGrid(float world) {
+        return (int) Math.floor(world / Terrain.SIZE);
+    }
+
+    /** Points the tile at (gridX, gridZ) and its four neighbours at each other (at null where a tile is missing). */
+    private void linkNeighbours(int gridX, int gridZ) {
+        Terrain terrain = getTerrain(gridX, gridZ);
+        link(terrain, getTerrain(gridX, gridZ - 1), TerrainLodPatterns.NORTH, TerrainLodPatterns.SOUTH);
+        link(terrain, getTerrain(gridX + 1, gridZ), TerrainLodPatterns.EAST, TerrainLodPatterns.WEST);
+        link(terrain, getTerrain(gridX, gridZ + 1), TerrainLodPatterns.SOUTH, TerrainLodPatterns.NORTH);
+        link(terrain, getTerrain(gridX - 1, gridZ), TerrainLodPatterns.WEST, TerrainLodPatterns.EAST);
+    }
+
+    private static void link(Terrain terrain, Terrain neighbour, int edge, int opposite) {
+        if (terrain != null) {
+            terrain.getQuadtree().setNeighbour(edge, neighbour == null ? null : neighbour.getQuadtree());
+        }
+        if (neighbour != null) {
+            neighbour.getQuadtree().setNeighbour(opposite, terrain == null ? null : terrain.getQuadtree());
+        }
+    }
+
+    private boolean covers(int gridX, int gridZ) {
+        return gridX >= minGridX && gridZ >= minGridZ && gridX < minGridX + tilesX && gridZ < minGridZ + tilesZ;
+    }
+
+    private void ensureCovers(int gridX, int gridZ) {
+        if (covers(gridX, gridZ)) {
+            return;
+        }
+        int newMinX = tilesX == 0 ? gridX : Math.min(minGridX, gridX);
+        int newMinZ = tilesZ == 0 ? gridZ : Math.min(minGridZ, gridZ);
+        int newMaxX = tilesX == 0 ? gridX : Math.max(minGridX + tilesX - 1, gridX);
+        int newMaxZ = tilesZ == 0 ? gridZ : Math.max(minGridZ + tilesZ - 1, gridZ);
+        int newTilesX = newMaxX - newMinX + 1;
+        int newTilesZ = newMaxZ - newMinZ + 1;
+        Terrain[] newTiles = new Terrain[newTilesX * newTilesZ];
+        for (int z = 0; z < tilesZ; z++) {
+            System.arraycopy(tiles, z * tilesX, newTiles,
+                    (minGridZ + z - newMinZ) * newTilesX + (minGridX - newMinX), tilesX);
+        }
+        tiles = newTiles;
+        minGridX = newMinX;
+        minGridZ = newMinZ;
+        tilesX = newTilesX;
+        tilesZ = newTilesZ;
+    }
+}
@@ -0,0 +1,57 @@
+package textures;
+
+import org.newdawn.slick.opengl.PNGImageData;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/** The decoded pixels of a texture, ready to be handed to glTexImage2D. Decoding doesn't touch OpenGL, so it can
+ *  happen on any thread; only Loader.loadTexture(TextureData) has to run on the OpenGL one.
+ *
+ *  Decoding works like slick's TextureLoader did: the image is padded up to power of two sizes (the models'
+ *  texture coordinates assume it fills the whole texture, so in practice all our images already are), and it's
+ *  RGBA if the PNG has alpha, RGB otherwise.
+ */
+public class TextureData {
+
+    private final int width;
+    private final int height;
+    private final boolean alpha;
+    private final ByteBuffer pixels;
+
+    public TextureData(int width, int height, boolean alpha, ByteBuffer pixels) {
+        this.width = width;
+        this.height = height;
+        this.alpha = alpha;
+        this.pixels = pixels;
+    }
+
+    public static TextureData decodePNG(String fileName) {
+        PNGImageData image = new PNGImageData();
+        try (InputStream in = new BufferedInputStream(new FileInputStream("res/" + fileName + ".png"))) {
+            ByteBuffer pixels = image.loadImage(in, false, null);
+            return new TextureData(image.getTexWidth(), image.getTexHeight(), image.getDepth() == 32, pixels);
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't load texture " + fileName, e);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    public ByteBuffer getPixels() {
+        return pixels;
+    }
+}
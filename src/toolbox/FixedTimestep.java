@@ -0,0 +1,72 @@
+package toolbox;
+
+/** Runs the simulation in steps of a fixed length, however long the frames take. Every frame the time that
+ *  passed (System.nanoTime) goes into an accumulator, and as many whole steps as fit are taken out of it:
+ *
+ *      int steps = timestep.advance();
+ *      for (int i = 0; i < steps; i++) {
+ *          simulate(timestep.getStepSeconds());
+ *      }
+ *      draw(timestep.getAlpha());      // How far we are between the last two simulated states.
+ *
+ *  So movement, gravity and collisions always integrate the same way, at 20 or at 200 frames per second, and a
+ *  long frame can't make the player jump through the terrain in one big step.
+ *
+ *  If the frames take longer than the steps they need (or the game was stalled, e.g. while loading), catching
+ *  up would make the next frames even longer. At most maxStepsPerFrame steps are taken per frame; the rest of
+ *  the backlog is dropped and the game runs slower for a moment instead.
+ */
+public class FixedTimestep {
+
+    private final long stepNanos;
+    private final int maxStepsPerFrame;
+
+    private long lastTime = -1;
+    private long accumulator;
+    private long droppedSteps;
+
+    public FixedTimestep(float stepSeconds, int maxStepsPerFrame) {
+        this.stepNanos = (long) (stepSeconds * 1e9);
+        this.maxStepsPerFrame = maxStepsPerFrame;
+    }
+
+    /** Adds the time since the last call and returns how many steps to simulate now. */
+    public int advance() {
+        return advance(System.nanoTime());
+    }
+
+    /** advance() with the time given, in nanoseconds from any fixed origin. The first call only starts the clock. */
+    public int advance(long now) {
+        if (lastTime < 0) {
+            lastTime = now;
+            return 0;
+        }
+        accumulator += now - lastTime;
+        lastTime = now;
+        long steps = accumulator / stepNanos;
+        if (steps > maxStepsPerFrame) {
+            droppedSteps += steps - maxStepsPerFrame;
+            steps = maxStepsPerFrame;
+            accumulator %= stepNanos;     // Keep the fraction, so the interpolation doesn't jump.
+        } else {
+            accumulator -= steps * stepNanos;
+        }
+        return (int) steps;
+    }
+
+    public float getStepSeconds() {
+        return stepNanos / 1e9f;
+    }
+
+    /** Between 0 and 1: how far the present is from the last simulated state towards the next one. Drawing the
+     *  previous state blended this far into the current one keeps motion smooth when frames and steps don't
+     *  line up (it shows the world at most one step late). */
+    public float getAlpha() {
+        return (float) accumulator / stepNanos;
+    }
+
+    /** Steps skipped so far because a frame needed more than maxStepsPerFrame. */
+    public long getDroppedSteps() {
+        return droppedSteps;
+    }
+}
@@ -0,0 +1,91 @@
+package toolbox;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+/** The view frustum is the truncated pyramid of World Space that ends up on screen. It is bounded by six planes
+ *  (left, right, bottom, top, near, far), each stored here as (a, b, c, d) with the normal (a, b, c) pointing
+ *  into the frustum, so that a*x + b*y + c*z + d is the signed distance of a point to the plane.
+ *
+ *  The planes are read straight off the combined projection * view matrix (Gribb & Hartmann): a point is inside
+ *  the clip volume when -w <= x, y, z <= w, and each of those six inequalities, written out with the rows of the
+ *  matrix, is exactly one plane equation in World Space.
+ */
+public class Frustum {
+
+    private static final int LEFT = 0, RIGHT = 1, BOTTOM = 2, TOP = 3, NEAR = 4, FAR = 5;
+
+    private final float[] planes = new float[6 * 4];
+    private final Matrix4f projectionView = new Matrix4f();
+    private boolean valid = false;         // Until the first update everything counts as visible.
+
+    public void update(Matrix4f projectionMatrix, Matrix4f viewMatrix) {
+        Matrix4f m = Matrix4f.mul(projectionMatrix, viewMatrix, projectionView);
+        // Row i of the matrix is (m0i, m1i, m2i, m3i), LWJGL names its fields m<column><row>.
+        setPlane(LEFT,   m.m03 + m.m00, m.m13 + m.m10, m.m23 + m.m20, m.m33 + m.m30);
+        setPlane(RIGHT,  m.m03 - m.m00, m.m13 - m.m10, m.m23 - m.m20, m.m33 - m.m30);
+        setPlane(BOTTOM, m.m03 + m.m01, m.m13 + m.m11, m.m23 + m.m21, m.m33 + m.m31);
+        setPlane(TOP,    m.m03 - m.m01, m.m13 - m.m11, m.m23 - m.m21, m.m33 - m.m31);
+        setPlane(NEAR,   m.m03 + m.m02, m.m13 + m.m12, m.m23 + m.m22, m.m33 + m.m32);
+        setPlane(FAR,    m.m03 - m.m02, m.m13 - m.m12, m.m23 - m.m22, m.m33 - m.m32);
+        valid = true;
+    }
+
+    private void setPlane(int plane, float a, float b, float c, float d) {
+        float length = (float) Math.sqrt(a * a + b * b + c * c);
+        if (length == 0) {      // Degenerate plane (e.g. an infinite far plane), never rejects anything.
+            a = 0; b = 0; c = 0; d = 1;
+            length = 1;
+        }
+        int i = plane * 4;
+        planes[i] = a / length;
+        planes[i + 1] = b / length;
+        planes[i + 2] = c / length;
+        planes[i + 3] = d / length;
+    }
+
+    /** True if any part of the sphere can be inside the frustum. */
+    public boolean sphereInFrustum(float x, float y, float z, float radius) {
+        if (!valid) {
+            return true;
+        }
+        for (int i = 0; i < planes.length; i += 4) {
+            if (planes[i] * x + planes[i + 1] * y + planes[i + 2] * z + planes[i + 3] < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** True if any part of the axis aligned box can be inside the frustum. For each plane only the corner
+     *  furthest along the plane's normal (the "positive vertex") needs to be tested. */
+    public boolean boxInFrustum(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        if (!valid) {
+            return true;
+        }
+        for (int i = 0; i < planes.length; i += 4) {
+            float px = planes[i] >= 0 ? maxX : minX;
+            float py = planes[i + 1] >= 0 ? maxY : minY;
+            float pz = planes[i + 2] >= 0 ? maxZ : minZ;
+            if (planes[i] * px + planes[i + 1] * py + planes[i + 2] * pz + planes[i + 3] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** True if the whole box is inside the frustum. Used by hierarchies to skip testing everything below a node. */
+    public boolean boxFullyInFrustum(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        if (!valid) {
+            return true;
+        }
+        for (int i = 0; i < planes.length; i += 4) {
+            float nx = planes[i] >= 0 ? minX : maxX;
+            float ny = planes[i + 1] >= 0 ? minY : maxY;
+            float nz = planes[i + 2] >= 0 ? minZ : maxZ;
+            if (planes[i] * nx + planes[i + 1] * ny + planes[i + 2] * nz + planes[i + 3] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
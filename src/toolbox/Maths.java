@@ -7,6 +7,8 @@ import org.lwjgl.util.vector.Vector3f;
 
 public class Maths {
 
+    private static final Vector3f X_AXIS = new Vector3f(1, 0, 0);
+    private static final Vector3f Y_AXIS = new Vector3f(0, 1, 0);
 
     /**
      * A vector space is what is spanned by linearly independent vectors. It is a term we can use
@@ -30,37 +32,98 @@ public class Maths {
      */
 
     public static float barryCentric(Vector3f p1, Vector3f p2, Vector3f p3, Vector2f pos) {
-        float det = (p2.z - p3.z) * (p1.x - p3.x) + (p3.x - p2.x) * (p1.z - p3.z);
-        float l1 = ((p2.z - p3.z) * (pos.x - p3.x) + (p3.x - p2.x) * (pos.y - p3.z)) / det;
-        float l2 = ((p3.z - p1.z) * (pos.x - p3.x) + (p1.x - p3.x) * (pos.y - p3.z)) / det;
+        return barryCentric(p1.x, p1.y, p1.z, p2.x, p2.y, p2.z, p3.x, p3.y, p3.z, pos.x, pos.y);
+    }
+
+    /** Same as above without the vector objects, for hot paths like terrain height queries. */
+    public static float barryCentric(float p1x, float p1y, float p1z, float p2x, float p2y, float p2z,
+                                     float p3x, float p3y, float p3z, float posX, float posZ) {
+        float det = (p2z - p3z) * (p1x - p3x) + (p3x - p2x) * (p1z - p3z);
+        float l1 = ((p2z - p3z) * (posX - p3x) + (p3x - p2x) * (posZ - p3z)) / det;
+        float l2 = ((p3z - p1z) * (posX - p3x) + (p1x - p3x) * (posZ - p3z)) / det;
         float l3 = 1.0f - l1 - l2;
-        return l1 * p1.y + l2 * p2.y + l3 * p3.y;
+        return l1 * p1y + l2 * p2y + l3 * p3y;
     }
 
     public static Matrix4f createTransformationMatrix(Vector3f translation, float rx,
                                                       float ry, float rz, float scale) {
-        Matrix4f matrix = new Matrix4f();
-        matrix.setIdentity();
-        Matrix4f.translate(translation, matrix, matrix);
-        Matrix4f.rotate((float) Math.toRadians(rx), new Vector3f(1,0,0), matrix, matrix);
-        Matrix4f.rotate((float) Math.toRadians(ry), new Vector3f(0,1,0), matrix, matrix);
-        Matrix4f.rotate((float) Math.toRadians(rz), new Vector3f(0,0,1), matrix, matrix);
-        Matrix4f.scale(new Vector3f(scale, scale, scale), matrix, matrix);
+        return createTransformationMatrix(translation.x, translation.y, translation.z, rx, ry, rz, scale,
+                new Matrix4f());
+    }
+
+    /** Same as translating, then rotating around x, y and z (in that order) and scaling, like
+     *      Matrix4f.translate(translation, ...); Matrix4f.rotate(rx, x axis, ...); ...; Matrix4f.scale(...);
+     *  but with the product of the three rotations written out (see storeTransformationMatrix), so it needs 3
+     *  sines and cosines. Rotations are in degrees. Returns dest. */
+    public static Matrix4f createTransformationMatrix(float x, float y, float z, float rx, float ry, float rz,
+                                                      float scale, Matrix4f dest) {
+        // Small enough and only used here, so escape analysis keeps it out of the heap.
+        float[] columns = new float[16];
+        storeTransformationMatrix(x, y, z, rx, ry, rz, scale, columns, 0);
+        dest.m00 = columns[0];
+        dest.m01 = columns[1];
+        dest.m02 = columns[2];
+        dest.m03 = columns[3];
+        dest.m10 = columns[4];
+        dest.m11 = columns[5];
+        dest.m12 = columns[6];
+        dest.m13 = columns[7];
+        dest.m20 = columns[8];
+        dest.m21 = columns[9];
+        dest.m22 = columns[10];
+        dest.m23 = columns[11];
+        dest.m30 = columns[12];
+        dest.m31 = columns[13];
+        dest.m32 = columns[14];
+        dest.m33 = columns[15];
+        return dest;
+    }
 
-        return matrix;
+    /** The same matrix, written column major (the order of Matrix4f.store()) into dest at offset, for data that
+     *  goes straight into a buffer. */
+    public static void storeTransformationMatrix(float x, float y, float z, float rx, float ry, float rz,
+                                                 float scale, float[] dest, int offset) {
+        double ax = Math.toRadians(rx);
+        double ay = Math.toRadians(ry);
+        double az = Math.toRadians(rz);
+        float sx = (float) Math.sin(ax), cx = (float) Math.cos(ax);
+        float sy = (float) Math.sin(ay), cy = (float) Math.cos(ay);
+        float sz = (float) Math.sin(az), cz = (float) Math.cos(az);
+        // Rx * Ry * Rz, times the scale, one column after the other.
+        dest[offset] = cy * cz * scale;
+        dest[offset + 1] = (sx * sy * cz + cx * sz) * scale;
+        dest[offset + 2] = (-cx * sy * cz + sx * sz) * scale;
+        dest[offset + 3] = 0;
+        dest[offset + 4] = -cy * sz * scale;
+        dest[offset + 5] = (-sx * sy * sz + cx * cz) * scale;
+        dest[offset + 6] = (cx * sy * sz + sx * cz) * scale;
+        dest[offset + 7] = 0;
+        dest[offset + 8] = sy * scale;
+        dest[offset + 9] = -sx * cy * scale;
+        dest[offset + 10] = cx * cy * scale;
+        dest[offset + 11] = 0;
+        dest[offset + 12] = x;
+        dest[offset + 13] = y;
+        dest[offset + 14] = z;
+        dest[offset + 15] = 1;
     }
 
     public static Matrix4f createViewMatrix(Camera camera) {
-        Matrix4f viewMatrix = new Matrix4f();
-        viewMatrix.setIdentity();
-        Matrix4f.rotate((float) Math.toRadians(camera.getPitch()), new Vector3f(1, 0, 0), viewMatrix,
-                viewMatrix);
-        Matrix4f.rotate((float) Math.toRadians(camera.getYaw()), new Vector3f(0,1,0), viewMatrix,
-                viewMatrix);
-        Vector3f cameraPos = camera.getPosition();
-        Vector3f negativeCameraPos = new Vector3f(-cameraPos.x, -cameraPos.y, -cameraPos.z);
-        Matrix4f.translate(negativeCameraPos, viewMatrix, viewMatrix);
+        return createViewMatrix(camera, new Matrix4f());
+    }
 
-        return viewMatrix;
+    /** Same as above into an existing matrix, for the once per frame update, without any temporary objects.
+     *  Returns dest. */
+    public static Matrix4f createViewMatrix(Camera camera, Matrix4f dest) {
+        dest.setIdentity();
+        Matrix4f.rotate((float) Math.toRadians(camera.getPitch()), X_AXIS, dest, dest);
+        Matrix4f.rotate((float) Math.toRadians(camera.getYaw()), Y_AXIS, dest, dest);
+        // Matrix4f.translate() by the negative camera position, written out so it needs no vector.
+        Vector3f cameraPos = camera.getPosition();
+        dest.m30 -= dest.m00 * cameraPos.x + dest.m10 * cameraPos.y + dest.m20 * cameraPos.z;
+        dest.m31 -= dest.m01 * cameraPos.x + dest.m11 * cameraPos.y + dest.m21 * cameraPos.z;
+        dest.m32 -= dest.m02 * cameraPos.x + dest.m12 * cameraPos.y + dest.m22 * cameraPos.z;
+        dest.m33 -= dest.m03 * cameraPos.x + dest.m13 * cameraPos.y + dest.m23 * cameraPos.z;
+        return dest;
     }
 }
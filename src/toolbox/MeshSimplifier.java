@@ -0,0 +1,376 @@
+package toolbox;
+
+import objConverter.ModelData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** Makes lower detail versions of a mesh for models that are far away, by collapsing edges until only a given
+ *  part of the triangles is left (Garland & Heckbert, "Surface Simplification Using Quadric Error Metrics").
+ *
+ *  Every position keeps a quadric: the sum of the squared distances to the planes of the triangles around it,
+ *  as a 4x4 matrix (weighted by triangle area). Collapsing an edge moves one end onto the other and adds their
+ *  quadrics, so the cost of a collapse is how far the surviving position is from all the planes the two had
+ *  between them. The cheapest collapse is always done next. Open borders (the edges of leaf and grass cards)
+ *  get an extra plane standing up along them, or they would shrink away first because nothing holds them.
+ *
+ *  Vertices with the same position (split by texture coordinates or normals, which in our flat shaded models
+ *  is nearly all of them) move together. A collapse moves them onto the other end's position, never to a new
+ *  one in between, and every vertex keeps its own texture coordinates and normal; the triangles that had both
+ *  ends are gone. A collapse that would turn one of the remaining triangles over isn't done.
+ */
+public class MeshSimplifier {
+
+    private static final double BORDER_WEIGHT = 10;
+    /** A collapse may turn the triangles around it by up to about 80 degrees (cos 80 = 0.17). */
+    private static final double MIN_NORMAL_DOT = 0.17;
+
+    private final float[] vertices;                // Positions, moved by the collapses.
+    private final int[] triangles;                 // Vertex indices, 3 per triangle.
+    private final boolean[] alive;
+    private int aliveCount;
+
+    // Vertices with the same position form one group, which is what collapses actually work on.
+    private final int[] groupOf;
+    private final int[] groupVertex;               // Any vertex of the group, for its position.
+    private final double[] quadrics;               // 10 coefficients per group, see addPlane().
+    private final List<List<Integer>> groupTriangles = new ArrayList<>();     // Can list dead triangles.
+    private final boolean[] collapsed;
+    private final int[] versions;                  // Increased when a group's collapse costs change.
+
+    private final PriorityQueue<Collapse> queue = new PriorityQueue<>();
+    private final int[] visited;                   // Per triangle, the last collapse that looked at it.
+    private int visit = 0;
+
+    /** Returns the mesh with about ratio (0..1) of its triangles left, or fewer triangles than that if not
+     *  enough can be collapsed without damaging it. Unused vertices are removed. */
+    public static ModelData simplify(ModelData data, float ratio) {
+        MeshSimplifier simplifier = new MeshSimplifier(data);
+        simplifier.collapseTo(Math.round(data.getIndices().length / 3 * ratio));
+        return simplifier.toModelData(data);
+    }
+
+    private MeshSimplifier(ModelData data) {
+        vertices = data.getVertices().clone();
+        int vertexCount = vertices.length / 3;
+        groupOf = new int[vertexCount];
+        int groupCount = weld(vertexCount);
+        groupVertex = new int[groupCount];
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            groupVertex[groupOf[vertex]] = vertex;
+        }
+        quadrics = new double[groupCount * 10];
+        collapsed = new boolean[groupCount];
+        versions = new int[groupCount];
+        for (int group = 0; group < groupCount; group++) {
+            groupTriangles.add(new ArrayList<>());
+        }
+
+        // Triangles with two corners at the same position have no area, they are simply left out.
+        int[] indices = data.getIndices();
+        int[] kept = new int[indices.length];
+        int count = 0;
+        for (int i = 0; i + 2 < indices.length; i += 3) {
+            int a = groupOf[indices[i]], b = groupOf[indices[i + 1]], c = groupOf[indices[i + 2]];
+            if (a != b && b != c && a != c) {
+                System.arraycopy(indices, i, kept, count * 3, 3);
+                count++;
+            }
+        }
+        triangles = Arrays.copyOf(kept, count * 3);
+        alive = new boolean[count];
+        Arrays.fill(alive, true);
+        aliveCount = count;
+        visited = new int[count];
+
+        Map<Long, int[]> edges = new HashMap<>();          // Edge -> {triangles using it, one of them}.
+        for (int t = 0; t < count; t++) {
+            for (int corner = 0; corner < 3; corner++) {
+                groupTriangles.get(group(t, corner)).add(t);
+                long key = edgeKey(group(t, corner), group(t, (corner + 1) % 3));
+                int[] edge = edges.computeIfAbsent(key, k -> new int[]{0, -1});
+                edge[0]++;
+                edge[1] = t;
+            }
+            addTrianglePlane(t);
+        }
+        for (Map.Entry<Long, int[]> edge : edges.entrySet()) {
+            if (edge.getValue()[0] == 1) {
+                addBorderPlane((int) (edge.getKey() / groupCount), (int) (edge.getKey() % groupCount),
+                        edge.getValue()[1]);
+            }
+        }
+        for (int group = 0; group < groupCount; group++) {
+            queueCollapses(group);
+        }
+    }
+
+    private void collapseTo(int targetTriangles) {
+        while (aliveCount > targetTriangles && !queue.isEmpty()) {
+            Collapse collapse = queue.poll();
+            int from = collapse.from;
+            int to = collapse.to;
+            if (collapsed[from] || collapsed[to] || versions[from] != collapse.fromVersion
+                    || versions[to] != collapse.toVersion) {
+                continue;       // Outdated, there's a newer entry for this edge if it still exists.
+            }
+            if (canCollapse(from, to)) {
+                doCollapse(from, to);
+            }
+        }
+    }
+
+    /** Whether none of the triangles that stay would turn over. */
+    private boolean canCollapse(int from, int to) {
+        visit++;
+        for (int t : groupTriangles.get(from)) {
+            if (!alive[t] || visited[t] == visit) {
+                continue;
+            }
+            visited[t] = visit;
+            if (corner(t, to) == -1 && turnsOver(t, corner(t, from), groupVertex[to])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void doCollapse(int from, int to) {
+        List<Integer> moved = new ArrayList<>();
+        visit++;
+        for (int t : groupTriangles.get(from)) {
+            if (!alive[t] || visited[t] == visit) {
+                continue;
+            }
+            visited[t] = visit;
+            if (corner(t, to) != -1) {
+                alive[t] = false;
+                aliveCount--;
+            } else {
+                moved.add(triangles[t * 3 + corner(t, from)]);
+                groupTriangles.get(to).add(t);
+            }
+        }
+        int target = groupVertex[to] * 3;
+        for (int vertex : moved) {          // Only now, the loop above finds the corners by their group.
+            System.arraycopy(vertices, target, vertices, vertex * 3, 3);
+            groupOf[vertex] = to;
+        }
+        // Vertices of the dead triangles that nothing else uses are left behind, toModelData() drops them.
+        for (int i = 0; i < 10; i++) {
+            quadrics[to * 10 + i] += quadrics[from * 10 + i];
+        }
+        collapsed[from] = true;
+        groupTriangles.get(from).clear();
+        versions[to]++;
+        queueCollapses(to);
+    }
+
+    /** Queues both directions of every edge of the group, with the costs as they are now. */
+    private void queueCollapses(int group) {
+        for (int t : groupTriangles.get(group)) {
+            if (!alive[t]) {
+                continue;
+            }
+            for (int corner = 0; corner < 3; corner++) {
+                int other = group(t, corner);
+                if (other != group) {
+                    queue.add(new Collapse(group, other, cost(group, other), versions[group], versions[other]));
+                    queue.add(new Collapse(other, group, cost(other, group), versions[other], versions[group]));
+                }
+            }
+        }
+    }
+
+    /** The error of the merged quadric at to's position. */
+    private double cost(int from, int to) {
+        int v = groupVertex[to] * 3;
+        double x = vertices[v], y = vertices[v + 1], z = vertices[v + 2];
+        double[] q = quadrics;
+        int a = from * 10, b = to * 10;
+        return (q[a] + q[b]) * x * x + 2 * (q[a + 1] + q[b + 1]) * x * y + 2 * (q[a + 2] + q[b + 2]) * x * z
+                + 2 * (q[a + 3] + q[b + 3]) * x + (q[a + 4] + q[b + 4]) * y * y
+                + 2 * (q[a + 5] + q[b + 5]) * y * z + 2 * (q[a + 6] + q[b + 6]) * y
+                + (q[a + 7] + q[b + 7]) * z * z + 2 * (q[a + 8] + q[b + 8]) * z + (q[a + 9] + q[b + 9]);
+    }
+
+    /** Whether moving the given corner of triangle t onto target's position flips (or nearly flips) it. */
+    private boolean turnsOver(int t, int movedCorner, int target) {
+        double[] before = normal(t, -1, 0);
+        double[] after = normal(t, movedCorner, target);
+        double lengths = Math.sqrt(dot(before, before) * dot(after, after));
+        return lengths == 0 || dot(before, after) < MIN_NORMAL_DOT * lengths;
+    }
+
+    /** Unnormalized normal of triangle t, with one corner replaced by another vertex (or none, if -1). */
+    private double[] normal(int t, int replacedCorner, int replacement) {
+        double[] p = new double[9];
+        for (int corner = 0; corner < 3; corner++) {
+            int v = (corner == replacedCorner ? replacement : triangles[t * 3 + corner]) * 3;
+            p[corner * 3] = vertices[v];
+            p[corner * 3 + 1] = vertices[v + 1];
+            p[corner * 3 + 2] = vertices[v + 2];
+        }
+        double ux = p[3] - p[0], uy = p[4] - p[1], uz = p[5] - p[2];
+        double vx = p[6] - p[0], vy = p[7] - p[1], vz = p[8] - p[2];
+        return new double[]{uy * vz - uz * vy, uz * vx - ux * vz, ux * vy - uy * vx};
+    }
+
+    private void addTrianglePlane(int t) {
+        double[] n = normal(t, -1, 0);
+        double length = Math.sqrt(dot(n, n));
+        if (length == 0) {
+            return;
+        }
+        int v = triangles[t * 3] * 3;
+        double a = n[0] / length, b = n[1] / length, c = n[2] / length;
+        double d = -(a * vertices[v] + b * vertices[v + 1] + c * vertices[v + 2]);
+        double area = length / 2;
+        for (int corner = 0; corner < 3; corner++) {
+            addPlane(group(t, corner), a, b, c, d, area);
+        }
+    }
+
+    /** A plane through the border edge (from group g0 to g1), perpendicular to the triangle t it belongs to. */
+    private void addBorderPlane(int g0, int g1, int t) {
+        int v0 = groupVertex[g0] * 3;
+        int v1 = groupVertex[g1] * 3;
+        double ex = vertices[v1] - vertices[v0], ey = vertices[v1 + 1] - vertices[v0 + 1];
+        double ez = vertices[v1 + 2] - vertices[v0 + 2];
+        double[] n = normal(t, -1, 0);
+        double a = ey * n[2] - ez * n[1], b = ez * n[0] - ex * n[2], c = ex * n[1] - ey * n[0];
+        double length = Math.sqrt(a * a + b * b + c * c);
+        if (length == 0) {
+            return;
+        }
+        a /= length;
+        b /= length;
+        c /= length;
+        double d = -(a * vertices[v0] + b * vertices[v0 + 1] + c * vertices[v0 + 2]);
+        double weight = BORDER_WEIGHT * (ex * ex + ey * ey + ez * ez);
+        addPlane(g0, a, b, c, d, weight);
+        addPlane(g1, a, b, c, d, weight);
+    }
+
+    /** Adds weight * (squared distance to the plane ax + by + cz + d = 0) to the group's quadric, stored as the
+     *  upper half of the symmetric matrix: aa, ab, ac, ad, bb, bc, bd, cc, cd, dd. */
+    private void addPlane(int group, double a, double b, double c, double d, double weight) {
+        int q = group * 10;
+        quadrics[q] += weight * a * a;
+        quadrics[q + 1] += weight * a * b;
+        quadrics[q + 2] += weight * a * c;
+        quadrics[q + 3] += weight * a * d;
+        quadrics[q + 4] += weight * b * b;
+        quadrics[q + 5] += weight * b * c;
+        quadrics[q + 6] += weight * b * d;
+        quadrics[q + 7] += weight * c * c;
+        quadrics[q + 8] += weight * c * d;
+        quadrics[q + 9] += weight * d * d;
+    }
+
+    /** Gives vertices with exactly the same position the same group (by sorting them), returns the count. */
+    private int weld(int vertexCount) {
+        Integer[] order = new Integer[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> {
+            for (int axis = 0; axis < 3; axis++) {
+                int compare = Float.compare(vertices[i * 3 + axis], vertices[j * 3 + axis]);
+                if (compare != 0) {
+                    return compare;
+                }
+            }
+            return 0;
+        });
+        int groupCount = 0;
+        for (int i = 0; i < vertexCount; i++) {
+            boolean same = i > 0;
+            for (int axis = 0; axis < 3 && same; axis++) {
+                same = vertices[order[i] * 3 + axis] == vertices[order[i - 1] * 3 + axis];
+            }
+            groupOf[order[i]] = same ? groupCount - 1 : groupCount++;
+        }
+        return groupCount;
+    }
+
+    private ModelData toModelData(ModelData data) {
+        int[] remap = new int[vertices.length / 3];
+        Arrays.fill(remap, -1);
+        int[] indices = new int[aliveCount * 3];
+        int vertexCount = 0;
+        int count = 0;
+        for (int t = 0; t < alive.length; t++) {
+            if (!alive[t]) {
+                continue;
+            }
+            for (int corner = 0; corner < 3; corner++) {
+                int vertex = triangles[t * 3 + corner];
+                if (remap[vertex] == -1) {
+                    remap[vertex] = vertexCount++;
+                }
+                indices[count++] = remap[vertex];
+            }
+        }
+        float[] positions = new float[vertexCount * 3];
+        float[] textureCoords = new float[vertexCount * 2];
+        float[] normals = new float[vertexCount * 3];
+        for (int vertex = 0; vertex < remap.length; vertex++) {
+            if (remap[vertex] != -1) {
+                System.arraycopy(vertices, vertex * 3, positions, remap[vertex] * 3, 3);
+                System.arraycopy(data.getTextureCoords(), vertex * 2, textureCoords, remap[vertex] * 2, 2);
+                System.arraycopy(data.getNormals(), vertex * 3, normals, remap[vertex] * 3, 3);
+            }
+        }
+        // Keeps the original's furthest point, so culling and LOD selection see the same bounds at every level.
+        return new ModelData(positions, textureCoords, normals, indices, data.getFurthestPoint());
+    }
+
+    private int group(int t, int corner) {
+        return groupOf[triangles[t * 3 + corner]];
+    }
+
+    /** Which corner of triangle t is in the group, or -1. */
+    private int corner(int t, int group) {
+        for (int corner = 0; corner < 3; corner++) {
+            if (group(t, corner) == group) {
+                return corner;
+            }
+        }
+        return -1;
+    }
+
+    private long edgeKey(int g0, int g1) {
+        return (long) Math.min(g0, g1) * groupVertex.length + Math.max(g0, g1);
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    private static class Collapse implements Comparable<Collapse> {
+
+        private final int from;
+        private final int to;
+        private final double cost;
+        private final int fromVersion;
+        private final int toVersion;
+
+        private Collapse(int from, int to, double cost, int fromVersion, int toVersion) {
+            this.from = from;
+            this.to = to;
+            this.cost = cost;
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package toolbox;
+
+import objConverter.ModelData;
+
+import java.util.Arrays;
+
+/** Reorders the triangles of an indexed mesh so that the GPU's post-transform vertex cache hits more often, and
+ *  then the vertices in the order they are first used, so fetching them from the VBO walks through it forwards.
+ *
+ *  The GPU keeps the outputs of the vertex shader for the last few vertices it ran; a triangle whose vertices
+ *  are still in there doesn't run the shader for them again. How well that works is measured by the ACMR
+ *  (average cache miss ratio): vertex shader runs per triangle. It is 3 for a mesh that never shares anything,
+ *  around 0.5 - 0.7 for a well ordered grid, and whatever order a modelling program wrote the faces in usually
+ *  lands somewhere around 1 - 2.
+ *
+ *  The triangle order is Tom Forsyth's "Linear-Speed Vertex Cache Optimisation": it simulates an LRU cache
+ *  of CACHE_SIZE vertices and greedily adds the triangle with the best score next. A vertex scores higher the
+ *  more recently it was used, and the fewer triangles it still has left (so that stragglers get finished off
+ *  instead of needing a miss later on); a triangle scores the sum of its three vertices.
+ */
+public class VertexCacheOptimizer {
+
+    private static final int CACHE_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    private static final int MAX_VALENCE_BOOSTED = 32;   // More remaining triangles than this all score the same.
+    private static final float[] CACHE_POSITION_SCORES = new float[CACHE_SIZE];
+    private static final float[] VALENCE_SCORES = new float[MAX_VALENCE_BOOSTED + 1];
+
+    static {
+        // Scores only depend on two small integers, so they are worked out once instead of calling Math.pow()
+        // dozens of times for every triangle added.
+        for (int position = 0; position < CACHE_SIZE; position++) {
+            if (position < 3) {
+                // The last triangle's vertices get a fixed score, or the same triangle would tend to be repeated
+                // in strips that are bad for caches bigger than 3.
+                CACHE_POSITION_SCORES[position] = LAST_TRIANGLE_SCORE;
+            } else {
+                float scaler = 1.0f / (CACHE_SIZE - 3);
+                CACHE_POSITION_SCORES[position] = (float) Math.pow(1.0f - (position - 3) * scaler,
+                        CACHE_DECAY_POWER);
+            }
+        }
+        for (int valence = 1; valence <= MAX_VALENCE_BOOSTED; valence++) {
+            VALENCE_SCORES[valence] = VALENCE_BOOST_SCALE * (float) Math.pow(valence, -VALENCE_BOOST_POWER);
+        }
+    }
+
+    /** Cache size the ACMR reports are simulated with: a FIFO that size is a fair stand in for most GPUs. */
+    public static final int REPORT_CACHE_SIZE = 16;
+
+    /** Returns the mesh with its triangles and vertices reordered (the mesh itself isn't changed). Vertices no
+     *  triangle uses are kept, at the end. */
+    public static ModelData optimize(ModelData data) {
+        int vertexCount = data.getVertices().length / 3;
+        int[] indices = data.getIndices().clone();
+        optimizeTriangles(indices, 0, indices.length);
+
+        int[] remap = new int[vertexCount];            // Old vertex -> new vertex.
+        Arrays.fill(remap, -1);
+        int next = 0;
+        for (int i = 0; i < indices.length; i++) {
+            if (remap[indices[i]] == -1) {
+                remap[indices[i]] = next++;
+            }
+            indices[i] = remap[indices[i]];
+        }
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            if (remap[vertex] == -1) {
+                remap[vertex] = next++;
+            }
+        }
+        return new ModelData(remapAttribute(data.getVertices(), remap, 3),
+                remapAttribute(data.getTextureCoords(), remap, 2), remapAttribute(data.getNormals(), remap, 3),
+                indices, data.getFurthestPoint());
+    }
+
+    /** Reorders the count / 3 triangles starting at indices[offset] in place. Only the order of the triangles
+     *  changes (each keeps its winding), so it also works on index ranges that share vertices with others, like
+     *  the terrain's LOD patterns. */
+    public static void optimizeTriangles(int[] indices, int offset, int count) {
+        int triangleCount = count / 3;
+        if (triangleCount < 2) {
+            return;
+        }
+        int minVertex = Integer.MAX_VALUE;
+        int maxVertex = 0;
+        for (int i = offset; i < offset + count; i++) {
+            minVertex = Math.min(minVertex, indices[i]);
+            maxVertex = Math.max(maxVertex, indices[i]);
+        }
+        int vertexCount = maxVertex - minVertex + 1;
+
+        // The triangles of every vertex, as one array with a start per vertex. Added triangles are swapped
+        // behind the vertex's remaining ones, so its first remaining[v] entries are the triangles still to add.
+        int[] remaining = new int[vertexCount];
+        for (int i = offset; i < offset + count; i++) {
+            remaining[indices[i] - minVertex]++;
+        }
+        int[] start = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) {
+            start[v + 1] = start[v] + remaining[v];
+        }
+        int[] vertexTriangles = new int[count];
+        int[] fill = Arrays.copyOf(start, vertexCount);
+        for (int t = 0; t < triangleCount; t++) {
+            for (int corner = 0; corner < 3; corner++) {
+                vertexTriangles[fill[indices[offset + t * 3 + corner] - minVertex]++] = t;
+            }
+        }
+
+        int[] cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        float[] vertexScores = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexScores[v] = vertexScore(-1, remaining[v]);
+        }
+        float[] triangleScores = new float[triangleCount];
+        boolean[] added = new boolean[triangleCount];
+        for (int t = 0; t < triangleCount; t++) {
+            triangleScores[t] = triangleScore(indices, offset, t, minVertex, vertexScores);
+        }
+
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+        int[] result = new int[count];
+        int nextUnadded = 0;            // Where to look for a triangle when none next to the cache is left.
+        int best = bestTriangle(triangleScores, added, 0, triangleCount);
+        for (int n = 0; n < triangleCount; n++) {
+            if (best == -1) {
+                while (added[nextUnadded]) {
+                    nextUnadded++;
+                }
+                best = nextUnadded;
+            }
+            added[best] = true;
+            System.arraycopy(indices, offset + best * 3, result, n * 3, 3);
+
+            // The triangle's vertices move to the front of the cache, followed by the rest in their old order.
+            int newCount = 0;
+            for (int corner = 0; corner < 3; corner++) {
+                int v = indices[offset + best * 3 + corner] - minVertex;
+                removeTriangle(vertexTriangles, start[v], remaining[v]--, best);
+                if (indexOf(newCache, newCount, v) == -1) {         // Degenerate triangles repeat a vertex.
+                    newCache[newCount++] = v;
+                }
+            }
+            int front = newCount;
+            for (int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                if (indexOf(newCache, front, v) == -1) {
+                    newCache[newCount++] = v;
+                }
+            }
+            int[] swap = cache;
+            cache = newCache;
+            newCache = swap;
+            cacheCount = newCount;
+
+            // Rescore everything in the cache (and what just fell out of it), then their remaining triangles.
+            for (int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                cachePosition[v] = i < CACHE_SIZE ? i : -1;
+                vertexScores[v] = vertexScore(cachePosition[v], remaining[v]);
+            }
+            best = -1;
+            float bestScore = -1;
+            for (int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                for (int j = start[v]; j < start[v] + remaining[v]; j++) {
+                    int t = vertexTriangles[j];
+                    triangleScores[t] = triangleScore(indices, offset, t, minVertex, vertexScores);
+                    if (triangleScores[t] > bestScore) {
+                        bestScore = triangleScores[t];
+                        best = t;
+                    }
+                }
+            }
+            cacheCount = Math.min(cacheCount, CACHE_SIZE);
+        }
+        System.arraycopy(result, 0, indices, offset, count);
+    }
+
+    /** Vertex shader runs per triangle for the given triangles, with a FIFO post-transform cache of cacheSize. */
+    public static float calculateACMR(int[] indices, int offset, int count, int cacheSize) {
+        int triangleCount = count / 3;
+        if (triangleCount == 0) {
+            return 0;
+        }
+        int[] fifo = new int[cacheSize];
+        Arrays.fill(fifo, -1);
+        int head = 0;
+        int misses = 0;
+        for (int i = offset; i < offset + triangleCount * 3; i++) {
+            boolean hit = false;
+            for (int cached : fifo) {
+                if (cached == indices[i]) {
+                    hit = true;
+                    break;
+                }
+            }
+            if (!hit) {
+                fifo[head] = indices[i];
+                head = (head + 1) % cacheSize;
+                misses++;
+            }
+        }
+        return misses / (float) triangleCount;
+    }
+
+    public static float calculateACMR(int[] indices) {
+        return calculateACMR(indices, 0, indices.length, REPORT_CACHE_SIZE);
+    }
+
+    private static float vertexScore(int cachePosition, int remainingTriangles) {
+        if (remainingTriangles == 0) {
+            return -1;          // Nothing left to draw with it.
+        }
+        float score = cachePosition >= 0 ? CACHE_POSITION_SCORES[cachePosition] : 0;
+        return score + VALENCE_SCORES[Math.min(remainingTriangles, MAX_VALENCE_BOOSTED)];
+    }
+
+    private static float triangleScore(int[] indices, int offset, int t, int minVertex, float[] vertexScores) {
+        int i = offset + t * 3;
+        return vertexScores[indices[i] - minVertex] + vertexScores[indices[i + 1] - minVertex]
+                + vertexScores[indices[i + 2] - minVertex];
+    }
+
+    private static int bestTriangle(float[] triangleScores, boolean[] added, int from, int to) {
+        int best = -1;
+        for (int t = from; t < to; t++) {
+            if (!added[t] && (best == -1 || triangleScores[t] > triangleScores[best])) {
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    private static int indexOf(int[] array, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Swaps triangle to the end of a vertex's remaining triangles (which the caller then shortens by one). */
+    private static void removeTriangle(int[] vertexTriangles, int start, int remaining, int triangle) {
+        int last = start + remaining - 1;
+        for (int j = start; j <= last; j++) {
+            if (vertexTriangles[j] == triangle) {
+                vertexTriangles[j] = vertexTriangles[last];
+                vertexTriangles[last] = triangle;
+                return;
+            }
+        }
+    }
+
+    private static float[] remapAttribute(float[] data, int[] remap, int size) {
+        float[] result = new float[data.length];
+        for (int vertex = 0; vertex < remap.length; vertex++) {
+            System.arraycopy(data, vertex * size, result, remap[vertex] * size, size);
+        }
+        return result;
+    }
+}
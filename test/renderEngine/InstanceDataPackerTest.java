@@ -0,0 +1,112 @@
+package renderEngine;
+
+import entities.Entity;
+import entities.Scene;
+import models.RawModel;
+import models.TexturedModel;
+import org.junit.Test;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import textures.ModelTexture;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** The instance layout is a contract with the vertex shader (attributes 3-6 the matrix columns, 7 the atlas
+ *  offset) and with EntityRenderer's attribute pointers, so it is pinned down here float by float. */
+public class InstanceDataPackerTest {
+
+    private static TexturedModel createAtlasModel() {
+        TexturedModel model = new TexturedModel(new RawModel(1, 3, 1), new ModelTexture(1));
+        model.getTexture().setNumberOfRows(2);
+        return model;
+    }
+
+    private static List<Entity> createEntities(TexturedModel model) {
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            entities.add(new Entity(model, i % 4, new Vector3f(10 * i, -i, 3.5f * i), 15 * i, 40 + i, -7 * i,
+                    1 + i * 0.25f));
+        }
+        return entities;
+    }
+
+    /** The 18 floats one entity should take up, with the matrix built the long way (translate, rotate around x,
+     *  y and z, scale) rather than by the closed form the engine uses. */
+    private static float[] expectedInstance(Entity entity, int rows) {
+        Matrix4f matrix = new Matrix4f();
+        Matrix4f.translate(entity.getPosition(), matrix, matrix);
+        Matrix4f.rotate((float) Math.toRadians(entity.getRx()), new Vector3f(1, 0, 0), matrix, matrix);
+        Matrix4f.rotate((float) Math.toRadians(entity.getRy()), new Vector3f(0, 1, 0), matrix, matrix);
+        Matrix4f.rotate((float) Math.toRadians(entity.getRz()), new Vector3f(0, 0, 1), matrix, matrix);
+        Matrix4f.scale(new Vector3f(entity.getScale(), entity.getScale(), entity.getScale()), matrix, matrix);
+        FloatBuffer columns = FloatBuffer.allocate(16);
+        matrix.store(columns);                                  // Column major, what the shader's mat4 expects.
+        float[] expected = Arrays.copyOf(columns.array(), InstanceDataPacker.INSTANCE_DATA_LENGTH);
+        int index = entity.getTextureIndex();
+        expected[16] = (float) (index % rows) / rows;
+        expected[17] = (float) (index / rows) / rows;
+        return expected;
+    }
+
+    @Test
+    public void layoutIsMatrixThenAtlasOffset() {
+        assertEquals(16, InstanceDataPacker.MATRIX_LENGTH);
+        assertEquals(2, InstanceDataPacker.OFFSET_LENGTH);
+        assertEquals(18, InstanceDataPacker.INSTANCE_DATA_LENGTH);
+    }
+
+    @Test
+    public void instancesArePackedBackToBackAtTheirOffsets() {
+        List<Entity> entities = createEntities(createAtlasModel());
+        InstanceDataPacker packer = new InstanceDataPacker(8);
+        int written = packer.pack(entities, 1, 3);
+        assertEquals(3 * InstanceDataPacker.INSTANCE_DATA_LENGTH, written);
+        float[] data = packer.getData();
+        for (int i = 0; i < 3; i++) {
+            int offset = i * InstanceDataPacker.INSTANCE_DATA_LENGTH;
+            float[] instance = Arrays.copyOfRange(data, offset, offset + InstanceDataPacker.INSTANCE_DATA_LENGTH);
+            assertArrayEquals("instance " + i, expectedInstance(entities.get(1 + i), 2), instance, 1e-5f);
+        }
+    }
+
+    @Test
+    public void atlasOffsetIsColumnThenRow() {
+        Entity entity = new Entity(createAtlasModel(), 1, new Vector3f(), 0, 0, 0, 1);     // Column 1, row 0.
+        float[] data = new float[InstanceDataPacker.INSTANCE_DATA_LENGTH];
+        assertEquals(InstanceDataPacker.INSTANCE_DATA_LENGTH, InstanceDataPacker.storeInstance(entity, data, 0));
+        assertEquals(0.5f, data[InstanceDataPacker.MATRIX_LENGTH], 0);
+        assertEquals(0, data[InstanceDataPacker.MATRIX_LENGTH + 1], 0);
+    }
+
+    @Test
+    public void packClampsToCapacity() {
+        InstanceDataPacker packer = new InstanceDataPacker(2);
+        assertEquals(2 * InstanceDataPacker.INSTANCE_DATA_LENGTH,
+                packer.pack(createEntities(createAtlasModel()), 0, 5));
+    }
+
+    @Test
+    public void sceneEntitiesPackTheSameAsLooseOnes() {
+        TexturedModel model = createAtlasModel();
+        List<Entity> loose = createEntities(model);
+        List<Entity> inScene = createEntities(model);
+        Scene scene = new Scene(0, 0, 0, 1024, 8);
+        for (Entity entity : inScene) {
+            scene.add(entity);
+        }
+        scene.update();
+        float[] looseData = new float[loose.size() * InstanceDataPacker.INSTANCE_DATA_LENGTH];
+        float[] sceneData = new float[looseData.length];
+        for (int i = 0; i < loose.size(); i++) {
+            InstanceDataPacker.storeInstance(loose.get(i), looseData, i * InstanceDataPacker.INSTANCE_DATA_LENGTH);
+            InstanceDataPacker.storeInstance(inScene.get(i), sceneData, i * InstanceDataPacker.INSTANCE_DATA_LENGTH);
+        }
+        assertArrayEquals(looseData, sceneData, 1e-5f);
+    }
+}
@@ -0,0 +1,54 @@
+package renderEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Writes down the calls instead of making them, one line each (like "bindVertexArray 3"), so that what a
+ *  RenderState sends for a sequence of requests can be checked without OpenGL. */
+public class RecordingBackend implements GLBackend {
+
+    private final List<String> calls = new ArrayList<>();
+
+    public List<String> getCalls() {
+        return calls;
+    }
+
+    public void clear() {
+        calls.clear();
+    }
+
+    @Override
+    public void useProgram(int program) {
+        calls.add("useProgram " + program);
+    }
+
+    @Override
+    public void bindVertexArray(int vao) {
+        calls.add("bindVertexArray " + vao);
+    }
+
+    @Override
+    public void activeTexture(int unit) {
+        calls.add("activeTexture " + unit);
+    }
+
+    @Override
+    public void bindTexture(int texture) {
+        calls.add("bindTexture " + texture);
+    }
+
+    @Override
+    public void setCapability(int capability, boolean enabled) {
+        calls.add((enabled ? "enable " : "disable ") + capability);
+    }
+
+    @Override
+    public void cullFace(int face) {
+        calls.add("cullFace " + face);
+    }
+
+    @Override
+    public void setVertexAttribArray(int attribute, boolean enabled) {
+        calls.add((enabled ? "enableVertexAttribArray " : "disableVertexAttribArray ") + attribute);
+    }
+}
@@ -0,0 +1,150 @@
+package renderEngine;
+
+import org.junit.Test;
+import org.lwjgl.opengl.GL11;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/** What the RenderState sends to OpenGL for a sequence of requests, recorded by a RecordingBackend, and how it
+ *  counts the requests it sent against the ones it could skip. */
+public class RenderStateTest {
+
+    private final RecordingBackend backend = new RecordingBackend();
+    private final RenderState state = new RenderState(backend);
+
+    private void assertCounts(int changes, int avoided) {
+        assertEquals("state changes", changes, state.getStateChanges());
+        assertEquals("state changes avoided", avoided, state.getStateChangesAvoided());
+        assertEquals("every change is one call", changes, backend.getCalls().size());
+    }
+
+    @Test
+    public void repeatedBindsAreOnlySentOnce() {
+        state.useProgram(1);
+        state.useProgram(1);
+        state.bindVertexArray(3);
+        state.bindVertexArray(3);
+        state.bindVertexArray(3);
+        state.useProgram(2);
+
+        assertEquals(Arrays.asList("useProgram 1", "bindVertexArray 3", "useProgram 2"), backend.getCalls());
+        assertCounts(3, 3);
+    }
+
+    @Test
+    public void capabilitiesAreOnlySentWhenTheyChange() {
+        state.setDepthTest(true);
+        state.setDepthTest(true);
+        state.setBlending(false);
+        state.setCulling(true);
+        state.setCulling(false);
+        state.setCulling(false);
+        state.setCullFace(GL11.GL_BACK);
+        state.setCullFace(GL11.GL_BACK);
+
+        assertEquals(Arrays.asList("enable " + GL11.GL_DEPTH_TEST, "disable " + GL11.GL_BLEND,
+                "enable " + GL11.GL_CULL_FACE, "disable " + GL11.GL_CULL_FACE, "cullFace " + GL11.GL_BACK),
+                backend.getCalls());
+        assertCounts(5, 3);
+    }
+
+    /** Switching the active unit is a change of its own, and is only made when a binding has to change. */
+    @Test
+    public void texturesSwitchTheActiveUnitOnlyWhenNeeded() {
+        state.bindTexture(0, 5);
+        state.bindTexture(0, 5);
+        state.bindTexture(0, 6);
+        state.bindTexture(1, 7);
+        state.bindTexture(0, 6);
+
+        assertEquals(Arrays.asList("activeTexture 0", "bindTexture 5", "bindTexture 6", "activeTexture 1",
+                "bindTexture 7"), backend.getCalls());
+        // The second bind of 5 and of 6 are avoided, and so is keeping unit 0 active for 6.
+        assertCounts(5, 3);
+    }
+
+    @Test
+    public void attributeListsAreKeptPerVertexArray() {
+        state.vertexArrayCreated(1);
+        state.vertexArrayCreated(2);
+        state.bindVertexArray(1);
+        state.setEnabledAttributes(0b111);
+        state.bindVertexArray(2);
+        state.setEnabledAttributes(0b011);
+        backend.clear();
+        state.beginFrame();
+
+        state.bindVertexArray(1);
+        state.setEnabledAttributes(0b111);
+        state.bindVertexArray(2);
+        state.setEnabledAttributes(0b110);
+
+        assertEquals(Arrays.asList("bindVertexArray 1", "bindVertexArray 2", "disableVertexAttribArray 0",
+                "enableVertexAttribArray 2"), backend.getCalls());
+        // Lists 0-2 of VAO 1 and list 1 of VAO 2 were already enabled.
+        assertCounts(4, 4);
+    }
+
+    @Test
+    public void aRecreatedVertexArrayStartsWithNoAttributeLists() {
+        state.vertexArrayCreated(4);
+        state.bindVertexArray(4);
+        state.setEnabledAttributes(0b1);
+        state.vertexArrayCreated(4);
+        state.forgetVertexArray();
+        backend.clear();
+
+        state.bindVertexArray(4);
+        state.setEnabledAttributes(0b1);
+
+        assertEquals(Arrays.asList("bindVertexArray 4", "enableVertexAttribArray 0"), backend.getCalls());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void attributeListsNeedABoundVertexArray() {
+        state.setEnabledAttributes(0b1);
+    }
+
+    @Test
+    public void beginFrameResetsTheCountersAndForgetsTheBindings() {
+        state.useProgram(1);
+        state.useProgram(1);
+        state.setDepthTest(true);
+        state.bindTexture(0, 5);
+        state.beginFrame();
+        backend.clear();
+        assertCounts(0, 0);
+
+        // Anything may have been bound directly in between, so the first requests are sent again.
+        state.useProgram(1);
+        state.setDepthTest(true);
+        state.bindTexture(0, 5);
+        state.useProgram(1);
+
+        assertEquals(Arrays.asList("useProgram 1", "enable " + GL11.GL_DEPTH_TEST, "activeTexture 0",
+                "bindTexture 5"), backend.getCalls());
+        assertCounts(4, 1);
+    }
+
+    @Test
+    public void onlyTheFirstRequestOfEachKindInAFrameIsSent() {
+        for (int frame = 0; frame < 2; frame++) {
+            state.beginFrame();
+            backend.clear();
+            state.useProgram(1);
+            state.bindTexture(0, 5);
+            for (int batch = 0; batch < 10; batch++) {
+                state.useProgram(1);
+                state.setCulling(true);
+                state.bindTexture(0, 5);
+            }
+        }
+
+        assertEquals(Arrays.asList("useProgram 1", "activeTexture 0", "bindTexture 5", "enable " + GL11.GL_CULL_FACE),
+                backend.getCalls());
+        // useProgram, activeTexture, bindTexture and the first setCulling; the other 29 requests are avoided.
+        assertCounts(4, 29);
+    }
+}
@@ -0,0 +1,85 @@
+package renderEngine;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** The compressed vertex formats must not lose more than their bit counts allow. */
+public class VertexPackerTest {
+
+    private static final int SAMPLES = 1000000;
+
+    @Test
+    public void everyHalfFloatRoundTripsExactly() {
+        for (int bits = 0; bits <= 0xFFFF; bits++) {
+            short half = (short) bits;
+            float value = VertexPacker.fromHalf(half);
+            if (Float.isNaN(value)) {
+                // NaNs come back as the one quiet NaN, which is all a NaN has to stay.
+                assertTrue(Float.isNaN(VertexPacker.fromHalf(VertexPacker.toHalf(value))));
+                continue;
+            }
+            assertEquals("half 0x" + Integer.toHexString(bits), half, VertexPacker.toHalf(value));
+        }
+    }
+
+    @Test
+    public void floatsRoundToTheNearestHalfFloat() {
+        Random random = new Random(1);
+        for (int i = 0; i < SAMPLES; i++) {
+            float value = (random.nextFloat() * 2 - 1) * 65504;
+            short half = VertexPacker.toHalf(value);
+            float rounded = VertexPacker.fromHalf(half);
+            float below = VertexPacker.fromHalf((short) (half - 1));
+            float above = VertexPacker.fromHalf((short) (half + 1));
+            // No neighbouring half float may be closer than the one it was rounded to.
+            assertTrue(value + " became " + rounded, Math.abs(value - rounded) <= Math.abs(value - below));
+            assertTrue(value + " became " + rounded, Math.abs(value - rounded) <= Math.abs(value - above));
+        }
+    }
+
+    @Test
+    public void packedNormalsStayWithinHalfAStep() {
+        float tolerance = 0.5f / 511 + 1e-6f;
+        Random random = new Random(2);
+        for (int i = 0; i < SAMPLES; i++) {
+            float x = (float) random.nextGaussian();
+            float y = (float) random.nextGaussian();
+            float z = (float) random.nextGaussian();
+            float length = (float) Math.sqrt(x * x + y * y + z * z);
+            float[] normal = {x / length, y / length, z / length};
+            int packed = VertexPacker.packNormal(normal[0], normal[1], normal[2]);
+            for (int component = 0; component < 3; component++) {
+                assertEquals(normal[component], VertexPacker.unpackNormal(packed, component), tolerance);
+            }
+        }
+        int axes = VertexPacker.packNormal(-1, 0, 1);
+        assertEquals(-1, VertexPacker.unpackNormal(axes, 0), 0);
+        assertEquals(0, VertexPacker.unpackNormal(axes, 1), 0);
+        assertEquals(1, VertexPacker.unpackNormal(axes, 2), 0);
+    }
+
+    @Test
+    public void quantizedPositionsStayWithinHalfAStep() {
+        Random random = new Random(3);
+        float[][] bounds = {{0, 1}, {-400, 800}, {-12.5f, 0.75f}, {1000, 40}};      // {min, range}
+        for (float[] bound : bounds) {
+            float min = bound[0];
+            float range = bound[1];
+            // Half of one of the 65535 steps, plus the float rounding of min + step * range.
+            float tolerance = range / 131070 + Math.ulp(Math.abs(min) + range) * 2;
+            for (int i = 0; i < SAMPLES; i++) {
+                float value = min + random.nextFloat() * range;
+                short quantized = VertexPacker.quantize(value, min, range);
+                assertEquals(value, VertexPacker.dequantize(quantized, min, range), tolerance);
+            }
+            assertEquals(min, VertexPacker.dequantize(VertexPacker.quantize(min, min, range), min, range), 0);
+            assertEquals(min + range,
+                    VertexPacker.dequantize(VertexPacker.quantize(min + range, min, range), min, range),
+                    Math.ulp(min + range));
+        }
+    }
+}
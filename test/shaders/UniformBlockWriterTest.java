@@ -0,0 +1,167 @@
+package shaders;
+
+import entities.Light;
+import org.junit.Test;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/** The FrameData block is written on the CPU and read by every shader at the offsets std140 gives its members,
+ *  so a member out of place shows up as wrong lighting or fog rather than an error. The offsets are worked out
+ *  by hand here from the std140 rules. */
+public class UniformBlockWriterTest {
+
+    private static final String[] FRAME_DATA_SHADERS = {"vertexShader.txt", "fragmentShader.txt",
+            "terrainVertexShader.txt", "terrainFragmentShader.txt"};
+    private static final List<String> FRAME_DATA_MEMBERS = Arrays.asList(
+            "mat4 viewMatrix", "mat4 projectionMatrix", "mat4 projectionViewMatrix", "vec3 cameraPosition",
+            "vec3 lightPosition", "vec3 lightColour", "vec3 skyColour", "float fogDensity", "float fogGradient");
+
+    private static ByteBuffer createBuffer() {
+        return ByteBuffer.allocate(512).order(ByteOrder.nativeOrder());
+    }
+
+    /** A matrix whose 16 floats are all different: first, first + 1, ... in column major order. */
+    private static Matrix4f createMatrix(float first) {
+        Matrix4f matrix = new Matrix4f();
+        matrix.m00 = first;      matrix.m01 = first + 1;  matrix.m02 = first + 2;  matrix.m03 = first + 3;
+        matrix.m10 = first + 4;  matrix.m11 = first + 5;  matrix.m12 = first + 6;  matrix.m13 = first + 7;
+        matrix.m20 = first + 8;  matrix.m21 = first + 9;  matrix.m22 = first + 10; matrix.m23 = first + 11;
+        matrix.m30 = first + 12; matrix.m31 = first + 13; matrix.m32 = first + 14; matrix.m33 = first + 15;
+        return matrix;
+    }
+
+    private static void assertMat4At(ByteBuffer buffer, int offset, float first) {
+        for (int i = 0; i < 16; i++) {
+            assertEquals("float " + i + " of the mat4 at " + offset, first + i, buffer.getFloat(offset + i * 4), 0);
+        }
+    }
+
+    private static void assertVec3At(ByteBuffer buffer, int offset, float x, float y, float z) {
+        assertEquals(x, buffer.getFloat(offset), 0);
+        assertEquals(y, buffer.getFloat(offset + 4), 0);
+        assertEquals(z, buffer.getFloat(offset + 8), 0);
+    }
+
+    @Test
+    public void frameDataMembersAreAtTheirStd140Offsets() {
+        ByteBuffer buffer = createBuffer();
+        Light light = new Light(new Vector3f(4, 5, 6), new Vector3f(7, 8, 9));
+        int size = FrameUniforms.writeBlock(new UniformBlockWriter(buffer), createMatrix(100), createMatrix(200),
+                createMatrix(300), new Vector3f(1, 2, 3), light, new Vector3f(10, 11, 12), 0.5f, 1.5f);
+
+        assertMat4At(buffer, 0, 100);
+        assertMat4At(buffer, 64, 200);
+        assertMat4At(buffer, 128, 300);
+        assertVec3At(buffer, 192, 1, 2, 3);
+        assertVec3At(buffer, 208, 4, 5, 6);
+        assertVec3At(buffer, 224, 7, 8, 9);
+        assertVec3At(buffer, 240, 10, 11, 12);
+        // The first float goes into the last 4 bytes of skyColour, the second starts the next 16.
+        assertEquals(0.5f, buffer.getFloat(252), 0);
+        assertEquals(1.5f, buffer.getFloat(256), 0);
+        assertEquals(272, size);
+    }
+
+    @Test
+    public void writingAgainStartsFromTheFirstMember() {
+        ByteBuffer buffer = createBuffer();
+        UniformBlockWriter writer = new UniformBlockWriter(buffer);
+        Light light = new Light(new Vector3f(), new Vector3f());
+        FrameUniforms.writeBlock(writer, createMatrix(0), createMatrix(0), createMatrix(0), new Vector3f(), light,
+                new Vector3f(), 0, 0);
+        int size = FrameUniforms.writeBlock(writer, createMatrix(100), createMatrix(0), createMatrix(0),
+                new Vector3f(), light, new Vector3f(), 0, 2.5f);
+
+        assertEquals(272, size);
+        assertMat4At(buffer, 0, 100);
+        assertEquals(2.5f, buffer.getFloat(256), 0);
+    }
+
+    @Test
+    public void membersAreAlignedToTheirBaseAlignment() {
+        UniformBlockWriter writer = new UniformBlockWriter(createBuffer());
+        writer.putFloat(1);
+        assertEquals(4, writer.getOffset());
+        writer.putVec2(2, 3);               // Aligned to 8, so 4 bytes of padding.
+        assertEquals(16, writer.getOffset());
+        writer.putFloat(4);
+        writer.putVec3(5, 6, 7);            // Aligned to 16.
+        assertEquals(44, writer.getOffset());
+        writer.putInt(8);                   // Fits into the last 4 bytes of the vec3.
+        assertEquals(48, writer.getOffset());
+        writer.putFloat(9);
+        writer.putVec4(10, 11, 12, 13);     // Aligned to 16.
+        assertEquals(80, writer.getOffset());
+        writer.putVec2(14, 15);
+        writer.putFloat(16);
+        assertEquals(92, writer.getOffset());
+        assertEquals(96, writer.getBlockSize());
+    }
+
+    @Test
+    public void valuesAreWrittenAfterThePadding() {
+        ByteBuffer buffer = createBuffer();
+        UniformBlockWriter writer = new UniformBlockWriter(buffer);
+        writer.putFloat(1).putVec2(2, 3).putFloat(4).putVec3(5, 6, 7).putInt(8).putFloat(9)
+                .putVec4(10, 11, 12, 13);
+
+        assertEquals(1, buffer.getFloat(0), 0);
+        assertEquals(2, buffer.getFloat(8), 0);
+        assertEquals(3, buffer.getFloat(12), 0);
+        assertEquals(4, buffer.getFloat(16), 0);
+        assertVec3At(buffer, 32, 5, 6, 7);
+        assertEquals(8, buffer.getInt(44));
+        assertEquals(9, buffer.getFloat(48), 0);
+        assertEquals(10, buffer.getFloat(64), 0);
+        assertEquals(13, buffer.getFloat(76), 0);
+    }
+
+    @Test
+    public void blockSizeIsRoundedUpTo16() {
+        UniformBlockWriter writer = new UniformBlockWriter(createBuffer());
+        assertEquals(0, writer.getBlockSize());
+        writer.putFloat(1);
+        assertEquals(16, writer.getBlockSize());
+        writer.putVec3(2, 3, 4);
+        assertEquals(32, writer.getBlockSize());
+        writer.putMat4(createMatrix(0));
+        assertEquals(96, writer.getBlockSize());
+    }
+
+    /** writeBlock puts the members in a fixed order, so every shader has to declare them in that order too. */
+    @Test
+    public void shadersDeclareFrameDataInTheWrittenOrder() throws IOException {
+        for (String shader : FRAME_DATA_SHADERS) {
+            assertEquals(shader, FRAME_DATA_MEMBERS, readFrameDataMembers("src/shaders/" + shader));
+        }
+    }
+
+    private static List<String> readFrameDataMembers(String file) throws IOException {
+        List<String> members = new ArrayList<>();
+        boolean inBlock = false;
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            int comment = line.indexOf("//");
+            String code = (comment < 0 ? line : line.substring(0, comment)).trim();
+            if (code.contains("uniform " + FrameUniforms.BLOCK_NAME)) {
+                inBlock = true;
+            } else if (inBlock && code.startsWith("}")) {
+                break;
+            } else if (inBlock && !code.isEmpty()) {
+                members.add(code.replaceAll("\\s+", " ").replace(";", ""));
+            }
+        }
+        return members;
+    }
+}